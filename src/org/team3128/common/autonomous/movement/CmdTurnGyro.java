@@ -1,8 +1,10 @@
 package org.team3128.common.autonomous.movement;
 
+import java.util.function.DoubleSupplier;
+
 import org.team3128.common.drive.ITankDrive;
 import org.team3128.common.util.PIDCalculator;
-import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.control.GainSchedule;
 import org.team3128.common.util.datatypes.PIDConstants;
 
 import edu.wpi.first.wpilibj.command.Command;
@@ -53,8 +55,28 @@ public class CmdTurnGyro extends Command {
     	this.drivetrain = drivetrain;
     	
     	pidCalc.setTarget(degrees);
+    	pidCalc.setOutputLimits(-OUTPUT_POWER_LIMIT, OUTPUT_POWER_LIMIT);
+    }
+    
+    /**
+     * Record the turn to a CSV file, for tuning.  All gyro turns share the same trace.
+     * @see PIDCalculator#enableLogging(String)
+     */
+    public void enableLogging()
+    {
     	pidCalc.enableLogging("Gyro Turn");
     }
+    
+    /**
+     * Turn using gains from a gain schedule, e.g. to use different gains in each gear of the drivetrain.
+     * @param operatingPoint gives the value to look the gains up at.  Called every time the command executes.
+     */
+    public CmdTurnGyro(Gyro gyro, ITankDrive drivetrain, double degrees, double threshold, GainSchedule schedule, DoubleSupplier operatingPoint, int msec)
+    {
+    	this(gyro, drivetrain, degrees, threshold, schedule.getConstants(operatingPoint.getAsDouble()), msec);
+    	
+    	pidCalc.setGainSchedule(schedule, operatingPoint);
+    }
 
     protected void initialize()
     {
@@ -67,7 +89,6 @@ public class CmdTurnGyro extends Command {
 		
 		double output = pidCalc.update(gyro.getAngle());
         		
-        output = RobotMath.clamp(output, -OUTPUT_POWER_LIMIT, OUTPUT_POWER_LIMIT);
    		drivetrain.tankDrive(-output, output);
 		
     }
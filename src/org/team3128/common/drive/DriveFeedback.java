@@ -0,0 +1,71 @@
+package org.team3128.common.drive;
+
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+/**
+ * One reading of everything a drive's Talons report, taken at the same moment so that it all agrees.
+ *
+ * Positions, velocities and errors are in native units (velocities per 100 ms), the same as the Talons use.
+ *
+ * SRXTankDrive never changes a snapshot once it has handed it out, so one can be kept for as long as needed.
+ */
+public class DriveFeedback
+{
+	/**
+	 * When the snapshot was taken, from System.nanoTime()
+	 */
+	public long timestamp;
+
+	public int leftPosition, rightPosition;
+
+	public int leftVelocity, rightVelocity;
+
+	public int leftClosedLoopError, rightClosedLoopError;
+
+	/**
+	 * Motor output, from -1 to 1
+	 */
+	public double leftOutput, rightOutput;
+
+	/**
+	 * Output current, in amps
+	 */
+	public double leftCurrent, rightCurrent;
+
+	/**
+	 * Read both sides' Talons into this snapshot.
+	 */
+	void read(TalonSRX leftMotors, TalonSRX rightMotors)
+	{
+		timestamp = System.nanoTime();
+
+		leftPosition = leftMotors.getSelectedSensorPosition(0);
+		leftVelocity = leftMotors.getSelectedSensorVelocity(0);
+		leftClosedLoopError = leftMotors.getClosedLoopError(0);
+		leftOutput = leftMotors.getMotorOutputPercent();
+		leftCurrent = leftMotors.getOutputCurrent();
+
+		rightPosition = rightMotors.getSelectedSensorPosition(0);
+		rightVelocity = rightMotors.getSelectedSensorVelocity(0);
+		rightClosedLoopError = rightMotors.getClosedLoopError(0);
+		rightOutput = rightMotors.getMotorOutputPercent();
+		rightCurrent = rightMotors.getOutputCurrent();
+	}
+
+	public void copyFrom(DriveFeedback other)
+	{
+		timestamp = other.timestamp;
+
+		leftPosition = other.leftPosition;
+		leftVelocity = other.leftVelocity;
+		leftClosedLoopError = other.leftClosedLoopError;
+		leftOutput = other.leftOutput;
+		leftCurrent = other.leftCurrent;
+
+		rightPosition = other.rightPosition;
+		rightVelocity = other.rightVelocity;
+		rightClosedLoopError = other.rightClosedLoopError;
+		rightOutput = other.rightOutput;
+		rightCurrent = other.rightCurrent;
+	}
+}
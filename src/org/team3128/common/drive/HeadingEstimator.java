@@ -0,0 +1,383 @@
+package org.team3128.common.drive;
+
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.util.units.Angle;
+
+import edu.wpi.first.wpilibj.interfaces.Gyro;
+
+/**
+ * Estimates a tank drive's heading by combining a gyro with the difference between the wheel encoders.
+ *
+ * A complementary filter follows the gyro over short times, and is slowly pulled towards the heading from the encoders, which
+ * doesn't drift with time.  The encoders do overestimate turns because the wheels scrub, so while turning, the ratio of the gyro's
+ * rate to the encoders' is averaged into a scrub factor which scales the encoder heading.  Until the robot has turned for long enough
+ * to learn it, the encoder heading just follows the estimate.  Whenever the wheels have been still for
+ * a moment, and the gyro reads no more than a gyro could drift, the robot can't be turning, so whatever the gyro reads is bias: it is
+ * averaged into a bias estimate which is subtracted from the gyro from then on, and the heading is held.  Both checks are needed,
+ * since a slow turn can move the wheels by less than an encoder count per update.
+ *
+ * If the encoders are cleared, encodersCleared() should be called first, so that the jump back to zero isn't counted as a turn.
+ *
+ * Runs on the MotorControlExecutor.  It implements Gyro, so it can be used anywhere a gyro can, e.g. in CmdTurnGyro.
+ * Angles are in degrees, clockwise, like the gyros.
+ */
+public class HeadingEstimator implements Gyro
+{
+	/**
+	 * How long the wheels have to be still before the gyro's reading counts as bias, in seconds
+	 */
+	private final static double STILL_TIME = .5;
+
+	/**
+	 * Encoder movement per update below which the wheels count as still, in cm.  About two counts of a CTRE mag encoder on a
+	 * 6 inch wheel, so only encoder noise counts as still.
+	 */
+	private final static double STILL_DISTANCE = .025;
+
+	/**
+	 * Largest gyro bias that is believed, in degrees per second.  A gyro reading more than this while the wheels are still is taken
+	 * to be a slow turn, not bias.
+	 */
+	private final static double MAX_BIAS = 1;
+
+	/**
+	 * Time constant of the bias average, in seconds
+	 */
+	private final static double BIAS_TIME_CONSTANT = 2;
+
+	/**
+	 * Encoder turning rate above which the scrub factor is learned, in radians per second
+	 */
+	private final static double SCRUB_LEARNING_RATE = .3;
+
+	/**
+	 * Time constant of the scrub factor average, in seconds of turning
+	 */
+	private final static double SCRUB_TIME_CONSTANT = 2;
+
+	private final static double MIN_SCRUB_FACTOR = .5, MAX_SCRUB_FACTOR = 1.5;
+
+	/**
+	 * Distance from zero within which both encoders count as cleared, in cm
+	 */
+	private final static double CLEARED_DISTANCE = 1;
+
+	/**
+	 * How long to wait for the encoders to read as cleared before carrying on anyway, in seconds
+	 */
+	private final static double CLEAR_TIMEOUT = .25;
+
+	/**
+	 * Reads both sides' distances at the same moment.
+	 */
+	public interface DistanceSource
+	{
+		/**
+		 * @param distances set to the distance the left wheels, then the right wheels, have traveled, in cm
+		 */
+		void getDistances(double[] distances);
+	}
+
+	private final Gyro gyro;
+
+	private final DistanceSource distanceSource;
+
+	private final double turningDiameter;
+
+	private final MotorControlExecutor.Task task;
+
+	private double encoderTimeConstant = 20; // s
+
+	// filter state, guarded by the lock
+	private double lastGyroAngle, lastLeftDistance, lastRightDistance;
+	private long lastTimestamp;
+	private boolean hasReadings = false;
+	private boolean clearPending = false;
+	private double clearPendingTime; // s
+	private final double[] distances = new double[2];
+	private double stillTime;
+	private double encoderHeading; // radians, scaled by the scrub factor
+	private double scrubLearningTime; // s
+
+	private volatile double heading, rate, bias;
+	private volatile double scrubFactor = 1;
+	private volatile boolean still;
+
+	/**
+	 * @param gyro the gyro.  Its own reset() and calibrate() are left alone.
+	 * @param leftDistanceSource distance the left wheels have traveled, in cm
+	 * @param rightDistanceSource distance the right wheels have traveled, in cm
+	 * @param turningDiameter the distance between the wheels which makes the encoder heading match a real turn, in cm.  For a drive
+	 * with scrub this is more than the track width, e.g. the diagonal between the wheels.
+	 * @param period time between updates, in milliseconds
+	 */
+	public HeadingEstimator(Gyro gyro, DoubleSupplier leftDistanceSource, DoubleSupplier rightDistanceSource, double turningDiameter,
+			double period)
+	{
+		this(gyro, distances ->
+		{
+			distances[0] = leftDistanceSource.getAsDouble();
+			distances[1] = rightDistanceSource.getAsDouble();
+		}, turningDiameter, period);
+	}
+
+	/**
+	 * @param gyro the gyro.  Its own reset() and calibrate() are left alone.
+	 * @param distanceSource reads both sides' distances, e.g. from one snapshot of the motor controllers
+	 * @param turningDiameter the distance between the wheels which makes the encoder heading match a real turn, in cm
+	 * @param period time between updates, in milliseconds
+	 */
+	public HeadingEstimator(Gyro gyro, DistanceSource distanceSource, double turningDiameter, double period)
+	{
+		if(turningDiameter <= 0)
+		{
+			throw new IllegalArgumentException("Turning diameter must be positive");
+		}
+
+		this.gyro = gyro;
+		this.distanceSource = distanceSource;
+		this.turningDiameter = turningDiameter;
+
+		task = new MotorControlExecutor.Task("HeadingEstimator", this::update, period);
+	}
+
+	/**
+	 * Set how slowly the estimate is pulled towards the encoder heading.  Longer trusts the gyro more.  Defaults to 20 seconds.
+	 * Infinity ignores the encoders except for detecting when the robot is still.
+	 * @param encoderTimeConstant in seconds
+	 */
+	public synchronized void setEncoderTimeConstant(double encoderTimeConstant)
+	{
+		if(encoderTimeConstant <= 0)
+		{
+			throw new IllegalArgumentException("Time constant must be positive");
+		}
+
+		this.encoderTimeConstant = encoderTimeConstant;
+	}
+
+	/**
+	 * Start updating on the MotorControlExecutor.
+	 */
+	public void start()
+	{
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+	}
+
+	/**
+	 * Read the gyro and encoders and update the estimate.  Called by the MotorControlExecutor once start() has been called.
+	 */
+	public synchronized void update()
+	{
+		distanceSource.getDistances(distances);
+		update(gyro.getAngle(), distances[0], distances[1], System.nanoTime());
+	}
+
+	/**
+	 * Update the estimate with the given readings, e.g. in a simulation.
+	 * @param gyroAngle in degrees
+	 * @param timestamp from System.nanoTime()
+	 */
+	public synchronized void update(double gyroAngle, double leftDistance, double rightDistance, long timestamp)
+	{
+		if(!hasReadings)
+		{
+			lastGyroAngle = gyroAngle;
+			lastLeftDistance = leftDistance;
+			lastRightDistance = rightDistance;
+			lastTimestamp = timestamp;
+			encoderHeading = heading / Angle.RADIANS;
+			hasReadings = true;
+			return;
+		}
+
+		double dt = (timestamp - lastTimestamp) / 1e9;
+		if(dt <= 0)
+		{
+			return;
+		}
+
+		double gyroDelta = gyroAngle - lastGyroAngle;
+		double leftDelta = leftDistance - lastLeftDistance;
+		double rightDelta = rightDistance - lastRightDistance;
+
+		lastGyroAngle = gyroAngle;
+		lastLeftDistance = leftDistance;
+		lastRightDistance = rightDistance;
+		lastTimestamp = timestamp;
+
+		boolean clearing = clearPending;
+		if(clearPending)
+		{
+			// the encoders may jump back to zero during this update, so the deltas can't be trusted
+			clearPendingTime += dt;
+			if((Math.abs(leftDistance) < CLEARED_DISTANCE && Math.abs(rightDistance) < CLEARED_DISTANCE)
+					|| clearPendingTime >= CLEAR_TIMEOUT)
+			{
+				clearPending = false;
+			}
+
+			leftDelta = 0;
+			rightDelta = 0;
+			stillTime = 0;
+		}
+		else if(Math.abs(leftDelta) < STILL_DISTANCE && Math.abs(rightDelta) < STILL_DISTANCE && Math.abs(gyroDelta / dt) < MAX_BIAS)
+		{
+			stillTime += dt;
+		}
+		else
+		{
+			stillTime = 0;
+		}
+
+		double newHeading = heading;
+		double newRate;
+
+		// in radians
+		double encoderDelta = (leftDelta - rightDelta) / turningDiameter;
+
+		if(stillTime >= STILL_TIME)
+		{
+			// the robot isn't turning, so the gyro's rate is all bias
+			bias = Math.max(-MAX_BIAS, Math.min(MAX_BIAS, bias + (gyroDelta / dt - bias) * Math.min(1, dt / BIAS_TIME_CONSTANT)));
+			newRate = 0;
+			still = true;
+		}
+		else
+		{
+			newRate = gyroDelta / dt - bias;
+			newHeading += newRate * dt;
+			still = false;
+
+			double encoderRate = encoderDelta / dt;
+			if(!clearing && Math.abs(encoderRate) > SCRUB_LEARNING_RATE)
+			{
+				double measuredScrubFactor = newRate / Angle.RADIANS / encoderRate;
+				double newScrubFactor = scrubFactor + (measuredScrubFactor - scrubFactor) * Math.min(1, dt / SCRUB_TIME_CONSTANT);
+				scrubFactor = Math.max(MIN_SCRUB_FACTOR, Math.min(MAX_SCRUB_FACTOR, newScrubFactor));
+				scrubLearningTime += dt;
+			}
+		}
+
+		encoderHeading += encoderDelta * scrubFactor;
+
+		if(clearing || scrubLearningTime < 3 * SCRUB_TIME_CONSTANT)
+		{
+			// the scrub factor is still settling, or the encoders are being cleared, so the encoder heading isn't trustworthy
+			encoderHeading = newHeading / Angle.RADIANS;
+		}
+		else if(!Double.isInfinite(encoderTimeConstant))
+		{
+			// pull towards the encoder heading
+			double encoderGain = dt / (encoderTimeConstant + dt);
+			newHeading += (encoderHeading * Angle.RADIANS - newHeading) * encoderGain;
+		}
+
+		heading = newHeading;
+		rate = newRate;
+	}
+
+	/**
+	 * Set the estimated heading.
+	 * @param newHeading in degrees
+	 */
+	public synchronized void setHeading(double newHeading)
+	{
+		heading = newHeading;
+
+		// line the encoder heading up with it on the next update
+		hasReadings = false;
+	}
+
+	/**
+	 * Tell the estimator that the encoders are about to be cleared.  Their readings are ignored, and the gyro alone is followed,
+	 * until they read close to zero, so that the jump isn't counted as a turn.  The heading and bias are kept.
+	 */
+	public synchronized void encodersCleared()
+	{
+		clearPending = true;
+		clearPendingTime = 0;
+	}
+
+	/**
+	 * Reset the estimated heading to 0.
+	 */
+	@Override
+	public void reset()
+	{
+		setHeading(0);
+	}
+
+	/**
+	 * Forget the bias estimate, e.g. if the gyro has been recalibrated.  It is estimated again the next time the robot is still.
+	 */
+	@Override
+	public synchronized void calibrate()
+	{
+		bias = 0;
+		stillTime = 0;
+	}
+
+	/**
+	 *
+	 * @return the estimated heading in degrees, clockwise.  Not wrapped, so it keeps counting past 360.
+	 */
+	@Override
+	public double getAngle()
+	{
+		return heading;
+	}
+
+	/**
+	 *
+	 * @return the gyro's rate with the bias removed, in degrees per second, or 0 while the robot is still
+	 */
+	@Override
+	public double getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 *
+	 * @return the estimated gyro bias, in degrees per second
+	 */
+	public double getBias()
+	{
+		return bias;
+	}
+
+	/**
+	 *
+	 * @return how much the robot really turns per degree that the encoders say it turned
+	 */
+	public double getScrubFactor()
+	{
+		return scrubFactor;
+	}
+
+	/**
+	 *
+	 * @return true if the wheels have been still long enough to be estimating the bias
+	 */
+	public boolean isStill()
+	{
+		return still;
+	}
+
+	/**
+	 * Stop updating.
+	 */
+	@Override
+	public void free()
+	{
+		stop();
+	}
+}
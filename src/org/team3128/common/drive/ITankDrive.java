@@ -1,5 +1,7 @@
 package org.team3128.common.drive;
 
+import edu.wpi.first.wpilibj.interfaces.Gyro;
+
 /**
  * Interface describing the teleop-control functions of a TankDrive
  * Used so that autonomous programs can accept both TankDrive and SRXTankDrive for movement
@@ -33,10 +35,19 @@ public interface ITankDrive
 	
 	/**
 	 * Get the estimated angle that the robot has turned since the encoders were last reset, based on the relative distances of each side.
+	 * Once enableHeadingEstimation() has been called, this is the HeadingEstimator's heading instead.
 	 * 
 	 * Range: [0, 360)
 	 * 0 degrees is straight ahead, 90 degrees is left.
 	 * @return
 	 */
 	public double getRobotAngle();
+
+	/**
+	 * Start estimating the heading from a gyro combined with the encoders, and use it for getRobotAngle().
+	 * The estimator can also be passed to anything which takes a Gyro, like CmdTurnGyro.
+	 * @param gyro
+	 * @return the estimator, already started
+	 */
+	public HeadingEstimator enableHeadingEstimation(Gyro gyro);
 }
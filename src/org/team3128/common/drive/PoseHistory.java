@@ -0,0 +1,171 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.util.datatypes.Pose;
+
+/**
+ * Fixed-size history of the robot's recent poses, for finding where the robot was when some delayed piece of data (like a vision
+ * frame) was captured.
+ *
+ * The samples are kept in primitive ring buffers, so adding one doesn't allocate.  Lookups binary search by timestamp and
+ * interpolate between the two samples either side, so they take O(log n).
+ *
+ * Only one thread may add samples (normally a TankOdometry's update), but any number of threads can look up at the same time
+ * without locking.  A lookup which overlaps with the samples it read being overwritten notices, and tries again.
+ */
+public class PoseHistory
+{
+	private final int capacity;
+
+	private final long[] timestamps;
+	private final double[] xs, ys, headings;
+
+	// number of samples ever added.  Written only by the writer, after the sample itself, which publishes it.
+	private volatile long sampleCount;
+
+	// samples before this one were cleared
+	private volatile long firstValidSample;
+
+	/**
+	 * @param capacity how many samples to keep.  At 200 Hz, 200 samples is one second of history.
+	 */
+	public PoseHistory(int capacity)
+	{
+		if(capacity < 2)
+		{
+			throw new IllegalArgumentException("Pose history needs room for at least 2 samples");
+		}
+
+		this.capacity = capacity;
+
+		timestamps = new long[capacity];
+		xs = new double[capacity];
+		ys = new double[capacity];
+		headings = new double[capacity];
+	}
+
+	/**
+	 * Add a sample.  Its timestamp must not be before the last one's.  Only call from one thread.
+	 */
+	public void add(Pose pose)
+	{
+		add(pose.getTimestamp(), pose.getX(), pose.getY(), pose.getHeading());
+	}
+
+	/**
+	 * Add a sample.  Its timestamp must not be before the last one's.  Only call from one thread.
+	 * @param timestamp from System.nanoTime()
+	 */
+	public void add(long timestamp, double x, double y, double heading)
+	{
+		long count = sampleCount;
+		int slot = (int) (count % capacity);
+
+		timestamps[slot] = timestamp;
+		xs[slot] = x;
+		ys[slot] = y;
+		headings[slot] = heading;
+
+		sampleCount = count + 1;
+	}
+
+	/**
+	 * Forget every sample, e.g. when the pose is reset so the old ones no longer line up.  Only call from the thread which adds samples.
+	 */
+	public void clear()
+	{
+		firstValidSample = sampleCount;
+	}
+
+	/**
+	 * Get the pose at a time, interpolated between the samples either side of it.  Times before the oldest sample or after the newest
+	 * one get that sample.
+	 * @param timestamp from System.nanoTime()
+	 * @return the pose, or null if there are no samples
+	 */
+	public Pose getPose(long timestamp)
+	{
+		while(true)
+		{
+			long end = sampleCount;
+			long start = Math.max(firstValidSample, end - capacity + 1);
+
+			if(end <= start)
+			{
+				return null;
+			}
+
+			// find the last sample at or before the timestamp
+			long low = start, high = end - 1;
+			if(timestamp < timestamps[slot(low)])
+			{
+				high = low;
+			}
+			else
+			{
+				while(low < high)
+				{
+					long middle = (low + high + 1) / 2;
+					if(timestamps[slot(middle)] <= timestamp)
+					{
+						low = middle;
+					}
+					else
+					{
+						high = middle - 1;
+					}
+				}
+			}
+
+			long before = low;
+			long after = Math.min(before + 1, end - 1);
+
+			long beforeTime = timestamps[slot(before)], afterTime = timestamps[slot(after)];
+			double beforeX = xs[slot(before)], beforeY = ys[slot(before)], beforeHeading = headings[slot(before)];
+			double afterX = xs[slot(after)], afterY = ys[slot(after)], afterHeading = headings[slot(after)];
+
+			// the writer may have lapped the oldest sample read while this was searching
+			if(sampleCount - start >= capacity)
+			{
+				continue;
+			}
+
+			double fraction = 0;
+			if(afterTime > beforeTime)
+			{
+				fraction = Math.max(0, Math.min(1, (double) (timestamp - beforeTime) / (afterTime - beforeTime)));
+			}
+
+			return new Pose(beforeX + (afterX - beforeX) * fraction, beforeY + (afterY - beforeY) * fraction,
+					beforeHeading + (afterHeading - beforeHeading) * fraction, timestamp);
+		}
+	}
+
+	/**
+	 * Get the pose some time ago.
+	 * @param age in milliseconds
+	 */
+	public Pose getPoseAgo(double age)
+	{
+		return getPose(System.nanoTime() - (long) (age * 1e6));
+	}
+
+	/**
+	 *
+	 * @return how many samples can be looked up
+	 */
+	public int size()
+	{
+		long end = sampleCount;
+		return (int) (end - Math.max(firstValidSample, end - capacity + 1));
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	private int slot(long index)
+	{
+		return (int) (index % capacity);
+	}
+}
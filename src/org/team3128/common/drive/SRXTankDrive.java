@@ -1,10 +1,21 @@
 package org.team3128.common.drive;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.team3128.common.drive.onedmotionprofiles.MotionProfileFeeder;
+import org.team3128.common.drive.onedmotionprofiles.ProfilePoint;
 import org.team3128.common.hardware.misc.TwoSpeedGearshift;
+import org.team3128.common.hardware.motor.CTREMotorControllerParameters;
+import org.team3128.common.hardware.motor.StatusFrameManager;
+import org.team3128.common.hardware.motor.StatusFrameProfile;
+import org.team3128.common.hardware.motor.TalonConfigCache;
 import org.team3128.common.util.Assert;
 import org.team3128.common.util.Constants;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.control.ControlTrace;
+import org.team3128.common.util.control.TraceWriter;
 import org.team3128.common.util.enums.Direction;
 import org.team3128.common.util.units.Angle;
 import org.team3128.common.util.units.AngularSpeed;
@@ -15,6 +26,7 @@ import com.ctre.phoenix.motorcontrol.NeutralMode;
 import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 
 import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.interfaces.Gyro;
 
 /**
  * Class which represents a tank drive powered by Talon SRXs on a robot.
@@ -100,6 +112,62 @@ public class SRXTankDrive implements ITankDrive
 	 */
 	private double leftSpeedScalar, rightSpeedScalar;
 
+	/**
+	 * Traces of each side's position during autonomous moves.  Null unless
+	 * enableMoveLogging() has been called.
+	 */
+	private ControlTrace leftMoveTrace, rightMoveTrace;
+
+	/**
+	 * Configuration last written to each side's Talon, so moves only write what changed
+	 */
+	private TalonConfigCache leftConfig, rightConfig;
+
+	/**
+	 * Status frame rates of each side's Talon, switched to suit each mode
+	 */
+	private StatusFrameManager leftFrames, rightFrames;
+
+	private StatusFrameProfile teleopFrames = StatusFrameProfile.TELEOP, autoFrames = StatusFrameProfile.MOTION_MAGIC;
+
+	/**
+	 * The published feedback snapshot, or null until the first read. A
+	 * published snapshot is never changed, since any thread may still be
+	 * reading it.
+	 */
+	private volatile DriveFeedback feedback;
+
+	/**
+	 * A feedback snapshot younger than this is reused instead of reading the Talons again.
+	 * Half of the teleop position frame period, so each new frame is picked up.
+	 */
+	private final static long FEEDBACK_MAX_AGE = 5000000; // ns
+
+	/**
+	 * Null unless enableHeadingEstimation() has been called
+	 */
+	private HeadingEstimator headingEstimator;
+
+	private final CopyOnWriteArrayList<Runnable> encoderClearListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Record the target, position, error and output of each side on every
+	 * step of an autonomous move, and write them to CSV files.
+	 * 
+	 * @see TraceWriter
+	 */
+	public void enableMoveLogging()
+	{
+		if (leftMoveTrace == null)
+		{
+			leftMoveTrace = new ControlTrace("CmdMoveDistance Left");
+			rightMoveTrace = new ControlTrace("CmdMoveDistance Right");
+
+			TraceWriter.addTrace(leftMoveTrace);
+			TraceWriter.addTrace(rightMoveTrace);
+		}
+	}
+
 	public double getGearRatio()
 	{
 		return gearRatio;
@@ -137,6 +205,12 @@ public class SRXTankDrive implements ITankDrive
 		this.leftMotors = leftMotors;
 		this.rightMotors = rightMotors;
 
+		leftConfig = new TalonConfigCache(new CTREMotorControllerParameters(leftMotors));
+		rightConfig = new TalonConfigCache(new CTREMotorControllerParameters(rightMotors));
+
+		leftFrames = new StatusFrameManager(leftMotors);
+		rightFrames = new StatusFrameManager(rightMotors);
+
 		this.wheelCircumfrence = wheelCircumfrence;
 		this.wheelBase = wheelBase;
 		this.track = track;
@@ -169,6 +243,8 @@ public class SRXTankDrive implements ITankDrive
 			leftMotors.setNeutralMode(NeutralMode.Brake);
 			rightMotors.setNeutralMode(NeutralMode.Brake);
 
+			applyStatusFrames(teleopFrames);
+
 			configuredForTeleop = true;
 		}
 	}
@@ -183,9 +259,62 @@ public class SRXTankDrive implements ITankDrive
 		leftMotors.setNeutralMode(NeutralMode.Coast);
 		rightMotors.setNeutralMode(NeutralMode.Coast);
 
+		applyStatusFrames(autoFrames);
+
+		configuredForTeleop = false;
+	}
+
+	/**
+	 * Slow down the Talons' status frames while the robot is disabled.  Call from disabledInit().
+	 * They are sped back up when the drive is next used.
+	 */
+	public void configureForDisabled()
+	{
+		applyStatusFrames(StatusFrameProfile.DISABLED);
+
+		configuredForTeleop = false;
+	}
+
+	/**
+	 * Set the status frame profiles used when driving with the joysticks and during autonomous moves.
+	 * Defaults to StatusFrameProfile.TELEOP and StatusFrameProfile.MOTION_MAGIC.
+	 */
+	public void setStatusFrameProfiles(StatusFrameProfile teleopFrames, StatusFrameProfile autoFrames)
+	{
+		this.teleopFrames = teleopFrames;
+		this.autoFrames = autoFrames;
+
+		// reapplied when the drive is next used
 		configuredForTeleop = false;
 	}
 
+	private void applyStatusFrames(StatusFrameProfile profile)
+	{
+		// a Talon which has reset (e.g. in a brownout) is back to its default configuration
+		if (leftMotors.hasResetOccurred())
+		{
+			leftFrames.invalidate();
+			leftConfig.invalidate();
+		}
+		if (rightMotors.hasResetOccurred())
+		{
+			rightFrames.invalidate();
+			rightConfig.invalidate();
+		}
+
+		boolean changed = leftFrames.getProfile() != profile || rightFrames.getProfile() != profile;
+
+		// only writes the frames which differ from what the Talons have
+		leftFrames.apply(profile);
+		rightFrames.apply(profile);
+
+		if (changed)
+		{
+			Log.debug("SRXTankDrive", "Switched to " + profile.getName() + " status frames, estimated CAN load from status frames is "
+					+ Math.round(StatusFrameManager.estimateBusLoad() * 100) + "%");
+		}
+	}
+
 	// threshold below which joystick movements are ignored.
 	final static double thresh = 0.2;
 
@@ -269,6 +398,31 @@ public class SRXTankDrive implements ITankDrive
 		rightSpeedScalar = scalar;
 	}
 
+	/**
+	 * Make the Talons scale their percent output by the battery voltage, so that
+	 * a power of 1 always applies nominalVoltage to the motors (or as close as
+	 * the battery can get). This keeps teleop driving feeling the same as the
+	 * battery sags.
+	 *
+	 * @param nominalVoltage
+	 *            the voltage that a power of 1 should apply, usually 12 or a bit
+	 *            less so there is headroom
+	 */
+	public void enableVoltageCompensation(double nominalVoltage)
+	{
+		leftMotors.configVoltageCompSaturation(nominalVoltage, Constants.CAN_TIMEOUT);
+		rightMotors.configVoltageCompSaturation(nominalVoltage, Constants.CAN_TIMEOUT);
+
+		leftMotors.enableVoltageCompensation(true);
+		rightMotors.enableVoltageCompensation(true);
+	}
+
+	public void disableVoltageCompensation()
+	{
+		leftMotors.enableVoltageCompensation(false);
+		rightMotors.enableVoltageCompensation(false);
+	}
+
 	/**
 	 * Set whether the drive is reversed (switch the side that is inverted). By
 	 * default, the right motors are inverted, and the left are not.
@@ -314,10 +468,77 @@ public class SRXTankDrive implements ITankDrive
 
 	public void clearEncoders()
 	{
+		if (headingEstimator != null)
+		{
+			headingEstimator.encodersCleared();
+		}
+
+		for (Runnable listener : encoderClearListeners)
+		{
+			listener.run();
+		}
+
 		leftMotors.setSelectedSensorPosition(0, 0, Constants.CAN_TIMEOUT);
 		rightMotors.setSelectedSensorPosition(0, 0, Constants.CAN_TIMEOUT);
 	}
 
+	/**
+	 * Run something just before the encoders are cleared, e.g. so that
+	 * odometry doesn't count the jump back to zero as the robot driving.
+	 */
+	public void addEncoderClearListener(Runnable listener)
+	{
+		encoderClearListeners.add(listener);
+	}
+
+	/**
+	 * Get a snapshot of both sides' Talons. The Talons are read at most once
+	 * per tick, however many times this is called, so everything which uses
+	 * it in the same tick sees the same values. The snapshot is never changed
+	 * afterwards, so it can be kept.
+	 */
+	public DriveFeedback getFeedback()
+	{
+		DriveFeedback current = feedback;
+		if (current != null && System.nanoTime() - current.timestamp < FEEDBACK_MAX_AGE)
+		{
+			return current;
+		}
+
+		return refreshFeedback();
+	}
+
+	/**
+	 * Read the Talons into a new snapshot, even if the last one is recent.
+	 */
+	public synchronized DriveFeedback refreshFeedback()
+	{
+		// a new one each time, since a reader may still hold any earlier one
+		DriveFeedback refreshed = new DriveFeedback();
+		refreshed.read(leftMotors, rightMotors);
+
+		feedback = refreshed;
+
+		return refreshed;
+	}
+
+	/**
+	 * Get the configuration cache of the left Talon. Configuration written
+	 * through it is only sent if it changed, and never blocks.
+	 */
+	public TalonConfigCache getLeftConfig()
+	{
+		return leftConfig;
+	}
+
+	/**
+	 * Get the configuration cache of the right Talon.
+	 */
+	public TalonConfigCache getRightConfig()
+	{
+		return rightConfig;
+	}
+
 	@Override
 	public void stopMovement()
 	{
@@ -402,8 +623,10 @@ public class SRXTankDrive implements ITankDrive
 	{
 		if (gearshift != null)
 		{
-			int rightSpeedNative = rightMotors.getSelectedSensorVelocity(0);
-			int leftSpeedNative = rightMotors.getSelectedSensorVelocity(0);
+			DriveFeedback current = getFeedback();
+
+			int rightSpeedNative = current.rightVelocity;
+			int leftSpeedNative = current.leftVelocity;
 
 			double rightSpeed = rightSpeedNative / AngularSpeed.NATIVE_UNITS_PER_100MS;
 			double leftSpeed = leftSpeedNative / AngularSpeed.NATIVE_UNITS_PER_100MS;
@@ -437,14 +660,39 @@ public class SRXTankDrive implements ITankDrive
 	 */
 	public double getRobotAngle()
 	{
-		double leftDist = encDistanceToCm(leftMotors.getSelectedSensorPosition(0) * Angle.ROTATIONS);
-		double rightDist = encDistanceToCm(rightMotors.getSelectedSensorPosition(0) * Angle.ROTATIONS);
+		if (headingEstimator != null)
+		{
+			return RobotMath.normalizeAngle(headingEstimator.getAngle());
+		}
+
+		DriveFeedback current = getFeedback();
+
+		double leftDist = encDistanceToCm(current.leftPosition * Angle.CTRE_MAGENC_NU);
+		double rightDist = encDistanceToCm(current.rightPosition * Angle.CTRE_MAGENC_NU);
 
 		double difference = leftDist - rightDist;
 
 		return RobotMath.normalizeAngle((difference / turningCircleCircumference) * Angle.ROTATIONS);
 	}
 
+	@Override
+	public HeadingEstimator enableHeadingEstimation(Gyro gyro)
+	{
+		if (headingEstimator == null)
+		{
+			// both sides from one snapshot, so they're from the same moment
+			headingEstimator = new HeadingEstimator(gyro, distances ->
+			{
+				DriveFeedback current = getFeedback();
+				distances[0] = encDistanceToCm(current.leftPosition * Angle.CTRE_MAGENC_NU);
+				distances[1] = encDistanceToCm(current.rightPosition * Angle.CTRE_MAGENC_NU);
+			}, turningCircleCircumference / Math.PI, 10);
+			headingEstimator.start();
+		}
+
+		return headingEstimator;
+	}
+
 	/**
 	 * Convert cm of robot movement to encoder movement in degrees
 	 * 
@@ -506,6 +754,16 @@ public class SRXTankDrive implements ITankDrive
 
 		boolean useScalars;
 		boolean smooth;
+
+		ControlMode leftMode, rightMode;
+		double leftTarget, rightTarget;
+
+		// encoder positions when the move started, in native units.  The move is relative to these, instead of clearing the
+		// encoders, which would mean waiting for a clear that can't be told apart from a robot that is still rolling.
+		int leftStart, rightStart;
+
+		// whether the Talons have been given their targets yet
+		boolean started;
 		
 		/**
 		 * @param leftDist - Degrees to spin the left wheel
@@ -556,7 +814,11 @@ public class SRXTankDrive implements ITankDrive
 		{
 			Log.info("CmdMoveDistance", "Initializing");
 			
-			clearEncoders();
+			// a reused snapshot could be from before the last move ended
+			DriveFeedback start = refreshFeedback();
+			leftStart = start.leftPosition;
+			rightStart = start.rightPosition;
+
 			configureForAuto();
 
 			double leftSpeed = (robotMaxSpeed * power * ((useScalars) ? leftSpeedScalar : 1.0));
@@ -575,8 +837,8 @@ public class SRXTankDrive implements ITankDrive
 				leftSpeed *= leftDist / rightDist;
 			}
 			
-			ControlMode leftMode = ControlMode.MotionMagic;
-			ControlMode rightMode = ControlMode.MotionMagic;
+			leftMode = ControlMode.MotionMagic;
+			rightMode = ControlMode.MotionMagic;
 
 			// ControlMode leftMode = ControlMode.Position;
 			// ControlMode rightMode = ControlMode.Position;
@@ -598,41 +860,71 @@ public class SRXTankDrive implements ITankDrive
 			
 			double smooth_multiplier = (smooth) ? 1.05 : 1.00;
 
-			leftMotors.configMotionCruiseVelocity((int) leftSpeed, Constants.CAN_TIMEOUT);
-			leftMotors.configMotionAcceleration((int) (leftSpeed), Constants.CAN_TIMEOUT);
-
-			leftMotors.set(leftMode, smooth_multiplier * leftDist / Angle.CTRE_MAGENC_NU);
+			// only sends what changed since the last move, and doesn't wait for it
+			leftConfig.configMotionCruiseVelocity((int) leftSpeed);
+			leftConfig.configMotionAcceleration((int) leftSpeed);
 
-			rightMotors.configMotionCruiseVelocity((int) rightSpeed, Constants.CAN_TIMEOUT);
-			rightMotors.configMotionAcceleration((int) (rightSpeed), Constants.CAN_TIMEOUT);
+			rightConfig.configMotionCruiseVelocity((int) rightSpeed);
+			rightConfig.configMotionAcceleration((int) rightSpeed);
 
-			rightMotors.set(rightMode, smooth_multiplier * rightDist / Angle.CTRE_MAGENC_NU);
+			leftTarget = leftStart + smooth_multiplier * leftDist / Angle.CTRE_MAGENC_NU;
+			rightTarget = rightStart + smooth_multiplier * rightDist / Angle.CTRE_MAGENC_NU;
 
 			Log.debug("CmdMoveDistance",
 					"Smooth Multiplier: " + smooth_multiplier + " Distances -L: " + leftDist / Angle.CTRE_MAGENC_NU + " rot; R: "
 							+ rightDist / Angle.CTRE_MAGENC_NU + " rot\nSpeeds-L: " + leftSpeed + " RPM, R: "
 							+ rightSpeed + " RPM");
 
-			try
-			{
-				Thread.sleep(100);
-			}
-			catch (InterruptedException e)
+			started = false;
+			startIfReady();
+		}
+
+		/**
+		 * Give the Talons their targets once they have the new configuration.
+		 * Otherwise, they could move with the last move's speeds.
+		 */
+		private void startIfReady()
+		{
+			if (started || !leftConfig.isVerified() || !rightConfig.isVerified())
 			{
-				e.printStackTrace();
+				return;
 			}
+
+			leftMotors.set(leftMode, leftTarget);
+			rightMotors.set(rightMode, rightTarget);
+
+			started = true;
 		}
 
 		// Make this return true when this Command no longer needs to run
 		// execute()
 		protected boolean isFinished()
 		{
-			double leftError = leftMotors.getSelectedSensorPosition(0) * Angle.CTRE_MAGENC_NU - leftDist;
-			double rightError = rightMotors.getSelectedSensorPosition(0) * Angle.CTRE_MAGENC_NU - rightDist;
+			if (!started)
+			{
+				if (isTimedOut())
+				{
+					Log.unusual("CmdMoveDistance", "Talons were not ready before the move timed out");
+					return true;
+				}
 
-			Log.debug("CmdMoveDistance",
-					"left pos: " + leftMotors.getSelectedSensorPosition(0) + " err: " + leftError
-							+ " deg, right pos: " + rightMotors.getSelectedSensorPosition(0) + " err: " + rightError + " deg.");
+				return false;
+			}
+
+			DriveFeedback current = getFeedback();
+
+			double leftPosition = (current.leftPosition - leftStart) * Angle.CTRE_MAGENC_NU;
+			double rightPosition = (current.rightPosition - rightStart) * Angle.CTRE_MAGENC_NU;
+
+			double leftError = leftPosition - leftDist;
+			double rightError = rightPosition - rightDist;
+
+			if (leftMoveTrace != null)
+			{
+				// the PID terms are computed on the Talons, so only the output is known
+				leftMoveTrace.record(leftDist, leftPosition, leftError, 0, 0, 0, current.leftOutput);
+				rightMoveTrace.record(rightDist, rightPosition, rightError, 0, 0, 0, current.rightOutput);
+			}
 
 			leftDone = leftDist == 0 || RobotMath.abs(leftError) < MOVEMENT_ERROR_THRESHOLD;
 			rightDone = rightDist == 0 || RobotMath.abs(rightError) < MOVEMENT_ERROR_THRESHOLD;
@@ -720,7 +1012,7 @@ public class SRXTankDrive implements ITankDrive
 		@Override
 		protected void execute()
 		{
-			// do nothing
+			startIfReady();
 		}
 	}
 
@@ -933,4 +1225,93 @@ public class SRXTankDrive implements ITankDrive
 		}
 
 	}
+
+	/**
+	 * Command to drive both sides along motion profiles (e.g. from
+	 * MotionProfileGenerator), run by the Talons.
+	 * 
+	 * Unlike CmdMoveDistance, which runs one MotionMagic move at a time, the
+	 * whole profile is streamed to the Talons as it runs, so multi-segment
+	 * moves don't stop between segments. Uses profile slot 0.
+	 */
+	public class CmdMotionProfileMove extends Command
+	{
+		private MotionProfileFeeder leftFeeder, rightFeeder;
+
+		private int pointDurationMs;
+
+		/**
+		 * @param leftPoints
+		 *            the left side's profile, starting from the current
+		 *            position. Use MotionProfileFeeder.join() to run all the
+		 *            segments of a generated profile.
+		 * @param rightPoints
+		 *            the right side's profile
+		 * @param pointDurationMs
+		 *            the duration of each point. Must be 5, 10, 20, 30, 40, 50
+		 *            or 100 ms.
+		 * @param timeoutMs
+		 */
+		public CmdMotionProfileMove(List<ProfilePoint> leftPoints, List<ProfilePoint> rightPoints, int pointDurationMs,
+				int timeoutMs)
+		{
+			super(timeoutMs / 1000.0);
+
+			this.pointDurationMs = pointDurationMs;
+
+			leftFeeder = new MotionProfileFeeder(leftMotors, leftPoints, pointDurationMs);
+			rightFeeder = new MotionProfileFeeder(rightMotors, rightPoints, pointDurationMs);
+		}
+
+		@Override
+		protected void initialize()
+		{
+			Log.info("CmdMotionProfileMove", "Streaming " + leftFeeder.getPointCount() + " left and "
+					+ rightFeeder.getPointCount() + " right points");
+
+			configureForAuto();
+			applyStatusFrames(StatusFrameProfile.MOTION_PROFILE);
+
+			// the firmware moves points into its buffer at twice the point rate
+			leftMotors.changeMotionControlFramePeriod(Math.max(1, pointDurationMs / 2));
+			rightMotors.changeMotionControlFramePeriod(Math.max(1, pointDurationMs / 2));
+
+			// the first point of each profile zeroes the position, so the encoders don't need to be cleared
+			leftFeeder.start();
+			rightFeeder.start();
+		}
+
+		@Override
+		protected boolean isFinished()
+		{
+			if (isTimedOut())
+			{
+				Log.unusual("CmdMotionProfileMove", "Autonomous Move Overtime");
+				return true;
+			}
+
+			return leftFeeder.isFinished() && rightFeeder.isFinished();
+		}
+
+		@Override
+		protected void end()
+		{
+			leftFeeder.stop();
+			rightFeeder.stop();
+
+			if (leftFeeder.getUnderruns() > 0 || rightFeeder.getUnderruns() > 0)
+			{
+				Log.unusual("CmdMotionProfileMove", "The Talons ran out of points " + leftFeeder.getUnderruns() + " (left) and "
+						+ rightFeeder.getUnderruns() + " (right) times");
+			}
+
+			stopMovement();
+		}
+
+		@Override
+		protected void interrupted()
+		{
+			end();
+		}
+	}
 }
\ No newline at end of file
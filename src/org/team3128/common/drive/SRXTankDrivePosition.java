@@ -1,8 +1,7 @@
 package org.team3128.common.drive;
 
-import org.team3128.common.util.RobotMath;
-
-import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+import org.team3128.common.util.datatypes.Pose;
+import org.team3128.common.util.units.Angle;
 
 import edu.wpi.first.wpilibj.ADXRS450_Gyro;
 
@@ -10,95 +9,92 @@ import edu.wpi.first.wpilibj.ADXRS450_Gyro;
  * Experimental class in order to constantly integrate encoder and gyroscope
  * readings in order to determine the displacement of the robot from its initial
  * position.
- * 
+ *
+ * The integration is done by a TankOdometry every 5 ms. Both sides' distances
+ * come from one of the drive's feedback snapshots, and are added up from the
+ * changes in the Talons' positions by a WheelDistanceTracker, which the drive
+ * tells when it clears its encoders, so that the clear doesn't look like the
+ * robot drove backwards.
+ *
  * @author Ronak
  *
  */
 public class SRXTankDrivePosition {
 	private ADXRS450_Gyro gyro;
-	private TalonSRX leftDriveMotors, rightDriveMotors;
-
-	/**
-	 * The circumference of the wheels, in centimeters
-	 */
-	private double wheelCirc;
+	private SRXTankDrive drive;
 
-	private Thread updateThread;
+	private WheelDistanceTracker distanceTracker;
 
-	private int dt = 100;
+	private TankOdometry odometry;
 
 	/**
-	 * The x and y displacement of the robot with respect to the last reset, in
-	 * centimeters.
+	 * Time between odometry updates, in milliseconds
 	 */
-	private double xPosition, yPosition;
+	private static final double UPDATE_PERIOD = 5;
 
 	/**
-	 * The gyro return angle that we should assume to be zero, since gyroscopes
-	 * can't reset with the robot on.
+	 * How many odometry updates to keep, for looking up where the robot used to
+	 * be. One second's worth.
 	 */
-	private double zeroAngle;
-
-	public SRXTankDrivePosition(TalonSRX leftDriveMotors, TalonSRX rightDriveMotors, ADXRS450_Gyro gyro,
-			double wheelCirc) {
-		this.leftDriveMotors = leftDriveMotors;
-		this.rightDriveMotors = rightDriveMotors;
+	private static final int HISTORY_LENGTH = 200;
 
-		this.wheelCirc = wheelCirc;
+	public SRXTankDrivePosition(SRXTankDrive drive, ADXRS450_Gyro gyro) {
+		this.drive = drive;
 
 		this.gyro = gyro;
 
-		setPosition(0, 0, 0);
-
-		updateThread = new Thread(() -> {
-			while (true) {
-				double leftVelocity = this.wheelCirc * this.leftDriveMotors.getSelectedSensorVelocity(0) * 10 / 4096.0;
-				double rightVelocity = this.wheelCirc * this.rightDriveMotors.getSelectedSensorVelocity(0) * 10 / 4096.0;
-
-				double gyroAngle = gyro.getAngle();
+		distanceTracker = new WheelDistanceTracker();
+		drive.addEncoderClearListener(distanceTracker::encodersCleared);
 
-				// the speed (scalar) of the center of rotation of the robot
-				double crSpeed = Math.abs(
-						rightVelocity * (leftVelocity - rightVelocity) * (0.5 + 1.0 / (leftVelocity - rightVelocity)));
+		odometry = new TankOdometry(distances -> {
+			distanceTracker.update(this.drive.getFeedback());
+			distances[0] = this.drive.encDistanceToCm(distanceTracker.getLeftDistance() * Angle.CTRE_MAGENC_NU);
+			distances[1] = this.drive.encDistanceToCm(distanceTracker.getRightDistance() * Angle.CTRE_MAGENC_NU);
+		}, this.gyro::getAngle, 0, UPDATE_PERIOD);
 
-				double dx = crSpeed * RobotMath.cos(90 - gyroAngle) * dt / 1000.0;
-				double dy = crSpeed * RobotMath.cos(gyroAngle) * dt / 1000.0;
+		odometry.enableHistory(HISTORY_LENGTH);
 
-				incrementPosition(dx, dy);
-
-				try {
-					Thread.sleep(dt);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		});
+		setPosition(0, 0, 0);
 
-		updateThread.start();
+		odometry.start();
 	}
 
 	public void setPosition(double x, double y, double theta) {
-		xPosition = x;
-		yPosition = y;
+		odometry.reset(new Pose(x, y, theta, System.nanoTime()));
+	}
 
-		zeroAngle = gyro.getAngle() - theta;
+	/**
+	 * @return the x, y and angle of the robot, all from the same update
+	 */
+	public Pose getPose() {
+		return odometry.getPose();
 	}
 
-	private synchronized void incrementPosition(double dx, double dy) {
-		xPosition += dx;
-		yPosition += dy;
+	/**
+	 * Get where the robot was at some point in the last second, e.g. when a
+	 * vision frame was captured.
+	 * 
+	 * @param timestamp
+	 *            from System.nanoTime()
+	 */
+	public Pose getPoseAt(long timestamp) {
+		return odometry.getHistory().getPose(timestamp);
 	}
 
 	public double getXPosition() {
-		return xPosition;
+		return odometry.getPose().getX();
 	}
 
 	public double getYPosition() {
-		return yPosition;
+		return odometry.getPose().getY();
 	}
 
 	public double getAngle() {
-		return gyro.getAngle() - zeroAngle;
+		return odometry.getPose().getHeading();
+	}
+
+	public TankOdometry getOdometry() {
+		return odometry;
 	}
 
 }
@@ -1,10 +1,10 @@
 package org.team3128.common.drive;
 
 import java.util.ArrayList;
+import java.util.function.DoubleSupplier;
 
 import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
 import org.team3128.common.hardware.motor.MotorGroup;
-import org.team3128.common.hardware.motor.logic.RelativePIDAngleLogic;
 import org.team3128.common.util.RobotMath;
 
 import edu.wpi.first.wpilibj.DigitalInput;
@@ -20,50 +20,46 @@ public class SwerveDrive2
 		
 		MotorGroup turnMotor; //90 degrees is forward
 		
-		RelativePIDAngleLogic controller;
-		
-		double angleOnWheelbase; //position of the wheel in the robot's turning circle
-		//90 degrees is exactly in the front
-						
-		double prevMotorPowerSign = 1;
-				
-		/**
-		 * Sets the angle and power of the swerve module.  May also reverse the wheel to minimise movement time.
-		 * @param targetAngle
-		 * @param direction
-		 */
-		void setAngleAndPower(double targetAngle, boolean setAngle, double power)
-		{			
-			double currentAngle = RobotMath.normalizeAngle(controller.getAngle());
-			
-			double difference = RobotMath.sgn(RobotMath.normalizeAngle(targetAngle) - currentAngle);
-			
-			if(difference > 90 && difference < 270)
-			{
-				targetAngle = targetAngle - 180;
-				
-				power *= -1;
-			}
-			
-			//maintain previous state of reversal
-			power *= prevMotorPowerSign;
-			
-			if(setAngle)
-			{
-				turnMotor.setTarget(targetAngle);
-			}
-			driveMotor.setTarget(power);
-		}
+		//position of the wheel relative to the center of rotation.  Only the ratios matter.
+		double x, y;
 	}
 	
 	Gyro gyro;
 		
 	ArrayList<SwerveModule> modules = new ArrayList<SwerveModule>();
 	
-	int numModules = 0;
+	//steers all of the modules, in the same order as the list
+	SwerveSteeringBank steering = new SwerveSteeringBank(STEERING_PERIOD);
+	
+	SwerveKinematics kinematics;
+	
+	//per-module working arrays, so drive() doesn't allocate
+	double[] moduleSpeeds, moduleAngles, currentAngles;
 	
 	boolean enableDriverOrientedControl = false;
 	
+	SwerveOdometry odometry;
+	
+	/**
+	 * Time between odometry updates, in milliseconds
+	 */
+	final static private double ODOMETRY_PERIOD = 5;
+	
+	/**
+	 * Default time between steering updates, in milliseconds
+	 */
+	final static private double STEERING_PERIOD = 5;
+	
+	/**
+	 * Error below which a module stops steering, in degrees
+	 */
+	final static private double STEERING_THRESHOLD = 1;
+
+	/**
+	 * How often RelativePIDAngleLogic updated, which the steering kI is tuned for, in milliseconds
+	 */
+	final static private double LEGACY_STEP_TIME = 10;
+	
 	/**
 	 * Construct a swerve drive with no gyro.  Driver-oriented control will be unavailable.
 	 */
@@ -92,73 +88,127 @@ public class SwerveDrive2
 		enableDriverOrientedControl = (gyro != null && enable);
 	}
 	
-	final static private double IS_TURNING_THRESHOLD = .2; //controller input threshold above which the robot is considered to be turning.
+	final static private double TRANSLATION_DEADBAND = .1; //controller input magnitude below which the robot is not translated
+	
+	final static private double ROTATION_DEADBAND = .1; //controller input below which the robot is not rotated
 
+	/**
+	 * Drive the robot, translating and rotating at the same time.
+	 * 
+	 * @param controllerPowX translation to the right, from -1 to 1
+	 * @param controllerPowY translation forward, from -1 to 1
+	 * @param controllerRotate rotation, from -1 to 1.  Positive is clockwise.
+	 */
 	public void drive(double controllerPowX, double controllerPowY, double controllerRotate)
 	{
-		boolean setAngle = true;
-		
-		// Convert input coordinates to polar
-		//----------------------------------------------
-		double headingAngle = Math.toDegrees(Math.atan2(controllerPowY, controllerPowX)); // 90 degrees is forward
+		if(kinematics == null)
+		{
+			return;
+		}
 		
-		//Do pythagorean theorem to figure out the magnitude
 		double headingMagnitude = Math.sqrt(RobotMath.square(controllerPowX) + RobotMath.square(controllerPowY));
 		
-		if(headingMagnitude < .1)
+		if(headingMagnitude < TRANSLATION_DEADBAND)
+		{
+			controllerPowX = 0;
+			controllerPowY = 0;
+		}
+		else if(headingMagnitude > 1)
+		{
+			controllerPowX /= headingMagnitude;
+			controllerPowY /= headingMagnitude;
+		}
+		
+		if(Math.abs(controllerRotate) < ROTATION_DEADBAND)
 		{
-			headingMagnitude = 0;
-			setAngle = false; //don't change the angle if the joystick is not being moved
+			controllerRotate = 0;
 		}
 		
 		if(enableDriverOrientedControl)
 		{
-			headingAngle += gyro.getAngle();
+			// rotate the field-relative input into the robot's frame
+			double gyroAngle = Math.toRadians(gyro.getAngle());
+			double cos = Math.cos(gyroAngle), sin = Math.sin(gyroAngle);
+			
+			double robotPowX = controllerPowX * cos - controllerPowY * sin;
+			double robotPowY = controllerPowX * sin + controllerPowY * cos;
+			
+			controllerPowX = robotPowX;
+			controllerPowY = robotPowY;
 		}
 		
-		//Process turning
-		// ---------------------------------------------
-		boolean isTurning = Math.abs(controllerRotate) > IS_TURNING_THRESHOLD;
+		// don't change the angles if the joysticks are not being moved
+		boolean setAngle = controllerPowX != 0 || controllerPowY != 0 || controllerRotate != 0;
 		
-		//----------------------------------------------
-
-		for(SwerveModule module : modules)
+		// the kinematics use counterclockwise rotation
+		kinematics.toModulePowers(controllerPowX, controllerPowY, -controllerRotate, moduleSpeeds, moduleAngles);
+		
+		for(int index = 0; index < currentAngles.length; ++index)
 		{
-			if(isTurning)
-			{
-				double turningOffset = RobotMath.sgn(controllerRotate) * -1 * 90.0;
-				module.setAngleAndPower(module.angleOnWheelbase + turningOffset, setAngle, Math.abs(controllerRotate));
-			}
-			else
+			currentAngles[index] = steering.getAngle(index);
+		}
+		
+		SwerveKinematics.optimize(currentAngles, moduleAngles, moduleSpeeds);
+		
+		for(int index = 0; index < currentAngles.length; ++index)
+		{
+			SwerveModule module = modules.get(index);
+			
+			if(setAngle)
 			{
-				module.setAngleAndPower(headingAngle, setAngle, RobotMath.clampPosNeg1(headingMagnitude));
+				steering.setTarget(index, moduleAngles[index]);
 			}
+			module.driveMotor.setTarget(setAngle ? moduleSpeeds[index] : 0);
 		}
 	}
 	
+	/**
+	 * Stop the wheels, point the modules forward, and home the ones with homing switches.
+	 */
 	public void reset()
 	{
+		steering.reset();
+		
 		for(SwerveModule module : modules)
 		{
-			module.turnMotor.resetSpeedControl();
 			module.driveMotor.setTarget(0);
 		}
 	}
 	
+	/**
+	 * Set how often the modules' steering is updated.  Defaults to 5 ms.
+	 * @param period in milliseconds
+	 */
+	public void setSteeringPeriod(double period)
+	{
+		steering.setPeriod(period);
+	}
+	
+	/**
+	 * 
+	 * @return the bank which steers the modules, e.g. for its timing statistics
+	 */
+	public SwerveSteeringBank getSteering()
+	{
+		return steering;
+	}
+	
 	/**
 	 * Add a module to the swerve drive.
 	 * 
 	 * Holy smokes that's a lot of parameters!
 	 * 
 	 * @param turnMotor the MotorGroup of the motor controlling the rotation of the wheel.  Rotating the motor forwards should rotate the wheel counterclockwise.
+	 * It should not have a MotorLogic, since the steering bank sets its power.
 	 * @param driveMotor the MotorGroup of the motor moving the wheel.
 	 * @param encoder the distance encoder (e.g. a quadrature encoder) hooked up to the turning motor.  COunterclockwise should be the positive direction
 	 * @param homingSwitch
 	 * @param homingSwitchOffset
-	 * @param angleOnWheelbase
+	 * @param angleOnWheelbase direction of the module from the center of the robot, in degrees counterclockwise from the right.  90 degrees is exactly in the front.
+	 * The module is assumed to be as far from the center as all the others.
 	 * @param homingOffset
 	 * @param p
-	 * @param i
+	 * @param i integral constant, per 10 ms step of error like it was for RelativePIDAngleLogic
 	 * @param d
 	 */
 	public void addModule(MotorGroup turnMotor,
@@ -176,14 +226,113 @@ public class SwerveDrive2
 		
 		newModule.driveMotor = driveMotor;
 		
-		newModule.controller = new RelativePIDAngleLogic(p, i, d, 1, false, encoder, homingSwitch, homingSwitchOffset, true);
-		
-		turnMotor.setSpeedController(newModule.controller);
-		turnMotor.startControl(90);
+		// i is per 10 ms step of error, as it was for RelativePIDAngleLogic, and the bank's is per millisecond
+		steering.addModule(turnMotor, encoder, homingSwitch, homingSwitchOffset, STEERING_THRESHOLD, p, i / LEGACY_STEP_TIME, d);
+		steering.start();
 		newModule.turnMotor = turnMotor;
 		
-		newModule.angleOnWheelbase = angleOnWheelbase;
+		newModule.x = Math.cos(Math.toRadians(angleOnWheelbase));
+		newModule.y = Math.sin(Math.toRadians(angleOnWheelbase));
 		
 		modules.add(newModule);
+		
+		updateKinematics();
+	}
+	
+	/**
+	 * Add a module to the swerve drive at a position relative to the center of rotation.
+	 * 
+	 * Use this overload if the modules are not all the same distance from the center, e.g. on a rectangular robot.
+	 * 
+	 * @param x how far the module is to the right of the center
+	 * @param y how far the module is in front of the center, in the same units as x
+	 * @see #addModule(MotorGroup, MotorGroup, IDistanceEncoder, DigitalInput, double, double, double, double, double, double)
+	 */
+	public void addModule(MotorGroup turnMotor,
+			MotorGroup driveMotor,
+			IDistanceEncoder encoder,
+			DigitalInput homingSwitch,
+			double homingSwitchOffset,
+			double x,
+			double y,
+			double homingOffset,
+			double p,
+			double i,
+			double d)
+	{
+		addModule(turnMotor, driveMotor, encoder, homingSwitch, homingSwitchOffset, 0, homingOffset, p, i, d);
+		
+		SwerveModule newModule = modules.get(modules.size() - 1);
+		newModule.x = x;
+		newModule.y = y;
+		
+		updateKinematics();
+	}
+	
+	/**
+	 * Start tracking the robot's position from the modules' drive encoders and steering angles, and the gyro if there is one.
+	 * 
+	 * Call this after all the modules have been added.  It needs at least two, in different places, to work out the robot's rotation.
+	 * 
+	 * @param driveEncoders the encoder on each module's wheel, in the order the modules were added.  Forwards should be positive.
+	 * @param wheelCircumference the circumference of the wheels, in cm
+	 * @param positionScale how many cm one unit of the module positions is, e.g. the distance from the center to the modules
+	 * if they were added by angle
+	 * @return the odometry, which is already running
+	 */
+	public SwerveOdometry enableOdometry(IDistanceEncoder[] driveEncoders, double wheelCircumference, double positionScale)
+	{
+		if(driveEncoders.length != modules.size())
+		{
+			throw new IllegalArgumentException("Need one drive encoder per module");
+		}
+		
+		if(odometry != null)
+		{
+			odometry.stop();
+		}
+		
+		DoubleSupplier[] distanceSources = new DoubleSupplier[modules.size()];
+		DoubleSupplier[] angleSources = new DoubleSupplier[modules.size()];
+		for(int index = 0; index < modules.size(); ++index)
+		{
+			IDistanceEncoder encoder = driveEncoders[index];
+			int moduleIndex = index;
+			
+			distanceSources[index] = () -> encoder.getAngle() / 360 * wheelCircumference;
+			angleSources[index] = () -> steering.getAngle(moduleIndex);
+		}
+		
+		odometry = new SwerveOdometry(kinematics.scaled(positionScale), distanceSources, angleSources, gyro, ODOMETRY_PERIOD);
+		odometry.start();
+		
+		return odometry;
+	}
+	
+	/**
+	 * 
+	 * @return the odometry, or null if enableOdometry() has not been called
+	 */
+	public SwerveOdometry getOdometry()
+	{
+		return odometry;
+	}
+	
+	private void updateKinematics()
+	{
+		int moduleCount = modules.size();
+		
+		double[] xs = new double[moduleCount], ys = new double[moduleCount];
+		for(int index = 0; index < moduleCount; ++index)
+		{
+			xs[index] = modules.get(index).x;
+			ys[index] = modules.get(index).y;
+		}
+		
+		kinematics = new SwerveKinematics(xs, ys);
+		
+		moduleSpeeds = new double[moduleCount];
+		moduleAngles = new double[moduleCount];
+		currentAngles = new double[moduleCount];
 	}
 }
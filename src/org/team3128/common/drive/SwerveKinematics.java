@@ -0,0 +1,247 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Kinematics for a swerve drive.  Inverse kinematics turn a desired robot motion into a speed and angle for each module, and
+ * forward kinematics turn the modules' motion back into the robot's.
+ *
+ * Each module's velocity is the robot's translation plus the robot's rotation times the module's offset from the center of
+ * rotation, so the robot can drive and turn at the same time.  With more than two modules, there are more module velocities
+ * than robot motions to explain them, so the forward kinematics find the robot motion which fits them best (least squares).
+ * A single module is enough for the inverse kinematics, but not for the forward kinematics, which need at least two modules
+ * in different places.
+ * Positions are x to the right and y forward, and module angles
+ * are in degrees counterclockwise from the x axis, so 90 degrees is forward.
+ *
+ * All the calculations write into arrays passed in, one element per module, and don't allocate.
+ */
+public class SwerveKinematics
+{
+	private final double[] moduleXs, moduleYs;
+
+	private final double maxModuleRadius;
+
+	// inverse of the forward kinematics' normal equations matrix, row by row.  Worked out the first time the forward kinematics
+	// are used, so that modules which can't determine the robot's motion can still be steered.
+	private volatile double[] normalInverse;
+
+	/**
+	 * @param moduleXs x position of each module relative to the center of rotation
+	 * @param moduleYs y position of each module relative to the center of rotation, in the same units
+	 */
+	public SwerveKinematics(double[] moduleXs, double[] moduleYs)
+	{
+		if(moduleXs.length != moduleYs.length || moduleXs.length == 0)
+		{
+			throw new IllegalArgumentException("Need the same, nonzero number of x and y positions");
+		}
+
+		this.moduleXs = moduleXs.clone();
+		this.moduleYs = moduleYs.clone();
+
+		double maxRadius = 0;
+		for(int index = 0; index < moduleXs.length; ++index)
+		{
+			maxRadius = Math.max(maxRadius, Math.hypot(moduleXs[index], moduleYs[index]));
+		}
+
+		if(maxRadius == 0)
+		{
+			throw new IllegalArgumentException("The modules can't all be at the center of rotation");
+		}
+
+		maxModuleRadius = maxRadius;
+	}
+
+	/**
+	 * The least squares robot motion solves (A^T A) m = A^T b, where each module adds the rows [1, 0, -y] and [0, 1, x] to A.
+	 * A^T A only depends on the module positions, so it is only inverted once.
+	 */
+	private double[] getNormalInverse()
+	{
+		double[] inverse = normalInverse;
+		if(inverse == null)
+		{
+			// if two threads get here at once, they both work out the same thing
+			inverse = computeNormalInverse();
+			normalInverse = inverse;
+		}
+
+		return inverse;
+	}
+
+	private double[] computeNormalInverse()
+	{
+		double count = moduleXs.length, sumX = 0, sumY = 0, sumSquares = 0;
+		for(int index = 0; index < moduleXs.length; ++index)
+		{
+			sumX += moduleXs[index];
+			sumY += moduleYs[index];
+			sumSquares += moduleXs[index] * moduleXs[index] + moduleYs[index] * moduleYs[index];
+		}
+
+		// A^T A = [[n, 0, -sumY], [0, n, sumX], [-sumY, sumX, sumSquares]]
+		double a = count, c = -sumY, e = count, f = sumX, i = sumSquares;
+
+		double determinant = a * (e * i - f * f) - c * (c * e);
+		if(Math.abs(determinant) < 1e-12)
+		{
+			throw new IllegalStateException("Module positions do not determine the robot's rotation, so its motion can't be worked out from them");
+		}
+
+		double[] normalInverse = new double[9];
+		normalInverse[0] = (e * i - f * f) / determinant;
+		normalInverse[1] = (c * f) / determinant;
+		normalInverse[2] = (-c * e) / determinant;
+		normalInverse[3] = normalInverse[1];
+		normalInverse[4] = (a * i - c * c) / determinant;
+		normalInverse[5] = (-a * f) / determinant;
+		normalInverse[6] = normalInverse[2];
+		normalInverse[7] = normalInverse[5];
+		normalInverse[8] = (a * e) / determinant;
+
+		return normalInverse;
+	}
+
+	/**
+	 * Work out the robot's motion from each module's motion.  Works with velocities or with the distances moved over a short time.
+	 * @param moduleVxs each module's velocity to the right
+	 * @param moduleVys each module's velocity forward
+	 * @param motion filled with the robot's velocity to the right, velocity forward, and counterclockwise rotation rate in
+	 * radians, like toModuleStates() takes
+	 * @throws IllegalStateException if the modules don't determine the robot's motion, e.g. there is only one
+	 */
+	public void toRobotMotion(double[] moduleVxs, double[] moduleVys, double[] motion)
+	{
+		double[] normalInverse = getNormalInverse();
+
+		double sumVx = 0, sumVy = 0, sumMoment = 0;
+		for(int index = 0; index < moduleXs.length; ++index)
+		{
+			sumVx += moduleVxs[index];
+			sumVy += moduleVys[index];
+			sumMoment += moduleXs[index] * moduleVys[index] - moduleYs[index] * moduleVxs[index];
+		}
+
+		motion[0] = normalInverse[0] * sumVx + normalInverse[1] * sumVy + normalInverse[2] * sumMoment;
+		motion[1] = normalInverse[3] * sumVx + normalInverse[4] * sumVy + normalInverse[5] * sumMoment;
+		motion[2] = normalInverse[6] * sumVx + normalInverse[7] * sumVy + normalInverse[8] * sumMoment;
+	}
+
+	/**
+	 *
+	 * @return a copy of this with the module positions multiplied by a scale, e.g. to convert them to centimeters
+	 */
+	public SwerveKinematics scaled(double scale)
+	{
+		double[] xs = moduleXs.clone(), ys = moduleYs.clone();
+		for(int index = 0; index < xs.length; ++index)
+		{
+			xs[index] *= scale;
+			ys[index] *= scale;
+		}
+
+		return new SwerveKinematics(xs, ys);
+	}
+
+	/**
+	 * Work out each module's speed and angle.
+	 * @param vx velocity to the right
+	 * @param vy velocity forward
+	 * @param omega counterclockwise rotation rate, in radians per unit of time.  Using the position units, a module 1 unit from the center moves at omega.
+	 * @param speeds filled with each module's speed, which is never negative
+	 * @param angles filled with each module's angle in degrees, in (-180, 180].  Modules with no speed point forward.
+	 */
+	public void toModuleStates(double vx, double vy, double omega, double[] speeds, double[] angles)
+	{
+		for(int index = 0; index < moduleXs.length; ++index)
+		{
+			double moduleVx = vx - omega * moduleYs[index];
+			double moduleVy = vy + omega * moduleXs[index];
+
+			speeds[index] = Math.hypot(moduleVx, moduleVy);
+			angles[index] = speeds[index] == 0 ? 90 : Math.toDegrees(Math.atan2(moduleVy, moduleVx));
+		}
+	}
+
+	/**
+	 * Work out each module's speed and angle from joystick-style inputs, and desaturate them so none is over 1.
+	 * @param powerX translation to the right, from -1 to 1
+	 * @param powerY translation forward, from -1 to 1
+	 * @param rotation counterclockwise rotation, from -1 to 1.  1 drives the farthest module from the center at full speed.
+	 */
+	public void toModulePowers(double powerX, double powerY, double rotation, double[] speeds, double[] angles)
+	{
+		toModuleStates(powerX, powerY, rotation / maxModuleRadius, speeds, angles);
+		desaturate(speeds, 1);
+	}
+
+	/**
+	 * If any speed is over the maximum, scale all of them down by the same amount, so that the robot still moves in the
+	 * same direction and turns at the same rate relative to its speed.
+	 */
+	public static void desaturate(double[] speeds, double maxSpeed)
+	{
+		double highestSpeed = 0;
+		for(double speed : speeds)
+		{
+			highestSpeed = Math.max(highestSpeed, Math.abs(speed));
+		}
+
+		if(highestSpeed > maxSpeed)
+		{
+			double scale = maxSpeed / highestSpeed;
+			for(int index = 0; index < speeds.length; ++index)
+			{
+				speeds[index] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Pick the shortest way for each module to reach its angle.  If a module would have to steer more than 90 degrees, it steers
+	 * to the opposite angle and drives backwards instead.
+	 * @param currentAngles each module's current angle in degrees.  Can be outside [0, 360).
+	 * @param angles the target angles, replaced with the angle to steer to, within 90 degrees of the current angle (so not wrapped)
+	 * @param speeds the target speeds, negated where the module should drive backwards
+	 */
+	public static void optimize(double[] currentAngles, double[] angles, double[] speeds)
+	{
+		for(int index = 0; index < angles.length; ++index)
+		{
+			double difference = RobotMath.normalizeAngle(angles[index] - currentAngles[index]);
+			if(difference > 180)
+			{
+				difference -= 360;
+			}
+
+			if(difference > 90)
+			{
+				difference -= 180;
+				speeds[index] = -speeds[index];
+			}
+			else if(difference < -90)
+			{
+				difference += 180;
+				speeds[index] = -speeds[index];
+			}
+
+			angles[index] = currentAngles[index] + difference;
+		}
+	}
+
+	public int getModuleCount()
+	{
+		return moduleXs.length;
+	}
+
+	/**
+	 *
+	 * @return the distance of the farthest module from the center of rotation
+	 */
+	public double getMaxModuleRadius()
+	{
+		return maxModuleRadius;
+	}
+}
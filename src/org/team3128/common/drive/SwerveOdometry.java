@@ -0,0 +1,231 @@
+package org.team3128.common.drive;
+
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.util.datatypes.Pose;
+import org.team3128.common.util.units.Angle;
+
+import edu.wpi.first.wpilibj.interfaces.Gyro;
+
+/**
+ * Tracks the position of a swerve drive from each module's drive distance and steering angle, and (optionally) a gyro.
+ *
+ * Each update works out how far each module moved since the last one, in the direction it was steered (the average of its
+ * angle at the two updates), and the forward kinematics fit the robot's motion to all of them.  The robot is then moved along the
+ * arc that motion describes, which is exact when the robot drives and turns at a steady rate over an update.
+ *
+ * The heading comes from the gyro if there is one, and otherwise from the kinematics.
+ *
+ * The readings are kept in arrays, so the only allocation in an update is the new pose.  The pose is published as an immutable
+ * Pose through one volatile reference, so any thread can read it without locking and always gets a consistent x, y and heading.
+ */
+public class SwerveOdometry
+{
+	private final SwerveKinematics kinematics;
+
+	private final DoubleSupplier[] distanceSources, angleSources;
+
+	private final Gyro gyro;
+
+	private final MotorControlExecutor.Task task;
+
+	// volatile rather than guarded by the lock, so that looking up old poses never waits on an update
+	private volatile PoseHistory history;
+
+	// readings at the last update and the work arrays, owned by whichever thread holds the lock
+	private final double[] distances, angles, lastDistances, lastAngles;
+	private final double[] moduleDxs, moduleDys;
+	private final double[] motion = new double[3];
+	private double lastGyroAngle;
+	private boolean hasReadings = false;
+
+	private volatile Pose pose = Pose.ORIGIN;
+
+	/**
+	 * @param kinematics the kinematics, with the module positions in cm
+	 * @param distanceSources distance each module's wheel has traveled, in cm, in the same order as the kinematics
+	 * @param angleSources each module's steering angle, in degrees counterclockwise from the right, so 90 is forward
+	 * @param gyro the gyro, or null to work out the heading from the modules
+	 * @param period time between updates, in milliseconds.  5 to 10 ms is recommended.
+	 * @throws IllegalStateException if the modules don't determine the robot's motion, e.g. there is only one
+	 */
+	public SwerveOdometry(SwerveKinematics kinematics, DoubleSupplier[] distanceSources, DoubleSupplier[] angleSources, Gyro gyro,
+			double period)
+	{
+		int moduleCount = kinematics.getModuleCount();
+		if(distanceSources.length != moduleCount || angleSources.length != moduleCount)
+		{
+			throw new IllegalArgumentException("Need one distance and one angle source per module");
+		}
+
+		this.kinematics = kinematics;
+		this.distanceSources = distanceSources.clone();
+		this.angleSources = angleSources.clone();
+		this.gyro = gyro;
+
+		distances = new double[moduleCount];
+		angles = new double[moduleCount];
+		lastDistances = new double[moduleCount];
+		lastAngles = new double[moduleCount];
+		moduleDxs = new double[moduleCount];
+		moduleDys = new double[moduleCount];
+
+		// so that modules which can't be used for odometry are found now, not on the first update
+		kinematics.toRobotMotion(moduleDxs, moduleDys, motion);
+
+		task = new MotorControlExecutor.Task("SwerveOdometry", this::update, period);
+	}
+
+	/**
+	 * Record every pose into a history, so that poses from the recent past can be looked up.
+	 * @param capacity how many updates to keep
+	 * @return the history
+	 */
+	public synchronized PoseHistory enableHistory(int capacity)
+	{
+		history = new PoseHistory(capacity);
+		return history;
+	}
+
+	/**
+	 *
+	 * @return the history of poses, or null if enableHistory() has not been called
+	 */
+	public PoseHistory getHistory()
+	{
+		return history;
+	}
+
+	/**
+	 * Start updating on the MotorControlExecutor.
+	 */
+	public void start()
+	{
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+	}
+
+	/**
+	 * Read the sources and update the pose.  Called by the MotorControlExecutor once start() has been called.
+	 */
+	public synchronized void update()
+	{
+		for(int index = 0; index < distances.length; ++index)
+		{
+			distances[index] = distanceSources[index].getAsDouble();
+			angles[index] = angleSources[index].getAsDouble();
+		}
+
+		update(distances, angles, gyro == null ? 0 : gyro.getAngle(), System.nanoTime());
+	}
+
+	/**
+	 * Update the pose with the given readings, e.g. in a simulation.
+	 * @param moduleDistances distance each module's wheel has traveled, in cm
+	 * @param moduleAngles each module's steering angle, in degrees.  Can be outside [0, 360).
+	 * @param gyroAngle in degrees clockwise.  Ignored if there is no gyro.
+	 * @param timestamp when the readings were taken, from System.nanoTime()
+	 */
+	public synchronized void update(double[] moduleDistances, double[] moduleAngles, double gyroAngle, long timestamp)
+	{
+		if(!hasReadings)
+		{
+			System.arraycopy(moduleDistances, 0, lastDistances, 0, lastDistances.length);
+			System.arraycopy(moduleAngles, 0, lastAngles, 0, lastAngles.length);
+			lastGyroAngle = gyroAngle;
+			hasReadings = true;
+		}
+
+		for(int index = 0; index < lastDistances.length; ++index)
+		{
+			double distance = moduleDistances[index] - lastDistances[index];
+
+			// the module turned while it moved, so use the angle halfway through
+			double angleDelta = moduleAngles[index] - lastAngles[index];
+			angleDelta -= 360 * Math.floor((angleDelta + 180) / 360);
+			double angle = (lastAngles[index] + angleDelta / 2) / Angle.RADIANS;
+
+			moduleDxs[index] = distance * Math.cos(angle);
+			moduleDys[index] = distance * Math.sin(angle);
+
+			lastDistances[index] = moduleDistances[index];
+			lastAngles[index] = moduleAngles[index];
+		}
+
+		kinematics.toRobotMotion(moduleDxs, moduleDys, motion);
+
+		// in radians, counterclockwise like the kinematics
+		double rotation;
+		if(gyro == null)
+		{
+			rotation = motion[2];
+		}
+		else
+		{
+			rotation = -(gyroAngle - lastGyroAngle) / Angle.RADIANS;
+		}
+		lastGyroAngle = gyroAngle;
+
+		// move along the arc in the robot's frame.  Close to straight, the arc is a straight line.
+		double sinOverRotation, cosTerm;
+		if(Math.abs(rotation) < 1e-9)
+		{
+			sinOverRotation = 1;
+			cosTerm = rotation / 2;
+		}
+		else
+		{
+			sinOverRotation = Math.sin(rotation) / rotation;
+			cosTerm = (1 - Math.cos(rotation)) / rotation;
+		}
+
+		double robotDx = motion[0] * sinOverRotation - motion[1] * cosTerm;
+		double robotDy = motion[0] * cosTerm + motion[1] * sinOverRotation;
+
+		// then turn that into field coordinates, where the heading is clockwise from forward
+		Pose last = pose;
+		double heading = last.getHeading() / Angle.RADIANS;
+		double cos = Math.cos(heading), sin = Math.sin(heading);
+
+		pose = new Pose(last.getX() + robotDx * cos + robotDy * sin, last.getY() + robotDy * cos - robotDx * sin,
+				(heading - rotation) * Angle.RADIANS, timestamp);
+
+		if(history != null)
+		{
+			history.add(pose);
+		}
+	}
+
+	/**
+	 * Set the pose, e.g. to the robot's starting position.  Updates continue from here.
+	 */
+	public synchronized void reset(Pose newPose)
+	{
+		pose = newPose;
+
+		// the old poses were measured from somewhere else
+		if(history != null)
+		{
+			history.clear();
+		}
+	}
+
+	/**
+	 *
+	 * @return the latest pose
+	 */
+	public Pose getPose()
+	{
+		return pose;
+	}
+
+	public MotorControlExecutor.Task getTask()
+	{
+		return task;
+	}
+}
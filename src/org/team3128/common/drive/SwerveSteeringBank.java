@@ -0,0 +1,295 @@
+package org.team3128.common.drive;
+
+import java.util.Arrays;
+
+import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.hardware.motor.MotorGroup;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.control.PIDLoopBank;
+
+import edu.wpi.first.wpilibj.DigitalInput;
+
+/**
+ * Steers all of a swerve drive's modules to their target angles from one MotorControlExecutor task.
+ *
+ * Each pass reads every module's encoder, then runs all of the PID loops in one PIDLoopBank update, with the error wrapped
+ * so that each module turns the short way, and then sends the outputs to the steering motors.  This replaces one
+ * RelativePIDAngleLogic per module, which each needed its own task, read their encoders at different times, and ran at 10 ms.
+ *
+ * The module state is kept in parallel arrays, one element per module.  Like RelativePIDAngleLogic, modules with a homing switch
+ * drive towards it after a reset until it reads low, and then take its angle as their position.
+ *
+ * The steering motors' MotorGroups should not have a MotorLogic, since the bank sets their power directly.
+ */
+public class SwerveSteeringBank
+{
+	final private static String TAG = "SwerveSteeringBank";
+
+	final private static double HOMING_POWER = .25;
+
+	private final MotorControlExecutor.Task task;
+
+	private double period;
+
+	// module configuration
+	private MotorGroup[] motors = new MotorGroup[0];
+	private IDistanceEncoder[] encoders = new IDistanceEncoder[0];
+	private DigitalInput[] homingSwitches = new DigitalInput[0];
+	private double[] homingAngles = new double[0];
+	private double[] thresholds = new double[0];
+	private double[] kP = new double[0], kI = new double[0], kD = new double[0];
+
+	// module state, guarded by the lock
+	private double[] targets = new double[0];
+	private double[] angles = new double[0];
+	private double[] angleOffsets = new double[0];
+	private double[] outputs = new double[0];
+	private boolean[] homing = new boolean[0];
+	private double[] homingDirections = new double[0];
+
+	private PIDLoopBank pid;
+
+	private long lastStepTime = 0;
+	private boolean resetPending = false;
+
+	/**
+	 * @param period time between updates, in milliseconds.  5 ms is recommended.
+	 */
+	public SwerveSteeringBank(double period)
+	{
+		this.period = period;
+		task = new MotorControlExecutor.Task(TAG, this::step, period);
+	}
+
+	/**
+	 * Add a module to the bank.  Its target starts at 90 degrees (forward).
+	 *
+	 * Adding a module resets the PID state of the others, so add them all before driving.
+	 * @param motor the steering motor.  Forwards should turn the wheel counterclockwise.
+	 * @param encoder the encoder on the steering motor.  Counterclockwise should be positive.
+	 * @param homingSwitch a switch that reads low when the module is at homingAngle, or null if the encoder's zero is known
+	 * @param homingAngle the module's angle when the homing switch is hit, in degrees
+	 * @param threshold error below which the motor is stopped, in degrees
+	 * @param p
+	 * @param i integral constant, per millisecond of error
+	 * @param d
+	 * @return the module's index in the bank
+	 */
+	public synchronized int addModule(MotorGroup motor, IDistanceEncoder encoder, DigitalInput homingSwitch, double homingAngle,
+			double threshold, double p, double i, double d)
+	{
+		int index = motors.length;
+		int size = index + 1;
+
+		motors = Arrays.copyOf(motors, size);
+		encoders = Arrays.copyOf(encoders, size);
+		homingSwitches = Arrays.copyOf(homingSwitches, size);
+		homingAngles = Arrays.copyOf(homingAngles, size);
+		thresholds = Arrays.copyOf(thresholds, size);
+		kP = Arrays.copyOf(kP, size);
+		kI = Arrays.copyOf(kI, size);
+		kD = Arrays.copyOf(kD, size);
+
+		targets = Arrays.copyOf(targets, size);
+		angles = Arrays.copyOf(angles, size);
+		angleOffsets = Arrays.copyOf(angleOffsets, size);
+		outputs = Arrays.copyOf(outputs, size);
+		homing = Arrays.copyOf(homing, size);
+		homingDirections = Arrays.copyOf(homingDirections, size);
+
+		motors[index] = motor;
+		encoders[index] = encoder;
+		homingSwitches[index] = homingSwitch;
+		homingAngles[index] = homingAngle;
+		thresholds[index] = threshold;
+		kP[index] = p;
+		kI[index] = i;
+		kD[index] = d;
+
+		resetModule(index);
+
+		pid = new PIDLoopBank(size);
+		for(int module = 0; module < size; ++module)
+		{
+			pid.setGains(module, kP[module], kI[module], kD[module], 0);
+			pid.setOutputLimits(module, -1, 1);
+			pid.setContinuousInput(module, 360);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Start updating on the MotorControlExecutor.
+	 */
+	public synchronized void start()
+	{
+		lastStepTime = 0;
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	/**
+	 * Stop updating and stop the steering motors.
+	 */
+	public void stop()
+	{
+		// not under the lock: removeTask() waits for the executor's pass, which may be waiting for the lock in step()
+		MotorControlExecutor.getInstance().removeTask(task);
+
+		synchronized(this)
+		{
+			for(MotorGroup motor : motors)
+			{
+				motor.setTarget(0);
+			}
+		}
+	}
+
+	/**
+	 * Set how often the bank updates.
+	 * @param period in milliseconds
+	 */
+	public synchronized void setPeriod(double period)
+	{
+		this.period = period;
+		task.setPeriod(period);
+	}
+
+	/**
+	 * Set the angle a module should steer to.  It is picked up on the next update.
+	 * @param angle in degrees counterclockwise, 90 is forward.  Doesn't need to be wrapped.
+	 */
+	public synchronized void setTarget(int index, double angle)
+	{
+		targets[index] = angle;
+
+		// like RelativePIDAngleLogic, don't carry the integral over to a new target
+		pid.resetIntegral(index);
+	}
+
+	/**
+	 * Reset every module's PID and point it forward, and home the modules which have a homing switch.  Happens on the next update.
+	 */
+	public synchronized void reset()
+	{
+		resetPending = true;
+	}
+
+	private void resetModule(int index)
+	{
+		targets[index] = 90;
+		outputs[index] = 0;
+
+		if(homingSwitches[index] != null)
+		{
+			homing[index] = true;
+			homingDirections[index] = RobotMath.sgn(RobotMath.angleDistance(encoders[index].getAngle(), homingAngles[index], true));
+		}
+	}
+
+	/**
+	 * Update every module.  Run by the MotorControlExecutor.
+	 */
+	private synchronized void step()
+	{
+		long currentTime = System.nanoTime();
+
+		// in milliseconds, like MotorLogic, so the gains mean the same thing as they did for RelativePIDAngleLogic
+		double dt = lastStepTime == 0 ? period : (currentTime - lastStepTime) / 1e6;
+		lastStepTime = currentTime;
+
+		if(resetPending)
+		{
+			resetPending = false;
+
+			pid.reset();
+			for(int index = 0; index < motors.length; ++index)
+			{
+				resetModule(index);
+			}
+		}
+
+		// sample every encoder together, so the modules are all steered off of the same moment
+		for(int index = 0; index < motors.length; ++index)
+		{
+			angles[index] = encoders[index].getAngle() + angleOffsets[index];
+		}
+
+		pid.update(targets, angles, dt, outputs);
+
+		for(int index = 0; index < motors.length; ++index)
+		{
+			if(homing[index])
+			{
+				if(!homingSwitches[index].get())
+				{
+					// at the switch, so now we know where the module is
+					homing[index] = false;
+					angleOffsets[index] = homingAngles[index] - encoders[index].getAngle();
+					pid.reset(index);
+					outputs[index] = 0;
+				}
+				else
+				{
+					outputs[index] = HOMING_POWER * homingDirections[index];
+				}
+			}
+			else if(Math.abs(pid.getError(index)) < thresholds[index])
+			{
+				outputs[index] = 0;
+			}
+
+			motors[index].setTarget(outputs[index]);
+		}
+	}
+
+	/**
+	 *
+	 * @return the module's angle in degrees, with the homing offset applied.  Not wrapped.
+	 */
+	public synchronized double getAngle(int index)
+	{
+		return encoders[index].getAngle() + angleOffsets[index];
+	}
+
+	/**
+	 *
+	 * @return the angle the module is steering to, in degrees
+	 */
+	public synchronized double getTarget(int index)
+	{
+		return targets[index];
+	}
+
+	/**
+	 *
+	 * @return the power sent to the module's steering motor on the last update
+	 */
+	public synchronized double getOutput(int index)
+	{
+		return outputs[index];
+	}
+
+	/**
+	 *
+	 * @return true if the module is still driving towards its homing switch
+	 */
+	public synchronized boolean isHoming(int index)
+	{
+		return homing[index];
+	}
+
+	public synchronized int getModuleCount()
+	{
+		return motors.length;
+	}
+
+	/**
+	 * Get the timing statistics of the bank, such as how long each update takes.
+	 */
+	public MotorControlExecutor.Task getControlTask()
+	{
+		return task;
+	}
+}
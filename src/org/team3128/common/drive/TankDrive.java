@@ -13,6 +13,7 @@ import org.team3128.common.util.enums.Direction;
 import org.team3128.common.util.units.Angle;
 
 import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.interfaces.Gyro;
 
 /**
  * Class which represents a tank drive on a robot.
@@ -56,6 +57,11 @@ public class TankDrive implements ITankDrive
      */
     private double gearRatio;
     
+    /**
+     * Null unless enableHeadingEstimation() has been called
+     */
+    private HeadingEstimator headingEstimator;
+    
     public double getGearRatio()
 	{
 		return gearRatio;
@@ -166,6 +172,11 @@ public class TankDrive implements ITankDrive
     
 	public void clearEncoders()
 	{
+		if(headingEstimator != null)
+		{
+			headingEstimator.encodersCleared();
+		}
+
 		encLeft.reset();
 		encRight.reset();
 	}
@@ -187,6 +198,11 @@ public class TankDrive implements ITankDrive
 	@Override
 	public double getRobotAngle()
 	{
+		if(headingEstimator != null)
+		{
+			return RobotMath.normalizeAngle(headingEstimator.getAngle());
+		}
+		
 		double leftDist = encDistanceToCm(encLeft.getAngle());
 		double rightDist = encDistanceToCm(encRight.getAngle());
 		
@@ -195,6 +211,19 @@ public class TankDrive implements ITankDrive
 		return RobotMath.normalizeAngle((difference / turningCircleCircumference) * Angle.ROTATIONS);
 	}
 	
+	@Override
+	public HeadingEstimator enableHeadingEstimation(Gyro gyro)
+	{
+		if(headingEstimator == null)
+		{
+			headingEstimator = new HeadingEstimator(gyro, () -> encDistanceToCm(encLeft.getAngle()), () -> encDistanceToCm(encRight.getAngle()),
+					turningCircleCircumference / Math.PI, 10);
+			headingEstimator.start();
+		}
+		
+		return headingEstimator;
+	}
+	
 	/**
 	 * Convert cm of robot movement to encoder movement in degrees
 	 * @param cm
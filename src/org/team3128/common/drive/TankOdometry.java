@@ -0,0 +1,209 @@
+package org.team3128.common.drive;
+
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.util.datatypes.Pose;
+import org.team3128.common.util.units.Angle;
+
+/**
+ * Tracks the position of a differential drive from its wheel encoders and (optionally) a gyro.
+ *
+ * Each update takes the distance each side has traveled since the last one, and moves the pose along the arc that the robot
+ * drove: a robot whose heading changes by dtheta while its center travels ds has moved along a circular arc, so it is displaced
+ * by the chord 2 * (ds / dtheta) * sin(dtheta / 2) in the direction of its average heading.  Unlike adding ds in the direction of
+ * the heading, this is exact for any path made of arcs, so it doesn't drift when turning.
+ *
+ * The heading comes from the gyro if there is one, and otherwise from the difference between the sides.
+ *
+ * The pose is published as an immutable Pose through one volatile reference, so any thread can read it without locking and always
+ * gets a consistent x, y and heading.
+ */
+public class TankOdometry
+{
+	private final HeadingEstimator.DistanceSource distanceSource;
+
+	private final DoubleSupplier headingSource;
+
+	private final double trackWidth;
+
+	private final MotorControlExecutor.Task task;
+
+	private volatile Pose pose = Pose.ORIGIN;
+
+	// volatile rather than guarded by the lock, so that looking up old poses never waits on an update
+	private volatile PoseHistory history;
+
+	// readings at the last update, owned by whichever thread holds the lock
+	private double lastLeftDistance, lastRightDistance, lastHeading;
+	private boolean hasReadings = false;
+	private final double[] distances = new double[2];
+
+	/**
+	 * @param leftDistanceSource distance the left wheels have traveled, in cm
+	 * @param rightDistanceSource distance the right wheels have traveled, in cm
+	 * @param headingSource the robot's heading in degrees clockwise, e.g. gyro::getAngle.  Null to work out the heading from the wheels.
+	 * @param trackWidth distance between the left and right wheels, in cm.  Only used without a gyro.
+	 * @param period time between updates, in milliseconds.  5 to 10 ms is recommended.
+	 */
+	public TankOdometry(DoubleSupplier leftDistanceSource, DoubleSupplier rightDistanceSource, DoubleSupplier headingSource, double trackWidth,
+			double period)
+	{
+		this(distances ->
+		{
+			distances[0] = leftDistanceSource.getAsDouble();
+			distances[1] = rightDistanceSource.getAsDouble();
+		}, headingSource, trackWidth, period);
+	}
+
+	/**
+	 * @param distanceSource reads both sides' distances, in cm, e.g. from one snapshot of the motor controllers
+	 * @param headingSource the robot's heading in degrees clockwise, e.g. gyro::getAngle.  Null to work out the heading from the wheels.
+	 * @param trackWidth distance between the left and right wheels, in cm.  Only used without a gyro.
+	 * @param period time between updates, in milliseconds.  5 to 10 ms is recommended.
+	 */
+	public TankOdometry(HeadingEstimator.DistanceSource distanceSource, DoubleSupplier headingSource, double trackWidth, double period)
+	{
+		if(headingSource == null && trackWidth <= 0)
+		{
+			throw new IllegalArgumentException("Track width must be positive to find the heading without a gyro");
+		}
+
+		this.distanceSource = distanceSource;
+		this.headingSource = headingSource;
+		this.trackWidth = trackWidth;
+
+		task = new MotorControlExecutor.Task("TankOdometry", this::update, period);
+	}
+
+	/**
+	 * Record every pose into a history, so that poses from the recent past can be looked up.
+	 * @param capacity how many updates to keep
+	 * @return the history
+	 */
+	public synchronized PoseHistory enableHistory(int capacity)
+	{
+		history = new PoseHistory(capacity);
+		return history;
+	}
+
+	/**
+	 *
+	 * @return the history of poses, or null if enableHistory() has not been called
+	 */
+	public PoseHistory getHistory()
+	{
+		return history;
+	}
+
+	/**
+	 * Start updating on the MotorControlExecutor.
+	 */
+	public void start()
+	{
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+	}
+
+	/**
+	 * Read the sources and update the pose.  Called by the MotorControlExecutor once start() has been called.
+	 */
+	public synchronized void update()
+	{
+		distanceSource.getDistances(distances);
+		double heading = headingSource == null ? 0 : headingSource.getAsDouble();
+		update(distances[0], distances[1], heading, System.nanoTime());
+	}
+
+	/**
+	 * Update the pose with the given readings, e.g. in a simulation.
+	 * @param heading ignored if there is no gyro
+	 * @param timestamp when the readings were taken, from System.nanoTime()
+	 */
+	public synchronized void update(double leftDistance, double rightDistance, double heading, long timestamp)
+	{
+		if(!hasReadings)
+		{
+			lastLeftDistance = leftDistance;
+			lastRightDistance = rightDistance;
+			lastHeading = heading;
+			hasReadings = true;
+		}
+
+		double leftDelta = leftDistance - lastLeftDistance;
+		double rightDelta = rightDistance - lastRightDistance;
+
+		// in radians, clockwise
+		double headingDelta;
+		if(headingSource == null)
+		{
+			headingDelta = (leftDelta - rightDelta) / trackWidth;
+		}
+		else
+		{
+			headingDelta = (heading - lastHeading) / Angle.RADIANS;
+		}
+
+		double distance = (leftDelta + rightDelta) / 2;
+
+		Pose last = pose;
+		double startHeading = last.getHeading() / Angle.RADIANS;
+
+		// length of the chord across the arc.  Close to straight, the arc is its own chord.
+		double chord;
+		if(Math.abs(headingDelta) < 1e-9)
+		{
+			chord = distance;
+		}
+		else
+		{
+			chord = 2 * distance / headingDelta * Math.sin(headingDelta / 2);
+		}
+
+		double chordHeading = startHeading + headingDelta / 2;
+
+		pose = new Pose(last.getX() + chord * Math.sin(chordHeading), last.getY() + chord * Math.cos(chordHeading),
+				(startHeading + headingDelta) * Angle.RADIANS, timestamp);
+
+		if(history != null)
+		{
+			history.add(pose);
+		}
+
+		lastLeftDistance = leftDistance;
+		lastRightDistance = rightDistance;
+		lastHeading = heading;
+	}
+
+	/**
+	 * Set the pose, e.g. to the robot's starting position.  Updates continue from here.
+	 */
+	public synchronized void reset(Pose newPose)
+	{
+		pose = newPose;
+
+		// the old poses were measured from somewhere else
+		if(history != null)
+		{
+			history.clear();
+		}
+	}
+
+	/**
+	 *
+	 * @return the latest pose
+	 */
+	public Pose getPose()
+	{
+		return pose;
+	}
+
+	public MotorControlExecutor.Task getTask()
+	{
+		return task;
+	}
+}
@@ -0,0 +1,133 @@
+package org.team3128.common.drive;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adds up how far each side of a drive has traveled from the changes in its encoder positions, and keeps counting through
+ * encoder clears.
+ *
+ * Clearing an encoder makes its position jump back to zero, but the jump only shows up once the Talon's next status frame arrives,
+ * which can be a couple of updates after the clear was sent.  So encodersCleared() doesn't reset anything itself.  Until each side's
+ * jump is seen, a change in position which disagrees with the side's velocity by more than it could from frames arriving between
+ * updates is taken to be the clear landing, and the velocity is used for that one update instead.  Every other update uses the
+ * position change.  A side which was already within about that much of zero doesn't jump far enough to be seen, and is off by
+ * at most that much.
+ *
+ * Distances are in native units.
+ */
+public class WheelDistanceTracker
+{
+	/**
+	 * How far a position change can be from what the velocity says before it counts as the clear landing, in native units,
+	 * on top of twice the expected change.  If status frames are slower than the updates, a position change can be zero or
+	 * twice what the velocity says without anything being wrong.
+	 */
+	private final static double CLEAR_JUMP_DISTANCE = 100;
+
+	/**
+	 * How long to look for the jump before assuming the encoder was already close to zero, in seconds
+	 */
+	private final static double CLEAR_TIMEOUT = .25;
+
+	private final AtomicBoolean clearRequested = new AtomicBoolean();
+
+	// owned by the updating thread
+	private boolean hasFeedback = false;
+	private int lastLeftPosition, lastRightPosition;
+	private long lastTimestamp;
+	private boolean leftClearPending, rightClearPending;
+	private double clearPendingTime; // s
+
+	private volatile double leftDistance, rightDistance;
+
+	/**
+	 * Tell the tracker that the encoders are about to be cleared.  Call it before sending the clear, from any thread.
+	 */
+	public void encodersCleared()
+	{
+		clearRequested.set(true);
+	}
+
+	/**
+	 * Add the movement since the last update.  Should only be called from one thread at a time.
+	 */
+	public void update(DriveFeedback feedback)
+	{
+		if(clearRequested.getAndSet(false))
+		{
+			leftClearPending = true;
+			rightClearPending = true;
+			clearPendingTime = 0;
+		}
+
+		if(!hasFeedback)
+		{
+			lastLeftPosition = feedback.leftPosition;
+			lastRightPosition = feedback.rightPosition;
+			lastTimestamp = feedback.timestamp;
+			hasFeedback = true;
+			return;
+		}
+
+		double dt = (feedback.timestamp - lastTimestamp) / 1e9;
+		if(dt <= 0)
+		{
+			// the same snapshot again
+			return;
+		}
+
+		double leftDelta = feedback.leftPosition - lastLeftPosition;
+		double rightDelta = feedback.rightPosition - lastRightPosition;
+
+		if(leftClearPending || rightClearPending)
+		{
+			// velocities are per 100 ms
+			double leftExpected = feedback.leftVelocity * 10 * dt;
+			double rightExpected = feedback.rightVelocity * 10 * dt;
+
+			if(leftClearPending && Math.abs(leftDelta - leftExpected) > CLEAR_JUMP_DISTANCE + 2 * Math.abs(leftExpected))
+			{
+				leftDelta = leftExpected;
+				leftClearPending = false;
+			}
+
+			if(rightClearPending && Math.abs(rightDelta - rightExpected) > CLEAR_JUMP_DISTANCE + 2 * Math.abs(rightExpected))
+			{
+				rightDelta = rightExpected;
+				rightClearPending = false;
+			}
+
+			clearPendingTime += dt;
+			if(clearPendingTime >= CLEAR_TIMEOUT)
+			{
+				leftClearPending = false;
+				rightClearPending = false;
+			}
+		}
+
+		leftDistance += leftDelta;
+		rightDistance += rightDelta;
+
+		lastLeftPosition = feedback.leftPosition;
+		lastRightPosition = feedback.rightPosition;
+		lastTimestamp = feedback.timestamp;
+	}
+
+	/**
+	 *
+	 * @return how far the left side has traveled since the tracker was made, in native units
+	 */
+	public double getLeftDistance()
+	{
+		return leftDistance;
+	}
+
+	/**
+	 *
+	 * @return how far the right side has traveled since the tracker was made, in native units
+	 */
+	public double getRightDistance()
+	{
+		return rightDistance;
+	}
+}
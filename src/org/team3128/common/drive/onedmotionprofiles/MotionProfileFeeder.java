@@ -0,0 +1,276 @@
+package org.team3128.common.drive.onedmotionprofiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.util.Log;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.SetValueMotionProfile;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motion.TrajectoryPoint.TrajectoryDuration;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.IMotorController;
+
+/**
+ * Streams a generated motion profile into a Talon SRX, which then runs it at 1 kHz in firmware.
+ *
+ * The points are converted to TrajectoryPoints up front.  Then, on the MotorControlExecutor at twice the point rate, the feeder
+ * tops up the Talon's top (roboRIO side) buffer, moves points into its bottom (firmware) buffer with processMotionProfileBuffer(),
+ * and reads the Talon's motion profile status.  The profile is enabled once enough points are in the firmware to ride out a late
+ * pass, and held at the end once the last point is reached.
+ *
+ * The top buffer being full is normal: the rest of the points just wait for the next pass.  An underrun means the firmware ran out
+ * of points, so the motor stopped following the profile for a moment.  An overrun means the Talon rejected a point even though its
+ * buffer had room.  Both are counted.
+ */
+public class MotionProfileFeeder
+{
+	final private static String TAG = "MotionProfileFeeder";
+
+	/**
+	 * Points that have to be in the firmware buffer before the profile is started
+	 */
+	private final static int MIN_POINTS_TO_START = 5;
+
+	/**
+	 * Most points pushed into the top buffer in one pass, so a long profile doesn't hold up the executor
+	 */
+	private final static int MAX_POINTS_PER_PASS = 32;
+
+	public enum State
+	{
+		/**
+		 * Filling the buffers, with the output disabled
+		 */
+		BUFFERING,
+		RUNNING,
+		/**
+		 * Holding the last point
+		 */
+		FINISHED,
+		STOPPED
+	}
+
+	private final IMotorController controller;
+
+	private final TrajectoryPoint[] trajectory;
+
+	private final MotorControlExecutor.Task task;
+
+	private final MotionProfileStatus status = new MotionProfileStatus();
+
+	// owned by the executor thread
+	private int nextPoint;
+
+	private volatile State state = State.STOPPED;
+
+	private volatile int underruns, overruns;
+
+	/**
+	 * @param controller the Talon, with its sensor and profile slot 0 already set up
+	 * @param points the profile, with positions in native units and velocities in native units per second
+	 * @param pointDurationMs how long each point lasts.  Must be one of the Talon's durations: 5, 10, 20, 30, 40, 50 or 100 ms.
+	 */
+	public MotionProfileFeeder(IMotorController controller, List<ProfilePoint> points, int pointDurationMs)
+	{
+		if(points.isEmpty())
+		{
+			throw new IllegalArgumentException("Motion profile has no points");
+		}
+
+		this.controller = controller;
+
+		TrajectoryDuration duration = getDuration(pointDurationMs);
+
+		trajectory = new TrajectoryPoint[points.size()];
+		for(int index = 0; index < trajectory.length; ++index)
+		{
+			ProfilePoint point = points.get(index);
+
+			TrajectoryPoint trajectoryPoint = new TrajectoryPoint();
+			trajectoryPoint.position = point.getPosition();
+			trajectoryPoint.velocity = point.getVelocity() / 10; // per 100 ms
+			trajectoryPoint.timeDur = duration;
+			trajectoryPoint.profileSlotSelect0 = 0;
+			trajectoryPoint.zeroPos = index == 0;
+			trajectoryPoint.isLastPoint = index == trajectory.length - 1;
+
+			trajectory[index] = trajectoryPoint;
+		}
+
+		task = new MotorControlExecutor.Task(TAG + " " + controller.getDeviceID(), this::feed, pointDurationMs / 2.0);
+	}
+
+	/**
+	 * Join the segments of a profile from MotionProfileGenerator into one list of points.
+	 */
+	public static List<ProfilePoint> join(List<? extends List<ProfilePoint>> segments)
+	{
+		List<ProfilePoint> points = new ArrayList<>();
+		for(List<ProfilePoint> segment : segments)
+		{
+			points.addAll(segment);
+		}
+
+		return points;
+	}
+
+	private static TrajectoryDuration getDuration(int durationMs)
+	{
+		for(TrajectoryDuration duration : TrajectoryDuration.values())
+		{
+			if(duration.value == durationMs && durationMs > 0)
+			{
+				return duration;
+			}
+		}
+
+		throw new IllegalArgumentException("The Talon does not support a point duration of " + durationMs + " ms");
+	}
+
+	/**
+	 * Clear the Talon's buffers and start streaming the profile.  The Talon is put in MotionProfile mode, disabled until enough
+	 * points have been sent.
+	 */
+	public void start()
+	{
+		stop();
+
+		controller.clearMotionProfileTrajectories();
+		controller.clearMotionProfileHasUnderrun(0);
+		controller.set(ControlMode.MotionProfile, SetValueMotionProfile.Disable.value);
+
+		nextPoint = 0;
+		underruns = 0;
+		overruns = 0;
+
+		state = State.BUFFERING;
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	/**
+	 * Stop streaming and disable the Talon's output.
+	 */
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+
+		if(state != State.STOPPED)
+		{
+			controller.set(ControlMode.MotionProfile, SetValueMotionProfile.Disable.value);
+			state = State.STOPPED;
+		}
+	}
+
+	/**
+	 * One pass of the feeder.  Run by the MotorControlExecutor.
+	 */
+	private void feed()
+	{
+		pushPoints();
+
+		controller.processMotionProfileBuffer();
+
+		controller.getMotionProfileStatus(status);
+
+		if(status.hasUnderrun)
+		{
+			++underruns;
+			Log.unusual(TAG, "Device " + controller.getDeviceID() + " ran out of profile points at point " + nextPoint);
+			controller.clearMotionProfileHasUnderrun(0);
+		}
+
+		switch(state)
+		{
+		case BUFFERING:
+			if(status.btmBufferCnt >= MIN_POINTS_TO_START || nextPoint == trajectory.length)
+			{
+				controller.set(ControlMode.MotionProfile, SetValueMotionProfile.Enable.value);
+				state = State.RUNNING;
+			}
+			break;
+		case RUNNING:
+			if(status.activePointValid && status.isLast)
+			{
+				controller.set(ControlMode.MotionProfile, SetValueMotionProfile.Hold.value);
+				state = State.FINISHED;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Top up the top buffer with the next points.
+	 */
+	private void pushPoints()
+	{
+		for(int pushed = 0; pushed < MAX_POINTS_PER_PASS && nextPoint < trajectory.length; ++pushed)
+		{
+			if(controller.isMotionProfileTopLevelBufferFull())
+			{
+				return;
+			}
+
+			ErrorCode error = controller.pushMotionProfileTrajectory(trajectory[nextPoint]);
+			if(error != ErrorCode.OK)
+			{
+				// tried again next pass
+				++overruns;
+				return;
+			}
+
+			++nextPoint;
+		}
+	}
+
+	public State getState()
+	{
+		return state;
+	}
+
+	/**
+	 *
+	 * @return true once the Talon has reached the last point and is holding it
+	 */
+	public boolean isFinished()
+	{
+		return state == State.FINISHED;
+	}
+
+	/**
+	 *
+	 * @return how many times the Talon ran out of points since start()
+	 */
+	public int getUnderruns()
+	{
+		return underruns;
+	}
+
+	/**
+	 *
+	 * @return how many times the Talon rejected a point since start()
+	 */
+	public int getOverruns()
+	{
+		return overruns;
+	}
+
+	/**
+	 *
+	 * @return how many points have been sent to the Talon
+	 */
+	public int getPointsSent()
+	{
+		return nextPoint;
+	}
+
+	public int getPointCount()
+	{
+		return trajectory.length;
+	}
+}
@@ -75,6 +75,15 @@ public class TwoSpeedGearshift
 		return inHighGear;
 	}
 
+	/**
+	 * Get the current gear as a number, so that it can be used as the operating point of a GainSchedule.
+	 * @return 0 in low gear, 1 in high gear
+	 */
+	public double getGearIndex()
+	{
+		return inHighGear ? 1 : 0;
+	}
+
 	public class CmdUpshift extends Command
 	{
 
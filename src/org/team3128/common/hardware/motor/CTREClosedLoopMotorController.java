@@ -0,0 +1,77 @@
+package org.team3128.common.hardware.motor;
+
+import org.team3128.common.util.Constants;
+import org.team3128.common.util.datatypes.PIDConstants;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.IMotorControllerEnhanced;
+
+/**
+ * IClosedLoopMotorController backed by a CTRE motor controller with its own sensor, like a TalonSRX.
+ *
+ * Uses profile slot 0 and the primary closed loop.
+ */
+public class CTREClosedLoopMotorController implements IClosedLoopMotorController
+{
+	private final static int SLOT = 0, PID_INDEX = 0;
+
+	private final IMotorControllerEnhanced controller;
+
+	public CTREClosedLoopMotorController(IMotorControllerEnhanced controller)
+	{
+		this.controller = controller;
+
+		controller.selectProfileSlot(SLOT, PID_INDEX);
+	}
+
+	@Override
+	public void configGains(PIDConstants constants)
+	{
+		controller.config_kP(SLOT, constants.getkP(), Constants.CAN_TIMEOUT);
+		controller.config_kI(SLOT, constants.getkI(), Constants.CAN_TIMEOUT);
+		controller.config_kD(SLOT, constants.getkD(), Constants.CAN_TIMEOUT);
+		controller.config_kF(SLOT, constants.getkF(), Constants.CAN_TIMEOUT);
+	}
+
+	@Override
+	public void configMotionMagic(int cruiseVelocity, int acceleration)
+	{
+		controller.configMotionCruiseVelocity(cruiseVelocity, Constants.CAN_TIMEOUT);
+		controller.configMotionAcceleration(acceleration, Constants.CAN_TIMEOUT);
+	}
+
+	@Override
+	public void set(ControlMode mode, double value)
+	{
+		controller.set(mode, value);
+	}
+
+	@Override
+	public int getSelectedSensorPosition()
+	{
+		return controller.getSelectedSensorPosition(PID_INDEX);
+	}
+
+	@Override
+	public int getSelectedSensorVelocity()
+	{
+		return controller.getSelectedSensorVelocity(PID_INDEX);
+	}
+
+	@Override
+	public int getClosedLoopError()
+	{
+		return controller.getClosedLoopError(PID_INDEX);
+	}
+
+	@Override
+	public double getMotorOutputPercent()
+	{
+		return controller.getMotorOutputPercent();
+	}
+
+	public IMotorControllerEnhanced getController()
+	{
+		return controller;
+	}
+}
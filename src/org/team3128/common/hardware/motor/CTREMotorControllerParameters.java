@@ -0,0 +1,30 @@
+package org.team3128.common.hardware.motor;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.ParamEnum;
+import com.ctre.phoenix.motorcontrol.IMotorController;
+
+/**
+ * IMotorControllerParameters backed by a CTRE motor controller, like a TalonSRX.
+ */
+public class CTREMotorControllerParameters implements IMotorControllerParameters
+{
+	private final IMotorController controller;
+
+	public CTREMotorControllerParameters(IMotorController controller)
+	{
+		this.controller = controller;
+	}
+
+	@Override
+	public ErrorCode setParameter(ParamEnum parameter, double value, int ordinal, int timeoutMs)
+	{
+		return controller.configSetParameter(parameter, value, 0, ordinal, timeoutMs);
+	}
+
+	@Override
+	public int getDeviceID()
+	{
+		return controller.getDeviceID();
+	}
+}
@@ -0,0 +1,134 @@
+package org.team3128.common.hardware.motor;
+
+/**
+ * Model of a brushed DC motor (or several identical ones geared together), made from the numbers on its datasheet.
+ *
+ * Internally everything is in SI units: volts, amps, newton-meters and radians per second.
+ */
+public class DCMotor
+{
+	public static final DCMotor CIM = new DCMotor(12, 2.42, 133, 2.7, 5310);
+	public static final DCMotor MINI_CIM = new DCMotor(12, 1.41, 89, 3, 5840);
+	public static final DCMotor BAG = new DCMotor(12, .43, 53, 1.8, 13180);
+	public static final DCMotor PRO_775 = new DCMotor(12, .71, 134, .7, 18730);
+	public static final DCMotor REDLINE_775 = new DCMotor(12, .7, 130, 3.8, 19500);
+
+	/**
+	 * Voltage the datasheet numbers were measured at
+	 */
+	public final double nominalVoltage;
+
+	/**
+	 * Torque with the shaft held still, in N*m
+	 */
+	public final double stallTorque;
+
+	/**
+	 * Current with the shaft held still, in amps
+	 */
+	public final double stallCurrent;
+
+	/**
+	 * Current with nothing attached to the shaft, in amps
+	 */
+	public final double freeCurrent;
+
+	/**
+	 * Speed with nothing attached to the shaft, in RPM
+	 */
+	public final double freeSpeed;
+
+	/**
+	 * How many motors this model is for.
+	 */
+	public final int motorCount;
+
+	/**
+	 * Winding resistance, in ohms
+	 */
+	public final double resistance;
+
+	/**
+	 * Speed per volt of back-EMF, in rad/s per volt
+	 */
+	public final double kV;
+
+	/**
+	 * Torque per amp, in N*m per amp
+	 */
+	public final double kT;
+
+	/**
+	 * @param nominalVoltage voltage the other numbers were measured at
+	 * @param stallTorque in N*m
+	 * @param stallCurrent in amps
+	 * @param freeCurrent in amps
+	 * @param freeSpeed in RPM
+	 */
+	public DCMotor(double nominalVoltage, double stallTorque, double stallCurrent, double freeCurrent, double freeSpeed)
+	{
+		this(nominalVoltage, stallTorque, stallCurrent, freeCurrent, freeSpeed, 1);
+	}
+
+	private DCMotor(double nominalVoltage, double stallTorque, double stallCurrent, double freeCurrent, double freeSpeed, int motorCount)
+	{
+		if(stallCurrent <= 0 || freeSpeed <= 0)
+		{
+			throw new IllegalArgumentException("Motor stall current and free speed must be positive");
+		}
+
+		this.nominalVoltage = nominalVoltage;
+		this.stallTorque = stallTorque;
+		this.stallCurrent = stallCurrent;
+		this.freeCurrent = freeCurrent;
+		this.freeSpeed = freeSpeed;
+		this.motorCount = motorCount;
+
+		resistance = nominalVoltage / stallCurrent;
+		kV = (freeSpeed * 2 * Math.PI / 60) / (nominalVoltage - resistance * freeCurrent);
+		kT = stallTorque / stallCurrent;
+	}
+
+	/**
+	 * Get a model of several of this motor driving the same gearbox.
+	 */
+	public DCMotor withMotors(int count)
+	{
+		if(count < 1)
+		{
+			throw new IllegalArgumentException("A gearbox needs at least one motor");
+		}
+
+		return new DCMotor(nominalVoltage, stallTorque * count, stallCurrent * count, freeCurrent * count, freeSpeed, motorCount * count);
+	}
+
+	/**
+	 * Get the current drawn when the motor is at a certain speed and voltage.
+	 * @param speed motor shaft speed in rad/s
+	 * @param voltage voltage applied to the motor
+	 * @return current in amps.  Negative when the motor is being driven backwards or is braking.
+	 */
+	public double getCurrent(double speed, double voltage)
+	{
+		return (voltage - speed / kV) / resistance;
+	}
+
+	/**
+	 * @param current in amps
+	 * @return the torque produced at that current in N*m
+	 */
+	public double getTorque(double current)
+	{
+		return kT * current;
+	}
+
+	/**
+	 * Get the voltage needed to make a certain torque at a certain speed.
+	 * @param torque in N*m
+	 * @param speed motor shaft speed in rad/s
+	 */
+	public double getVoltage(double torque, double speed)
+	{
+		return torque / kT * resistance + speed / kV;
+	}
+}
@@ -0,0 +1,47 @@
+package org.team3128.common.hardware.motor;
+
+import org.team3128.common.util.datatypes.PIDConstants;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * A motor controller which can run a closed loop on its own sensor, like a Talon SRX.
+ *
+ * Everything is in the controller's native units: sensor units for positions, sensor units per 100 ms for velocities,
+ * and the controller's own gain scaling.
+ */
+public interface IClosedLoopMotorController
+{
+	/**
+	 * Set the gains of the closed loop.  This sends configuration to the controller, so it should not be called every update.
+	 */
+	public void configGains(PIDConstants constants);
+
+	/**
+	 * Set the cruise velocity and acceleration used in MotionMagic mode.
+	 * @param cruiseVelocity in native units per 100 ms
+	 * @param acceleration in native units per 100 ms per second
+	 */
+	public void configMotionMagic(int cruiseVelocity, int acceleration);
+
+	/**
+	 * Set the control mode and its target.
+	 */
+	public void set(ControlMode mode, double value);
+
+	public int getSelectedSensorPosition();
+
+	public int getSelectedSensorVelocity();
+
+	/**
+	 *
+	 * @return the closed loop's current error, in native units
+	 */
+	public int getClosedLoopError();
+
+	/**
+	 *
+	 * @return the output the controller is applying, from -1 to 1
+	 */
+	public double getMotorOutputPercent();
+}
@@ -0,0 +1,20 @@
+package org.team3128.common.hardware.motor;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.ParamEnum;
+
+/**
+ * The configuration parameters of a CAN motor controller, like a Talon SRX.
+ */
+public interface IMotorControllerParameters
+{
+	/**
+	 * Write a parameter.
+	 * @param ordinal which one of the parameter, e.g. the profile slot for gains
+	 * @param timeoutMs how long to wait for the controller to acknowledge the write.  0 sends it without waiting.
+	 * @return OK if the write was sent, and, with a timeout, acknowledged by the controller in time
+	 */
+	public ErrorCode setParameter(ParamEnum parameter, double value, int ordinal, int timeoutMs);
+
+	public int getDeviceID();
+}
@@ -16,6 +16,17 @@ public abstract class Limiter
 	 */
 	public abstract boolean canMove(double power);
 	
+	/**
+	 * Limit the power being set for the motor.  Limiters which only need to stop the motor can just implement canMove().
+	 * 
+	 * @param power the power being set for the motor.
+	 * @return the power to set the motor to instead.  By default, the same power if canMove() allows it, and 0 otherwise.
+	 */
+	public double limit(double power)
+	{
+		return canMove(power) ? power : 0;
+	}
+	
 	/**
 	 * Reset any permanent state the the limiter has.
 	 */
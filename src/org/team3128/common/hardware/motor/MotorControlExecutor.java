@@ -0,0 +1,351 @@
+package org.team3128.common.hardware.motor;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.team3128.common.util.Log;
+
+/**
+ * Runs every MotorLogic (and any other periodic control task) from one thread.
+ *
+ * Tasks are scheduled against absolute deadlines on the monotonic clock, so their periods don't drift
+ * by however long the work took.  Deadlines are aligned to a common epoch, so tasks with the same period
+ * always run in the same pass, one after the other, instead of each having its own unsynchronized thread.
+ *
+ * If a task overruns so badly that it misses a deadline, it skips to the next one instead of running
+ * several times back to back.
+ */
+public class MotorControlExecutor
+{
+	final private static String TAG = "MotorControlExecutor";
+
+	private static MotorControlExecutor instance;
+
+	/**
+	 * One periodic job run by the executor, along with its timing statistics.
+	 *
+	 * Statistics are written by the executor thread, and can be read from any thread.
+	 */
+	public static class Task
+	{
+		private final String name;
+		private final Runnable action;
+
+		private volatile long period;
+
+		// owned by the executor thread
+		private long deadline;
+		private long lastStartTime;
+
+		private volatile long lastExecutionTime, maxExecutionTime, averageExecutionTime;
+		private volatile long maxJitter, averageJitter;
+		private volatile long overrunCount;
+
+		/**
+		 * @param name used in log messages
+		 * @param action the work to do each period
+		 * @param period in milliseconds
+		 */
+		public Task(String name, Runnable action, double period)
+		{
+			this.name = name;
+			this.action = action;
+			setPeriod(period);
+		}
+
+		/**
+		 * Set how often the task runs.  Takes effect after its next run.
+		 * @param period in milliseconds
+		 */
+		public void setPeriod(double period)
+		{
+			if(period <= 0)
+			{
+				throw new IllegalArgumentException("Task period must be positive");
+			}
+
+			this.period = (long)(period * 1e6);
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 *
+		 * @return how long the most recent run took, in microseconds
+		 */
+		public double getLastExecutionTime()
+		{
+			return lastExecutionTime / 1e3;
+		}
+
+		/**
+		 *
+		 * @return the longest a run has taken, in microseconds
+		 */
+		public double getMaxExecutionTime()
+		{
+			return maxExecutionTime / 1e3;
+		}
+
+		/**
+		 *
+		 * @return the moving average of how long runs take, in microseconds
+		 */
+		public double getAverageExecutionTime()
+		{
+			return averageExecutionTime / 1e3;
+		}
+
+		/**
+		 *
+		 * @return the largest difference between the time between two runs and the period, in microseconds
+		 */
+		public double getMaxJitter()
+		{
+			return maxJitter / 1e3;
+		}
+
+		/**
+		 *
+		 * @return the moving average of the difference between the time between runs and the period, in microseconds
+		 */
+		public double getAverageJitter()
+		{
+			return averageJitter / 1e3;
+		}
+
+		/**
+		 *
+		 * @return the number of deadlines that were skipped because the executor was running late
+		 */
+		public long getOverrunCount()
+		{
+			return overrunCount;
+		}
+
+		public void resetStatistics()
+		{
+			maxExecutionTime = 0;
+			averageExecutionTime = 0;
+			maxJitter = 0;
+			averageJitter = 0;
+			overrunCount = 0;
+		}
+
+		private void execute(long startTime)
+		{
+			if(lastStartTime != 0)
+			{
+				long jitter = Math.abs(startTime - lastStartTime - period);
+				maxJitter = Math.max(maxJitter, jitter);
+				averageJitter += (jitter - averageJitter) / 16;
+			}
+			lastStartTime = startTime;
+
+			try
+			{
+				action.run();
+			}
+			catch(RuntimeException e)
+			{
+				Log.recoverable(TAG, "Task " + name + " threw " + e.getClass().getSimpleName() + ": " + e.getMessage());
+				e.printStackTrace();
+			}
+
+			long executionTime = System.nanoTime() - startTime;
+			lastExecutionTime = executionTime;
+			maxExecutionTime = Math.max(maxExecutionTime, executionTime);
+			averageExecutionTime += (executionTime - averageExecutionTime) / 16;
+		}
+	}
+
+	private final long epoch = System.nanoTime();
+
+	// copied on every change, so the executor thread can iterate over it without locking
+	private volatile Task[] tasks = new Task[0];
+
+	// run after every pass that ran at least one task
+	private volatile Runnable[] passListeners = new Runnable[0];
+
+	// held while tasks are being run, so that removeTask() can wait for a pass to finish
+	private final Object passLock = new Object();
+
+	private Thread thread;
+
+	public static synchronized MotorControlExecutor getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new MotorControlExecutor();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Start running a task.  Its first run will be at the next multiple of its period since the executor was created.
+	 */
+	public synchronized void addTask(Task task)
+	{
+		for(Task existing : tasks)
+		{
+			if(existing == task)
+			{
+				return;
+			}
+		}
+
+		task.lastStartTime = 0;
+		task.deadline = nextAlignedDeadline(task.period, System.nanoTime());
+
+		Task[] newTasks = new Task[tasks.length + 1];
+		System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+		newTasks[tasks.length] = task;
+		tasks = newTasks;
+
+		if(thread == null)
+		{
+			thread = new Thread(this::run, "Motor Control Executor");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		else
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Stop running a task.  When this returns, the task is not running and will not run again.
+	 *
+	 * Can be called from inside a task.
+	 */
+	public void removeTask(Task task)
+	{
+		synchronized(this)
+		{
+			int index = indexOf(task);
+			if(index < 0)
+			{
+				return;
+			}
+
+			Task[] newTasks = new Task[tasks.length - 1];
+			System.arraycopy(tasks, 0, newTasks, 0, index);
+			System.arraycopy(tasks, index + 1, newTasks, index, tasks.length - index - 1);
+			tasks = newTasks;
+		}
+
+		// wait for any pass that might be running the task to finish
+		synchronized(passLock)
+		{
+
+		}
+	}
+
+	/**
+	 * Run an action after every pass in which any task ran, e.g. to send the outputs the tasks calculated to hardware all at once.
+	 */
+	public synchronized void addPassListener(Runnable listener)
+	{
+		Runnable[] newListeners = new Runnable[passListeners.length + 1];
+		System.arraycopy(passListeners, 0, newListeners, 0, passListeners.length);
+		newListeners[passListeners.length] = listener;
+		passListeners = newListeners;
+	}
+
+	/**
+	 *
+	 * @return true if the task is scheduled
+	 */
+	public boolean isRunning(Task task)
+	{
+		return indexOf(task) >= 0;
+	}
+
+	private int indexOf(Task task)
+	{
+		Task[] currentTasks = tasks;
+		for(int index = 0; index < currentTasks.length; ++index)
+		{
+			if(currentTasks[index] == task)
+			{
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	private long nextAlignedDeadline(long period, long now)
+	{
+		return epoch + ((now - epoch) / period + 1) * period;
+	}
+
+	private void run()
+	{
+		while(true)
+		{
+			Task[] currentTasks = tasks;
+
+			long now = System.nanoTime();
+
+			synchronized(passLock)
+			{
+				boolean ranTask = false;
+
+				for(Task task : currentTasks)
+				{
+					if(task.deadline - now <= 0)
+					{
+						ranTask = true;
+						task.execute(System.nanoTime());
+
+						task.deadline += task.period;
+
+						long afterTime = System.nanoTime();
+						if(task.deadline - afterTime <= 0)
+						{
+							++task.overrunCount;
+							task.deadline = nextAlignedDeadline(task.period, afterTime);
+						}
+					}
+				}
+
+				if(ranTask)
+				{
+					for(Runnable listener : passListeners)
+					{
+						listener.run();
+					}
+				}
+			}
+
+			// the task list may have changed during the pass, so check it again
+			currentTasks = tasks;
+
+			if(currentTasks.length == 0)
+			{
+				LockSupport.park(this);
+				continue;
+			}
+
+			long nextDeadline = currentTasks[0].deadline;
+			for(Task task : currentTasks)
+			{
+				if(task.deadline - nextDeadline < 0)
+				{
+					nextDeadline = task.deadline;
+				}
+			}
+
+			long waitTime = nextDeadline - System.nanoTime();
+			if(waitTime > 0)
+			{
+				LockSupport.parkNanos(this, waitTime);
+			}
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package org.team3128.common.hardware.motor;
 
 import java.util.ArrayList;
+import java.util.function.DoubleSupplier;
 
+import org.team3128.common.hardware.power.IPowerDistribution;
 import org.team3128.common.util.Log;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.control.SlewRateLimiter;
 
 import edu.wpi.first.wpilibj.SpeedController;
 
@@ -27,6 +31,39 @@ public class MotorGroup
     private boolean motorReversed = false;
     private double speedScalar = 1;
     private double target;
+    
+    // output waiting to be sent to the motors
+    private volatile double stagedOutput;
+    private volatile boolean outputPending = false;
+    
+    // flushOutput() runs on both the caller's thread and the executor, so it is done under this
+    private final Object flushLock = new Object();
+    
+    private volatile double lastWrittenOutput = Double.NaN;
+    private double outputEpsilon = .001;
+    
+    private volatile long writesIssued = 0, writesSuppressed = 0;
+    
+    private boolean registeredForFlush = false;
+    
+    // voltage compensation, off if the source is null
+    private volatile IPowerDistribution voltageSource;
+    private double nominalVoltage = 12;
+    
+    // set by BrownoutGuard
+    private volatile double sheddingScale = 1;
+    
+    // output conditioning, off if null.  Only used by the executor thread once enabled.
+    private volatile SlewRateLimiter slewLimiter;
+    private long lastConditionTime = 0;
+    private final MotorControlExecutor.Task conditioningTask = new MotorControlExecutor.Task("MotorGroup Output Conditioning", this::conditioningStep, CONDITIONING_PERIOD);
+    
+    private MotorHealthMonitor healthMonitor;
+    
+    private final static int CONDITIONING_PERIOD = 10; //ms
+    
+    // longest time step given to the slew limiter, in case the executor was held up
+    private final static double MAX_CONDITIONING_DT = .05; //s
 
     public MotorGroup()
     {
@@ -100,15 +137,301 @@ public class MotorGroup
     	return this.speedScalar;
     }
     
+    /**
+     * Set how much the output has to change by before it is sent to the motors again.
+     * Defaults to .001, which is about the resolution of a PWM signal.  Setting the output to exactly 0 is always sent.
+     * @param epsilon
+     */
+    public void setOutputEpsilon(double epsilon)
+    {
+    	outputEpsilon = epsilon;
+    }
+    
+    /**
+     * Scale outputs so that they act as if the battery was at a constant voltage.
+     * A power of 1 will be the nominal voltage, if the battery can supply it.
+     * 
+     * The output is re-sent from the MotorControlExecutor every 10 ms, so it follows the battery even if nothing sets a new one.
+     * @param source where to read the battery voltage from, e.g. a PowerDistributionSampler.  It is read once per output.
+     * @param nominalVoltage the voltage a power of 1 should mean
+     */
+    public void enableVoltageCompensation(IPowerDistribution source, double nominalVoltage)
+    {
+    	this.nominalVoltage = nominalVoltage;
+    	voltageSource = source;
+    	
+    	registerForFlush();
+    	MotorControlExecutor.getInstance().addTask(conditioningTask);
+    }
+    
+    public void disableVoltageCompensation()
+    {
+    	voltageSource = null;
+    	
+    	if(slewLimiter == null)
+    	{
+    		MotorControlExecutor.getInstance().removeTask(conditioningTask);
+    	}
+    	
+    	// send the uncompensated output
+    	resendOutput();
+    }
+    
+    /**
+     * Set a scale from 0 to 1 which is applied to the output to reduce power draw.  Used by BrownoutGuard.
+     * 
+     * The output is re-sent with the new scale, even if nothing sets a new one.
+     */
+    public void setSheddingScale(double scale)
+    {
+    	double newScale = RobotMath.clamp(scale, 0, 1);
+    	if(newScale != sheddingScale)
+    	{
+    		sheddingScale = newScale;
+    		resendOutput();
+    	}
+    }
+    
+    public double getSheddingScale()
+    {
+    	return sheddingScale;
+    }
+    
+    /**
+     * Limit how fast the output can change, so that a step in the target (from setTarget() or a MotorLogic) becomes a ramp.
+     * 
+     * Once enabled, outputs are always sent to the motors from the MotorControlExecutor, including when there is no MotorLogic,
+     * so it can keep ramping between calls to setTarget().  This adds up to 10 ms of latency when there is no MotorLogic.
+     * @param acceleratingRate how fast the output can move away from zero, in power per second (e.g. 4 reaches full power in 250 ms)
+     * @param brakingRate how fast the output can move towards zero, in power per second
+     */
+    public void enableSlewLimiting(double acceleratingRate, double brakingRate)
+    {
+    	enableSlewLimiting(acceleratingRate, brakingRate, 0);
+    }
+    
+    /**
+     * Limit how fast the output can change, and how fast that rate can change.
+     * @see #enableSlewLimiting(double, double)
+     * @param jerk how fast the rate can change, in power per second squared.  0 for no limit.
+     */
+    public void enableSlewLimiting(double acceleratingRate, double brakingRate, double jerk)
+    {
+    	SlewRateLimiter limiter = new SlewRateLimiter(acceleratingRate, brakingRate, jerk);
+    	
+    	synchronized(flushLock)
+    	{
+    		// start from wherever the motors are now
+    		limiter.reset(Double.isNaN(lastWrittenOutput) ? 0 : stagedOutput);
+    		lastConditionTime = 0;
+    		slewLimiter = limiter;
+    	}
+    	
+    	registerForFlush();
+    	MotorControlExecutor.getInstance().addTask(conditioningTask);
+    }
+    
+    public void disableSlewLimiting()
+    {
+    	if(voltageSource == null)
+    	{
+    		MotorControlExecutor.getInstance().removeTask(conditioningTask);
+    	}
+    	slewLimiter = null;
+    	
+    	// send the unlimited output
+    	resendOutput();
+    }
+    
+    /**
+     * Send the staged output again, e.g. because its scaling changed.  If something else sends the output, it is picked up
+     * at the end of the next executor pass, otherwise it is sent now.
+     */
+    private void resendOutput()
+    {
+    	// nothing has been staged yet, so there is nothing to re-send
+    	if(Double.isNaN(lastWrittenOutput))
+    	{
+    		return;
+    	}
+    	
+    	outputPending = true;
+    	if(slewLimiter == null && (motorLogic == null || !motorLogic.isRunning()))
+    	{
+    		flushOutput();
+    	}
+    }
+    
+    /**
+     * Keeps the output ramping, and following the battery voltage, when nothing new has been staged.  Run by the executor.
+     */
+    private void conditioningStep()
+    {
+    	SlewRateLimiter limiter = slewLimiter;
+    	if((limiter != null && !limiter.isSettled(stagedOutput)) || voltageSource != null)
+    	{
+    		outputPending = true;
+    	}
+    }
+    
+    /**
+     * Work out how many volts the motors get per unit of power set by the MotorLogic, after the speed scalar, the shedding scale
+     * and voltage compensation, the same way the output is scaled when it is sent.  Used by limiters which model the motors.
+     * 
+     * This doesn't include the slew limit, or the output being clamped to the battery voltage.
+     * @param busVoltage the battery voltage, used when there is no voltage compensation
+     * @return the volts per unit of power, which is never negative
+     */
+    public double getVoltsPerPower(double busVoltage)
+    {
+    	double voltage = busVoltage;
+    	
+    	IPowerDistribution source = voltageSource;
+    	if(source != null && source.getVoltage() > 1)
+    	{
+    		// compensation cancels out the battery voltage
+    		voltage = nominalVoltage;
+    	}
+    	
+    	return Math.abs(speedScalar) * sheddingScale * voltage;
+    }
+    
+    /**
+     * 
+     * @return the output last sent to the motors, after all scaling, or 0 if none has been
+     */
+    public double getOutput()
+    {
+    	double output = lastWrittenOutput;
+    	return Double.isNaN(output) ? 0 : output;
+    }
+    
+    /**
+     * Start keeping health statistics for this group's motors.
+     * @see MotorHealthMonitor
+     * @param name used in log messages and for the dump file
+     * @param motor model of the group's motors, e.g. DCMotor.CIM.withMotors(2)
+     * @param currentSource the total current drawn by the group, e.g. from MotorHealthMonitor.pdpCurrent() or a TalonSRX's getOutputCurrent().
+     * If it is from the PDP, call setSupplyCurrent(true) on the returned monitor.
+     * @return the monitor, which has already been started
+     */
+    public MotorHealthMonitor enableHealthMonitoring(String name, DCMotor motor, DoubleSupplier currentSource)
+    {
+    	if(healthMonitor == null)
+    	{
+    		healthMonitor = new MotorHealthMonitor(name, this, motor, currentSource);
+    		healthMonitor.start();
+    	}
+    	
+    	return healthMonitor;
+    }
+    
+    /**
+     * 
+     * @return the health monitor, or null if health monitoring is not enabled
+     */
+    public MotorHealthMonitor getHealthMonitor()
+    {
+    	return healthMonitor;
+    }
+    
+    /**
+     * 
+     * @return how many times SpeedController.set() has been called
+     */
+    public long getWritesIssued()
+    {
+    	return writesIssued;
+    }
+    
+    /**
+     * 
+     * @return how many calls to SpeedController.set() were skipped because the output had not changed enough
+     */
+    public long getWritesSuppressed()
+    {
+    	return writesSuppressed;
+    }
+    
+    /**
+     * Stage a new output.  When a MotorLogic is running, the MotorControlExecutor sends the outputs of all MotorGroups
+     * to the hardware at the end of its pass.  Otherwise, it is sent now.
+     * @param pow
+     */
     protected void setInternalSpeed(double pow)
     {
-    	double powToSet = pow * speedScalar * (motorReversed ? -1.0 : 1.0);
+    	stagedOutput = pow * speedScalar * (motorReversed ? -1.0 : 1.0);
+    	outputPending = true;
+    	
+    	if(slewLimiter == null && (motorLogic == null || !motorLogic.isRunning()))
+    	{
+    		flushOutput();
+    	}
+    }
+    
+    /**
+     * Send the staged output to the motors, if it has changed by more than the epsilon since it was last sent.
+     * 
+     * This is called from the thread that set the output as well as from the executor, so it is serialized: each staged
+     * output is slew limited once, and the motors are set in order.
+     */
+    void flushOutput()
+    {
+    	synchronized(flushLock)
+    	{
+    		flushOutputLocked();
+    	}
+    }
+    
+    private void flushOutputLocked()
+    {
+    	if(!outputPending)
+    	{
+    		return;
+    	}
+    	outputPending = false;
+    	
+    	double output = stagedOutput;
+    	
+    	SlewRateLimiter limiter = slewLimiter;
+    	if(limiter != null)
+    	{
+    		long now = System.nanoTime();
+    		double dt = lastConditionTime == 0 ? CONDITIONING_PERIOD / 1000.0 : Math.min((now - lastConditionTime) / 1e9, MAX_CONDITIONING_DT);
+    		lastConditionTime = now;
+    		
+    		output = limiter.step(output, dt);
+    	}
+    	
+    	output *= sheddingScale;
+    	
+    	IPowerDistribution source = voltageSource;
+    	if(source != null)
+    	{
+    		double voltage = source.getVoltage();
+    		
+    		// no reading yet, or a bad one
+    		if(voltage > 1)
+    		{
+    			output = RobotMath.clampPosNeg1(output * nominalVoltage / voltage);
+    		}
+    	}
+    	
+    	// comparisons with NaN are false, so the first output is always sent
+    	boolean stopping = output == 0 && lastWrittenOutput != 0;
+    	if(!stopping && Math.abs(output - lastWrittenOutput) <= outputEpsilon)
+    	{
+    		writesSuppressed += motors.size();
+    		return;
+    	}
     	
     	for(SpeedController motor : motors)
     	{
-    		motor.set(powToSet);
+    		motor.set(output);
     	}
     	
+    	lastWrittenOutput = output;
+    	writesIssued += motors.size();
     }
     
     /**
@@ -117,7 +440,13 @@ public class MotorGroup
      */
     public void addMotor(SpeedController controller)
     {
-    	motors.add(controller);
+    	synchronized(flushLock)
+    	{
+    		motors.add(controller);
+    		
+    		// make sure the new motor gets the next output
+    		lastWrittenOutput = Double.NaN;
+    	}
     }
     
     /**
@@ -195,12 +524,26 @@ public class MotorGroup
         this.motorLogic.reset();
         this.motorLogic.setControlTarget(target);
         this.motorLogic.setControlledMotor(this);
+        
+        registerForFlush();
         if(!motorLogic.isRunning())
         {
         	motorLogic.start();
         }
     }
 
+    /**
+     * Have the MotorControlExecutor send this group's output at the end of each of its passes.
+     */
+    private synchronized void registerForFlush()
+    {
+    	if(!registeredForFlush)
+    	{
+    		MotorControlExecutor.getInstance().addPassListener(this::flushOutput);
+    		registeredForFlush = true;
+    	}
+    }
+    
     /**
      * Stop the speed control, if it exists
      */
@@ -0,0 +1,464 @@
+package org.team3128.common.hardware.motor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.hardware.power.IPowerDistribution;
+import org.team3128.common.util.Log;
+
+/**
+ * Keeps statistics on how hard a MotorGroup is working, so that motors which are being overworked can be found before they fail.
+ *
+ * Every period, the group's output and the measured current are recorded into fixed-size ring buffers, and rolling statistics
+ * over the buffer (mean output, mean, RMS and peak current, and time at the current limit) are updated.  The winding temperature
+ * is estimated with a first-order I^2*t thermal model: the windings are heated by I^2*R and cool towards the ambient temperature.
+ *
+ * The windings are heated by the current through the motors.  A Talon's getOutputCurrent() measures that, but the PDP measures
+ * the current drawn from the battery, which is only the motor current times the duty cycle.  Call setSupplyCurrent(true) when the
+ * current comes from the PDP, so that it is divided by the group's output before it goes into the thermal model.
+ *
+ * Sampling runs on the MotorControlExecutor and does not allocate.  The getters can be called from any thread (e.g. a dashboard
+ * updater) without locking.  Call dumpAll() at the end of a match (e.g. from disabledInit()) to write every monitor's buffer to a file.
+ */
+public class MotorHealthMonitor
+{
+	final private static String TAG = "MotorHealthMonitor";
+
+	/**
+	 * The CSV header matching the columns written by dump().
+	 */
+	public final static String CSV_HEADER = "time_ms,output,current,temperature";
+
+	private static final CopyOnWriteArrayList<MotorHealthMonitor> monitors = new CopyOnWriteArrayList<>();
+
+	private final String name;
+
+	private final MotorGroup group;
+
+	private final DCMotor motor;
+
+	private final DoubleSupplier currentSource;
+
+	private final MotorControlExecutor.Task task;
+
+	private final double period; // s
+
+	// ring buffers of the window, written only by the sampling thread
+	private final int windowSize;
+	private final double[] times, outputs, currents, temperatures;
+	private volatile long sampleCount;
+
+	private final long startTime;
+
+	// running sums over the window
+	private double absOutputSum, currentSum, squaredCurrentSum;
+	private int samplesAtLimit;
+
+	// the samples which could still become the peak current, as a ring-buffer queue of sample numbers with decreasing currents.
+	// The front is the peak of the window.
+	private final long[] peakQueueSamples;
+	private final double[] peakQueueCurrents;
+	private int peakQueueStart, peakQueueLength;
+
+	private double currentLimit = Double.POSITIVE_INFINITY;
+
+	// thermal model
+	private double thermalResistance = 1.0; // degrees C per watt, windings to ambient
+	private double thermalTimeConstant = 120; // s
+	private double ambientTemperature = 25; // degrees C
+	private double warningTemperature = 100; // degrees C
+	private boolean overheated;
+
+	// whether the current source measures the battery's current instead of the motors'
+	private volatile boolean supplyCurrent;
+
+	// duty cycle below which supply current isn't scaled up any further.  Near zero output the PDP reading is mostly noise,
+	// so the motor current is underestimated there instead.
+	private final static double MIN_DUTY = .1;
+
+	// published statistics
+	private volatile double meanOutput, meanCurrent, rmsCurrent, peakCurrent;
+	private volatile double timeAtLimit, fractionAtLimit;
+	private volatile double temperature;
+
+	/**
+	 * Construct a monitor.  It does not record anything until start() is called (or sample() is called manually).
+	 * @param name used in log messages and for the dump file
+	 * @param group the group to record the output of
+	 * @param motor model of the group's motors, e.g. DCMotor.CIM.withMotors(2).  Its resistance is used for heating.
+	 * @param currentSource the total current drawn by the group, e.g. from pdpCurrent() or a TalonSRX's getOutputCurrent().
+	 * If it is from the PDP, call setSupplyCurrent(true).
+	 * @param period time between samples, in milliseconds
+	 * @param windowSize how many samples the rolling statistics are kept over
+	 */
+	public MotorHealthMonitor(String name, MotorGroup group, DCMotor motor, DoubleSupplier currentSource, double period, int windowSize)
+	{
+		if(windowSize <= 0)
+		{
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+
+		this.name = name;
+		this.group = group;
+		this.motor = motor;
+		this.currentSource = currentSource;
+		this.period = period / 1000;
+		this.windowSize = windowSize;
+
+		times = new double[windowSize];
+		outputs = new double[windowSize];
+		currents = new double[windowSize];
+		temperatures = new double[windowSize];
+
+		peakQueueSamples = new long[windowSize];
+		peakQueueCurrents = new double[windowSize];
+
+		temperature = ambientTemperature;
+		startTime = System.nanoTime();
+
+		task = new MotorControlExecutor.Task("MotorHealthMonitor " + name, this::sample, period);
+	}
+
+	/**
+	 * Construct a monitor which samples every 20 ms, with statistics over the last 5 seconds.
+	 */
+	public MotorHealthMonitor(String name, MotorGroup group, DCMotor motor, DoubleSupplier currentSource)
+	{
+		this(name, group, motor, currentSource, 20, 250);
+	}
+
+	/**
+	 * Get a current source which adds up some channels of a PDP.  This is the battery's current, so call setSupplyCurrent(true)
+	 * on a monitor which uses it.
+	 * @param source a PowerDistributionSampler is recommended, so the PDP is not read again
+	 */
+	public static DoubleSupplier pdpCurrent(IPowerDistribution source, int... channels)
+	{
+		int[] channelsCopy = channels.clone();
+
+		return () ->
+		{
+			double current = 0;
+			for(int channel : channelsCopy)
+			{
+				current += source.getCurrent(channel);
+			}
+			return current;
+		};
+	}
+
+	/**
+	 * Set the current at or above which the group counts as being at its limit, e.g. the current limit of its Talons or the
+	 * rating of its breaker.  Defaults to infinite, which never counts.
+	 */
+	public void setCurrentLimit(double currentLimit)
+	{
+		this.currentLimit = currentLimit;
+	}
+
+	/**
+	 * Set whether the current source measures the current drawn from the battery, like the PDP, instead of the current
+	 * through the motors, like a Talon's getOutputCurrent().  Defaults to false.
+	 *
+	 * Supply current is only used as it is for the statistics.  For the thermal model, it is divided by the group's output
+	 * to get the motor current.
+	 */
+	public void setSupplyCurrent(boolean supplyCurrent)
+	{
+		this.supplyCurrent = supplyCurrent;
+	}
+
+	/**
+	 * Set the parameters of the thermal model.  The defaults are rough numbers for a CIM.
+	 * @param thermalResistance temperature rise of the windings per watt of heating once steady, in degrees C per watt.  Defaults to 1.
+	 * @param thermalTimeConstant how long the windings take to get 63% of the way to their steady temperature, in seconds.  Defaults to 120.
+	 * @param ambientTemperature in degrees C.  Defaults to 25.
+	 */
+	public synchronized void setThermalModel(double thermalResistance, double thermalTimeConstant, double ambientTemperature)
+	{
+		if(thermalResistance <= 0 || thermalTimeConstant <= 0)
+		{
+			throw new IllegalArgumentException("Thermal resistance and time constant must be positive");
+		}
+
+		this.thermalResistance = thermalResistance;
+		this.thermalTimeConstant = thermalTimeConstant;
+		this.ambientTemperature = ambientTemperature;
+	}
+
+	/**
+	 * Set the estimated temperature at which a warning is logged.  Defaults to 100 degrees C.
+	 */
+	public void setWarningTemperature(double warningTemperature)
+	{
+		this.warningTemperature = warningTemperature;
+	}
+
+	/**
+	 * Start sampling on the MotorControlExecutor, and include this monitor in dumpAll().
+	 */
+	public void start()
+	{
+		if(!monitors.contains(this))
+		{
+			monitors.add(this);
+		}
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+	}
+
+	/**
+	 * Take one sample, one period after the last.  Called by the MotorControlExecutor once start() has been called.
+	 */
+	public void sample()
+	{
+		sample(group.getOutput(), currentSource.getAsDouble(), period);
+	}
+
+	/**
+	 * Take one sample with the given values, e.g. in a simulation.  Should only be called from one thread at a time.
+	 * @param output the output being applied to the motors
+	 * @param current the total current drawn, in amps
+	 * @param dt time since the last sample, in seconds
+	 */
+	public synchronized void sample(double output, double current, double dt)
+	{
+		long count = sampleCount;
+		int slot = (int)(count % windowSize);
+
+		// the oldest sample leaves the window
+		if(count >= windowSize)
+		{
+			absOutputSum -= Math.abs(outputs[slot]);
+			currentSum -= currents[slot];
+			squaredCurrentSum -= currents[slot] * currents[slot];
+			if(currents[slot] >= currentLimit)
+			{
+				--samplesAtLimit;
+			}
+		}
+
+		updateTemperature(supplyCurrent ? current / Math.max(Math.abs(output), MIN_DUTY) : current, dt);
+
+		times[slot] = (System.nanoTime() - startTime) / 1e6;
+		outputs[slot] = output;
+		currents[slot] = current;
+		temperatures[slot] = temperature;
+
+		absOutputSum += Math.abs(output);
+		currentSum += current;
+		squaredCurrentSum += current * current;
+		if(current >= currentLimit)
+		{
+			++samplesAtLimit;
+			timeAtLimit += dt;
+		}
+
+		updatePeak(count, current);
+
+		// publishes the sample to dump()
+		sampleCount = count + 1;
+
+		publishStatistics();
+	}
+
+	/**
+	 * @param current the total current through the motors
+	 */
+	private void updateTemperature(double current, double dt)
+	{
+		// the current is split evenly between the motors.  The model's resistance is all of them in parallel.
+		double motorCurrent = current / motor.motorCount;
+		double heating = motorCurrent * motorCurrent * motor.resistance * motor.motorCount;
+
+		double steadyTemperature = ambientTemperature + heating * thermalResistance;
+
+		// exact solution of the first-order model over the step, so long steps don't overshoot
+		temperature = steadyTemperature + (temperature - steadyTemperature) * Math.exp(-dt / thermalTimeConstant);
+
+		if(!overheated && temperature >= warningTemperature)
+		{
+			overheated = true;
+			Log.unusual(TAG, name + " is estimated to be at " + Math.round(temperature) + " C.  Let it cool down!");
+		}
+		else if(overheated && temperature < warningTemperature - 10)
+		{
+			overheated = false;
+		}
+	}
+
+	/**
+	 * Keep track of the peak current over the window without scanning it.
+	 */
+	private void updatePeak(long count, double current)
+	{
+		// drop the sample that just left the window
+		if(peakQueueLength > 0 && peakQueueSamples[peakQueueStart] <= count - windowSize)
+		{
+			peakQueueStart = (peakQueueStart + 1) % windowSize;
+			--peakQueueLength;
+		}
+
+		// samples with less current than this one can never be the peak again
+		while(peakQueueLength > 0 && peakQueueCurrents[(peakQueueStart + peakQueueLength - 1) % windowSize] <= current)
+		{
+			--peakQueueLength;
+		}
+
+		int slot = (peakQueueStart + peakQueueLength) % windowSize;
+		peakQueueSamples[slot] = count;
+		peakQueueCurrents[slot] = current;
+		++peakQueueLength;
+	}
+
+	private void publishStatistics()
+	{
+		int samples = (int) Math.min(sampleCount, windowSize);
+
+		double peak = Math.max(0, peakQueueCurrents[peakQueueStart]);
+
+		meanOutput = absOutputSum / samples;
+		meanCurrent = currentSum / samples;
+		rmsCurrent = Math.sqrt(Math.max(0, squaredCurrentSum / samples));
+		peakCurrent = peak;
+		fractionAtLimit = (double) samplesAtLimit / samples;
+	}
+
+	/**
+	 * Write the samples in the window as CSV, with a header, oldest first.  Can be called from any thread.
+	 */
+	public void dump(Writer writer) throws IOException
+	{
+		StringBuilder builder = new StringBuilder(64);
+
+		writer.write(CSV_HEADER);
+		writer.write('\n');
+
+		// leave out the oldest slot, since it's the one the sampler writes next
+		long end = sampleCount;
+		long start = Math.max(0, end - windowSize + 1);
+
+		for(long index = start; index < end; ++index)
+		{
+			int slot = (int)(index % windowSize);
+
+			builder.setLength(0);
+			builder.append(times[slot]).append(',')
+				.append(outputs[slot]).append(',')
+				.append(currents[slot]).append(',')
+				.append(temperatures[slot]).append('\n');
+
+			// the sampler may have overwritten the row while it was being read
+			if(sampleCount - index >= windowSize)
+			{
+				continue;
+			}
+
+			writer.append(builder);
+		}
+	}
+
+	/**
+	 * Log a summary of every started monitor, and write each one's samples to a CSV file named after it.
+	 * @param directory where to write the files, e.g. /home/lvuser/health
+	 */
+	public static void dumpAll(File directory)
+	{
+		directory.mkdirs();
+
+		for(MotorHealthMonitor monitor : monitors)
+		{
+			Log.info(TAG, monitor.getSummary());
+
+			File file = new File(directory, monitor.name.replaceAll("[^A-Za-z0-9_.-]", "_") + "_health.csv");
+			try(Writer writer = new BufferedWriter(new FileWriter(file)))
+			{
+				monitor.dump(writer);
+			}
+			catch(IOException e)
+			{
+				Log.recoverable(TAG, "Could not write " + file.getPath() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return one line describing the statistics
+	 */
+	public String getSummary()
+	{
+		return String.format("%s: mean output %.2f, mean current %.1f A, RMS %.1f A, peak %.1f A, %.1f s at limit, %.0f C",
+				name, meanOutput, meanCurrent, rmsCurrent, peakCurrent, timeAtLimit, temperature);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 *
+	 * @return the mean magnitude of the output over the window
+	 */
+	public double getMeanOutput()
+	{
+		return meanOutput;
+	}
+
+	public double getMeanCurrent()
+	{
+		return meanCurrent;
+	}
+
+	public double getRMSCurrent()
+	{
+		return rmsCurrent;
+	}
+
+	public double getPeakCurrent()
+	{
+		return peakCurrent;
+	}
+
+	/**
+	 *
+	 * @return total time spent at or above the current limit since the monitor was made, in seconds
+	 */
+	public double getTimeAtLimit()
+	{
+		return timeAtLimit;
+	}
+
+	/**
+	 *
+	 * @return the fraction of the window spent at or above the current limit
+	 */
+	public double getFractionAtLimit()
+	{
+		return fractionAtLimit;
+	}
+
+	/**
+	 *
+	 * @return the estimated winding temperature, in degrees C
+	 */
+	public double getTemperature()
+	{
+		return temperature;
+	}
+
+	public MotorControlExecutor.Task getTask()
+	{
+		return task;
+	}
+}
@@ -1,6 +1,7 @@
  package org.team3128.common.hardware.motor;
 
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.team3128.common.RobotProperties;
 
@@ -14,9 +15,16 @@ public abstract class MotorLogic
 {
 	//owned by the control thread
 	private long lastRuntime = 0;
+	private long lastStepTime = 0;
    
-	private MotorGroup controlledMotor = null;
-	private Thread thread;
+	private volatile MotorGroup controlledMotor = null;
+	
+	private final MotorControlExecutor.Task task;
+	
+	// requests from other threads, which the control thread picks up at the start of each step
+	private final static int TARGET_PENDING = 1, RESET_PENDING = 2;
+	private final AtomicInteger mailboxFlags = new AtomicInteger();
+	private volatile double mailboxTarget;
 	
 	private HashSet<Limiter> limiters;
 	
@@ -25,6 +33,7 @@ public abstract class MotorLogic
 	public MotorLogic()
 	{
 		limiters = new HashSet<Limiter>();
+		task = new MotorControlExecutor.Task(getClass().getSimpleName(), this::controlStep, _refreshTime);
 	}
 
 	protected synchronized void setControlledMotor(MotorGroup m)
@@ -32,18 +41,48 @@ public abstract class MotorLogic
 		controlledMotor = m;
 	}
 
-	//please make sure to make these two voids synchronized when overriding them.
    /**
     * Set the desired value for the motor controller to target.
     * Exactly what units this is in depends on the controller.
+    * 
+    * This never blocks.  The target is handed to the control thread, which applies it at the start of its next step
+    * (or its first step, if it is not running).  If it is called several times between steps, only the last target is used.
+    * @param val
+    */
+   public final void setControlTarget(double val)
+   {
+	   mailboxTarget = val;
+	   
+	   int flags;
+	   do
+	   {
+		   flags = mailboxFlags.get();
+	   }
+	   while(!mailboxFlags.compareAndSet(flags, flags | TARGET_PENDING));
+   }
+   
+   /**
+    * Reset any permanent state of the speed controller as well as the speed target, and reset all of the limiters.
+    * MotorGroup.startControl() calls this.
+    * 
+    * Like setControlTarget(), this never blocks, and happens at the start of the next step.
+    * Any target set before it is discarded.
+    */
+   public final void reset()
+   {
+	   mailboxFlags.set(RESET_PENDING);
+   }
+   
+   /**
+    * Set the desired value for the motor controller to target.  Called from the control thread.
     * @param val
     */
-   public abstract void setControlTarget(double val);
+   protected abstract void applyControlTarget(double val);
    
    /**
-    * Reset any permanent state of the speed controller as well as the speed target.
+    * Reset any permanent state of the speed controller as well as the speed target.  Called from the control thread.
     */
-   public abstract void reset();
+   protected abstract void resetState();
    
    /**
     * Update the speed control.
@@ -113,89 +152,136 @@ public abstract class MotorLogic
    public void setRefreshTime(int refreshTime)
    {
 	   _refreshTime = refreshTime;
+	   task.setPeriod(refreshTime);
    }
 
    /**
-    * internal thread
+    * Run one update of the control by hand instead of on the MotorControlExecutor, e.g. in a simulation.
+    * Any target or reset posted since the last step is applied first, and the output has been through the limiters.
+    * 
+    * Don't call this while the control is running.
+    * @param dt the time in milliseconds since the last step
+    * @return the output to send to the motor
+    */
+   public final double step(double dt)
+   {
+	   applyMailbox();
+	   return limit(speedControlStep(dt));
+   }
+   
+   /**
+    * Apply the requests posted by setControlTarget() and reset().  Called from the control thread.
     */
-   public final void run() 
+   private void applyMailbox()
    {
-	   while(true)
+	   int flags = mailboxFlags.getAndSet(0);
+	   if((flags & RESET_PENDING) != 0)
 	   {
-		   synchronized(this)
-		   {
-		       if(this.isComplete())
-		       {
-		           this.controlledMotor.setInternalSpeed(0);
-		           reset();
-		           return;
-		       }
-		       else
-		       {
-		    	   double newSpeed = speedControlStep(getLastRuntimeDist());
-		    	   for(Limiter currentLimiter : limiters)
-		    	   {
-			    	   if(!currentLimiter.canMove(newSpeed))
-			    	   {
-			    		   newSpeed = 0;
-			    	   }
-		    	   }
-
-		    	   controlledMotor.setInternalSpeed(newSpeed);
-		       }
-		   }
+		   resetState();
 		   
-	       lastRuntime = System.currentTimeMillis();
-	       
-		   try
-		   {
-			   Thread.sleep(_refreshTime);
-		   }
-		   catch (InterruptedException e)
-		   {
-			   return;
-		   }
+		   // e.g. so that a CurrentCutoffLimiter which tripped on the last run lets the motor move again
+		   resetAllLimiters();
+	   }
+	   if((flags & TARGET_PENDING) != 0)
+	   {
+		   applyControlTarget(mailboxTarget);
 	   }
    }
    
-   public final void shutDown()
+   private double limit(double speed)
    {
-	   if(thread != null)
+	   for(Limiter currentLimiter : limiters)
 	   {
-		   thread.interrupt();
-		   try
-		   {
-			   thread.join();
-		   } 
-		   catch (InterruptedException e)
-		   {
-				e.printStackTrace();
-				return;
-		   }
+		   speed = currentLimiter.limit(speed);
 	   }
 	   
+	   return speed;
    }
    
    /**
-    * Start the controller thread if it is stopped, which it is when you construct the object.
+    * One update of the motor control, run by the MotorControlExecutor.
+    */
+   private void controlStep()
+   {
+	   long currentTime = System.nanoTime();
+	   
+	   // on the first step there is no previous step to measure from, so assume one period has passed
+	   double dt = lastStepTime == 0 ? _refreshTime : (currentTime - lastStepTime) / 1e6;
+	   lastStepTime = currentTime;
+	   
+	   applyMailbox();
+	   
+       if(this.isComplete())
+       {
+           applyOutput(0);
+           resetState();
+           MotorControlExecutor.getInstance().removeTask(task);
+           return;
+       }
+       else
+       {
+    	   applyOutput(limit(speedControlStep(dt)));
+       }
+	   
+       lastRuntime = System.currentTimeMillis();
+   }
+   
+   /**
+    * Send the output of a step, after the limiters, to the motor.  Called from the control thread.
+    * 
+    * By default, this stages it in the controlled MotorGroup.  Logics which drive a motor controller some other way,
+    * like running a closed loop on a Talon SRX, can override this.
+    * @param output
+    */
+   protected void applyOutput(double output)
+   {
+	   controlledMotor.setInternalSpeed(output);
+   }
+   
+   /**
+    * Stop the motor control.  When this returns, it will not run again until it is restarted.
+    */
+   public final void shutDown()
+   {
+	   MotorControlExecutor.getInstance().removeTask(task);
+	   onShutDown();
+   }
+   
+   /**
+    * Called by shutDown() once the control has stopped.  Logics which keep a motor running on their own,
+    * like a Talon SRX closed loop, should stop it here.
+    */
+   protected void onShutDown()
+   {
+	   
+   }
+   
+   /**
+    * Start the motor control if it is stopped, which it is when you construct the object.
+    * 
+    * It is run by the shared MotorControlExecutor every _refreshTime milliseconds.
     */
    public void start()
    {
-	   if(thread == null || !thread.isAlive())
+	   if(!isRunning())
 	   {
-		   thread = new Thread(this::run, "MotorLogic Thread");
-		   thread.start();
+		   lastStepTime = 0;
+		   task.setPeriod(_refreshTime);
+		   MotorControlExecutor.getInstance().addTask(task);
 	   }
    }
    
    public boolean isRunning()
    {
-	   if(thread == null)
-	   {
-		   return false;
-	   }
-	   
-	   return thread.isAlive();
+	   return MotorControlExecutor.getInstance().isRunning(task);
+   }
+   
+   /**
+    * Get the timing statistics of this motor control, such as how long each update takes.
+    */
+   public MotorControlExecutor.Task getControlTask()
+   {
+	   return task;
    }
    
 }
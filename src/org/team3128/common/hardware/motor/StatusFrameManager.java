@@ -0,0 +1,127 @@
+package org.team3128.common.hardware.motor;
+
+import java.util.EnumMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.team3128.common.util.Log;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motorcontrol.IMotorControllerEnhanced;
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+
+/**
+ * Applies StatusFrameProfiles to a Talon SRX as its mode changes.
+ *
+ * Only the frames whose period differs from the last one applied are written, and they are written without waiting for the Talon,
+ * so switching profiles every time the mode changes is cheap.
+ *
+ * Every manager is also counted in estimateBusLoad(), which estimates how busy the status frames of all of them are keeping the CAN bus.
+ */
+public class StatusFrameManager
+{
+	final private static String TAG = "StatusFrameManager";
+
+	/**
+	 * Bit rate of the roboRIO's CAN bus
+	 */
+	public final static double CAN_BITS_PER_SECOND = 1e6;
+
+	private static final CopyOnWriteArrayList<StatusFrameManager> managers = new CopyOnWriteArrayList<>();
+
+	private final IMotorControllerEnhanced controller;
+
+	// periods last written to the Talon.  Frames not in here are at an unknown rate.
+	private final EnumMap<StatusFrameEnhanced, Integer> writtenPeriods = new EnumMap<>(StatusFrameEnhanced.class);
+
+	private volatile StatusFrameProfile profile = StatusFrameProfile.DEFAULT;
+
+	private int framesWritten;
+
+	public StatusFrameManager(IMotorControllerEnhanced controller)
+	{
+		this.controller = controller;
+		managers.add(this);
+	}
+
+	/**
+	 * Switch the Talon to a profile.  Does nothing if it is already using it.  Never blocks.
+	 */
+	public synchronized void apply(StatusFrameProfile newProfile)
+	{
+		profile = newProfile;
+
+		for(StatusFrameEnhanced frame : StatusFrameProfile.MANAGED_FRAMES)
+		{
+			int period = newProfile.getPeriod(frame);
+
+			Integer writtenPeriod = writtenPeriods.get(frame);
+			if(writtenPeriod != null && writtenPeriod == period)
+			{
+				continue;
+			}
+
+			ErrorCode error = controller.setStatusFramePeriod(frame, period, 0);
+			if(error == ErrorCode.OK)
+			{
+				writtenPeriods.put(frame, period);
+				++framesWritten;
+			}
+			else
+			{
+				Log.recoverable(TAG, "Could not set " + frame + " of device " + controller.getDeviceID() + " to " + period + " ms: " + error);
+			}
+		}
+	}
+
+	/**
+	 * Forget what was written, so the next apply() writes every frame.  Call this if the Talon has reset, since it goes back to
+	 * the default periods.
+	 */
+	public synchronized void invalidate()
+	{
+		writtenPeriods.clear();
+	}
+
+	/**
+	 *
+	 * @return the profile last applied, or StatusFrameProfile.DEFAULT if none has been
+	 */
+	public StatusFrameProfile getProfile()
+	{
+		return profile;
+	}
+
+	/**
+	 *
+	 * @return how many status frame periods have been written to the Talon
+	 */
+	public synchronized int getFramesWritten()
+	{
+		return framesWritten;
+	}
+
+	/**
+	 * Stop counting this manager in estimateBusLoad(), e.g. once its Talon is no longer used.
+	 */
+	public void close()
+	{
+		managers.remove(this);
+	}
+
+	/**
+	 * Estimate the fraction of the CAN bus used by the status frames of every Talon with a manager, with the profile each is using.
+	 *
+	 * This doesn't count control frames, other devices like the PDP and PCM, or Talons without a manager, so the real load is higher.
+	 * Over about .7, frames start getting delayed.
+	 */
+	public static double estimateBusLoad()
+	{
+		double bitsPerSecond = 0;
+		for(StatusFrameManager manager : managers)
+		{
+			bitsPerSecond += manager.profile.getBitsPerSecond();
+		}
+
+		return bitsPerSecond / CAN_BITS_PER_SECOND;
+	}
+}
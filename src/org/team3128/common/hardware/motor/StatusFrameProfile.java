@@ -0,0 +1,171 @@
+package org.team3128.common.hardware.motor;
+
+import java.util.EnumMap;
+
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+
+/**
+ * A set of status frame periods for a Talon SRX, chosen for one way of using it.
+ *
+ * The Talon sends each of its status frames at a fixed rate whether or not anything reads them.  A profile raises the rate of the
+ * frames that the current mode reads, so their data is fresh, and lowers the rest to free up the CAN bus.
+ * Frames a profile doesn't set are left at the firmware's default rate.
+ *
+ * Profiles are immutable.  Use withPeriod() to make a variant of one.
+ */
+public class StatusFrameProfile
+{
+	/**
+	 * The slowest rate a status frame can be set to, in milliseconds.
+	 */
+	public final static int MAX_PERIOD = 255;
+
+	/**
+	 * Bits on the bus per status frame: an extended frame with 8 data bytes, plus typical bit stuffing.
+	 */
+	private final static int BITS_PER_FRAME = 150;
+
+	/**
+	 * The frames which profiles manage.  The others (e.g. the firmware status) are left alone.
+	 */
+	final static StatusFrameEnhanced[] MANAGED_FRAMES = {StatusFrameEnhanced.Status_1_General, StatusFrameEnhanced.Status_2_Feedback0,
+			StatusFrameEnhanced.Status_3_Quadrature, StatusFrameEnhanced.Status_4_AinTempVbat, StatusFrameEnhanced.Status_8_PulseWidth,
+			StatusFrameEnhanced.Status_9_MotProfBuffer, StatusFrameEnhanced.Status_10_MotionMagic, StatusFrameEnhanced.Status_12_Feedback1,
+			StatusFrameEnhanced.Status_13_Base_PIDF0, StatusFrameEnhanced.Status_14_Turn_PIDF1};
+
+	/**
+	 * The firmware's default periods.
+	 */
+	public final static StatusFrameProfile DEFAULT = new StatusFrameProfile("Default")
+			.withPeriod(StatusFrameEnhanced.Status_1_General, 10)
+			.withPeriod(StatusFrameEnhanced.Status_2_Feedback0, 20)
+			.withPeriod(StatusFrameEnhanced.Status_3_Quadrature, 160)
+			.withPeriod(StatusFrameEnhanced.Status_4_AinTempVbat, 160)
+			.withPeriod(StatusFrameEnhanced.Status_8_PulseWidth, 160)
+			.withPeriod(StatusFrameEnhanced.Status_9_MotProfBuffer, 160)
+			.withPeriod(StatusFrameEnhanced.Status_10_MotionMagic, 160)
+			.withPeriod(StatusFrameEnhanced.Status_12_Feedback1, 20)
+			.withPeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, 160)
+			.withPeriod(StatusFrameEnhanced.Status_14_Turn_PIDF1, 160);
+
+	/**
+	 * Driver control: fast position and velocity (for shifting and odometry), slow everything to do with closed loops.
+	 */
+	public final static StatusFrameProfile TELEOP = DEFAULT.named("Teleop")
+			.withPeriod(StatusFrameEnhanced.Status_2_Feedback0, 10)
+			.withPeriod(StatusFrameEnhanced.Status_3_Quadrature, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_4_AinTempVbat, 100)
+			.withPeriod(StatusFrameEnhanced.Status_8_PulseWidth, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_9_MotProfBuffer, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_10_MotionMagic, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_12_Feedback1, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, MAX_PERIOD)
+			.withPeriod(StatusFrameEnhanced.Status_14_Turn_PIDF1, MAX_PERIOD);
+
+	/**
+	 * MotionMagic moves: fast position, profile setpoint and closed loop error.
+	 */
+	public final static StatusFrameProfile MOTION_MAGIC = TELEOP.named("MotionMagic")
+			.withPeriod(StatusFrameEnhanced.Status_10_MotionMagic, 10)
+			.withPeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, 10);
+
+	/**
+	 * Streamed motion profiles: fast position, buffer status and active trajectory point.
+	 */
+	public final static StatusFrameProfile MOTION_PROFILE = TELEOP.named("MotionProfile")
+			.withPeriod(StatusFrameEnhanced.Status_9_MotProfBuffer, 10)
+			.withPeriod(StatusFrameEnhanced.Status_10_MotionMagic, 10)
+			.withPeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, 20);
+
+	/**
+	 * Robot disabled: nothing is driving, so just enough to notice faults and keep an eye on the battery.
+	 */
+	public final static StatusFrameProfile DISABLED = TELEOP.named("Disabled")
+			.withPeriod(StatusFrameEnhanced.Status_1_General, 100)
+			.withPeriod(StatusFrameEnhanced.Status_2_Feedback0, 100)
+			.withPeriod(StatusFrameEnhanced.Status_4_AinTempVbat, MAX_PERIOD);
+
+	private final String name;
+
+	private final EnumMap<StatusFrameEnhanced, Integer> periods;
+
+	/**
+	 * Construct an empty profile, which leaves every frame at its default rate.
+	 */
+	public StatusFrameProfile(String name)
+	{
+		this.name = name;
+		periods = new EnumMap<>(StatusFrameEnhanced.class);
+	}
+
+	private StatusFrameProfile(String name, EnumMap<StatusFrameEnhanced, Integer> periods)
+	{
+		this.name = name;
+		this.periods = periods;
+	}
+
+	/**
+	 * Get a copy of this profile with one frame's period changed.
+	 * @param period in milliseconds, from 1 to MAX_PERIOD
+	 */
+	public StatusFrameProfile withPeriod(StatusFrameEnhanced frame, int period)
+	{
+		if(period < 1 || period > MAX_PERIOD)
+		{
+			throw new IllegalArgumentException("Status frame period must be between 1 and " + MAX_PERIOD + " ms, not " + period);
+		}
+
+		EnumMap<StatusFrameEnhanced, Integer> newPeriods = new EnumMap<>(periods);
+		newPeriods.put(frame, period);
+		return new StatusFrameProfile(name, newPeriods);
+	}
+
+	/**
+	 * Get a copy of this profile with a different name.
+	 */
+	public StatusFrameProfile named(String newName)
+	{
+		return new StatusFrameProfile(newName, periods);
+	}
+
+	/**
+	 *
+	 * @return the period of the frame in milliseconds, or the firmware default if this profile doesn't set it
+	 */
+	public int getPeriod(StatusFrameEnhanced frame)
+	{
+		Integer period = periods.get(frame);
+		if(period == null)
+		{
+			return this == DEFAULT ? MAX_PERIOD : DEFAULT.getPeriod(frame);
+		}
+
+		return period;
+	}
+
+	/**
+	 *
+	 * @return the bits per second one Talon using this profile puts on the bus with its managed status frames
+	 */
+	public double getBitsPerSecond()
+	{
+		double framesPerSecond = 0;
+		for(StatusFrameEnhanced frame : MANAGED_FRAMES)
+		{
+			framesPerSecond += 1000.0 / getPeriod(frame);
+		}
+
+		return framesPerSecond * BITS_PER_FRAME;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "StatusFrameProfile " + name + " " + periods;
+	}
+}
@@ -0,0 +1,258 @@
+package org.team3128.common.hardware.motor;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.team3128.common.util.Constants;
+import org.team3128.common.util.Log;
+import org.team3128.common.util.datatypes.PIDConstants;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.ParamEnum;
+
+/**
+ * Remembers the configuration written to a Talon SRX (or other CAN motor controller), so that writing the same value again
+ * costs nothing.
+ *
+ * Writes that are needed are sent without waiting for the Talon to acknowledge them.  A background thread then sends each one again,
+ * this time waiting for the acknowledgement, and keeps trying until the Talon reports that it took, so callers never block on CAN.
+ * Reading a parameter back can't be trusted, since Phoenix only reports whether a read failed through getLastError(), which
+ * any other call on the same Talon overwrites.  isVerified() says when every write so far has been acknowledged,
+ * which is what to wait for before relying on the new configuration.
+ *
+ * If the Talon resets (e.g. from a brownout), it loses its configuration, so call invalidate() to make sure everything is rewritten.
+ */
+public class TalonConfigCache
+{
+	final private static String TAG = "TalonConfigCache";
+
+	private final static int MAX_ATTEMPTS = 3;
+
+	private static final LinkedBlockingQueue<PendingWrite> verificationQueue = new LinkedBlockingQueue<>();
+
+	private static Thread verifier;
+
+	private final IMotorControllerParameters device;
+
+	// last value written of each parameter, keyed by parameter and ordinal
+	private final HashMap<Integer, Double> values = new HashMap<>();
+
+	private final AtomicInteger pendingVerifications = new AtomicInteger();
+
+	private volatile long writesIssued, writesSkipped, verificationFailures;
+
+	/**
+	 * A write waiting to be acknowledged
+	 */
+	private static class PendingWrite
+	{
+		final TalonConfigCache cache;
+		final ParamEnum parameter;
+		final int ordinal;
+		final double value;
+		int attempts = 0;
+
+		PendingWrite(TalonConfigCache cache, ParamEnum parameter, int ordinal, double value)
+		{
+			this.cache = cache;
+			this.parameter = parameter;
+			this.ordinal = ordinal;
+			this.value = value;
+		}
+	}
+
+	public TalonConfigCache(IMotorControllerParameters device)
+	{
+		this.device = device;
+	}
+
+	/**
+	 * Write a parameter, unless it was already written with the same value.  Never blocks.
+	 * @param ordinal which one of the parameter, e.g. the profile slot for gains.  0 for most parameters.
+	 * @return true if a write was sent
+	 */
+	public boolean set(ParamEnum parameter, int ordinal, double value)
+	{
+		Integer key = getKey(parameter, ordinal);
+
+		synchronized(this)
+		{
+			Double lastValue = values.get(key);
+			if(lastValue != null && lastValue == value)
+			{
+				++writesSkipped;
+				return false;
+			}
+
+			values.put(key, value);
+			++writesIssued;
+		}
+
+		ErrorCode error = device.setParameter(parameter, value, ordinal, 0);
+		if(error != ErrorCode.OK)
+		{
+			Log.recoverable(TAG, "Could not send " + parameter + " to device " + device.getDeviceID() + ": " + error);
+		}
+
+		pendingVerifications.incrementAndGet();
+		queueVerification(new PendingWrite(this, parameter, ordinal, value));
+
+		return true;
+	}
+
+	/**
+	 * @param cruiseVelocity MotionMagic cruise velocity, in native units per 100 ms
+	 */
+	public boolean configMotionCruiseVelocity(int cruiseVelocity)
+	{
+		return set(ParamEnum.eMotMag_VelCruise, 0, cruiseVelocity);
+	}
+
+	/**
+	 * @param acceleration MotionMagic acceleration, in native units per 100 ms per second
+	 */
+	public boolean configMotionAcceleration(int acceleration)
+	{
+		return set(ParamEnum.eMotMag_Accel, 0, acceleration);
+	}
+
+	/**
+	 * Write the gains of a profile slot.
+	 * @return true if any of them were sent
+	 */
+	public boolean configGains(int slot, PIDConstants constants)
+	{
+		boolean wrote = set(ParamEnum.eProfileParamSlot_P, slot, constants.getkP());
+		wrote |= set(ParamEnum.eProfileParamSlot_I, slot, constants.getkI());
+		wrote |= set(ParamEnum.eProfileParamSlot_D, slot, constants.getkD());
+		wrote |= set(ParamEnum.eProfileParamSlot_F, slot, constants.getkF());
+
+		return wrote;
+	}
+
+	/**
+	 * Forget every value written, so the next set() of each parameter is sent even if it is the same.
+	 */
+	public synchronized void invalidate()
+	{
+		values.clear();
+	}
+
+	/**
+	 *
+	 * @return true if every write so far has been acknowledged by the device
+	 */
+	public boolean isVerified()
+	{
+		return pendingVerifications.get() == 0;
+	}
+
+	/**
+	 *
+	 * @return how many writes were sent
+	 */
+	public long getWritesIssued()
+	{
+		return writesIssued;
+	}
+
+	/**
+	 *
+	 * @return how many writes were skipped because the value was already written
+	 */
+	public long getWritesSkipped()
+	{
+		return writesSkipped;
+	}
+
+	/**
+	 *
+	 * @return how many writes could not be confirmed after retrying
+	 */
+	public long getVerificationFailures()
+	{
+		return verificationFailures;
+	}
+
+	private static Integer getKey(ParamEnum parameter, int ordinal)
+	{
+		return parameter.value * 256 + ordinal;
+	}
+
+	private static synchronized void queueVerification(PendingWrite write)
+	{
+		// in order, so that the last value written to a parameter is also the last one confirmed
+		verificationQueue.add(write);
+
+		if(verifier == null)
+		{
+			verifier = new Thread(TalonConfigCache::runVerifier, "TalonConfigCache Verifier");
+			verifier.setDaemon(true);
+			verifier.setPriority(Thread.MIN_PRIORITY);
+			verifier.start();
+		}
+	}
+
+	private static void runVerifier()
+	{
+		while(true)
+		{
+			PendingWrite write;
+			try
+			{
+				write = verificationQueue.take();
+			}
+			catch(InterruptedException e)
+			{
+				return;
+			}
+
+			write.cache.verify(write);
+		}
+	}
+
+	/**
+	 * Send a write again and wait for the acknowledgement, and retry it if there isn't one.  Run on the verifier thread.
+	 */
+	private void verify(PendingWrite write)
+	{
+		synchronized(this)
+		{
+			Double currentValue = values.get(getKey(write.parameter, write.ordinal));
+			if(currentValue == null || currentValue != write.value)
+			{
+				// a newer write of this parameter has its own verification, or the cache was invalidated
+				pendingVerifications.decrementAndGet();
+				return;
+			}
+		}
+
+		++write.attempts;
+
+		ErrorCode error = device.setParameter(write.parameter, write.value, write.ordinal, Constants.CAN_TIMEOUT);
+		if(error == ErrorCode.OK)
+		{
+			pendingVerifications.decrementAndGet();
+			return;
+		}
+
+		if(write.attempts >= MAX_ATTEMPTS)
+		{
+			Log.recoverable(TAG, "Device " + device.getDeviceID() + " did not take " + write.parameter + " = " + write.value + " after "
+					+ MAX_ATTEMPTS + " attempts: " + error);
+
+			synchronized(this)
+			{
+				// so the next set() tries again
+				values.remove(getKey(write.parameter, write.ordinal));
+				++verificationFailures;
+			}
+
+			pendingVerifications.decrementAndGet();
+			return;
+		}
+
+		queueVerification(write);
+	}
+}
@@ -1,23 +1,35 @@
 package org.team3128.common.hardware.motor.limiter;
 
 import org.team3128.common.hardware.motor.Limiter;
-import org.team3128.common.util.Log;
+import org.team3128.common.hardware.power.IPowerDistribution;
+import org.team3128.common.hardware.power.PowerDistributionSampler;
 
 import edu.wpi.first.wpilibj.PowerDistributionPanel;
 
 /**
  * Motor control which moves the motor in a certain direction until its current spikes, which
  * (hopefully) means that it has hit the end of its travel.
+ * 
+ * Once the current has been over the threshold for 3 samples in a row, the motor stays stopped until the limiter is reset,
+ * even though the current drops as soon as it stops.  The MotorLogic resets its limiters when it is reset, which
+ * MotorGroup.startControl() does, so starting the next move releases it.  When reading through a PowerDistributionSampler, only new samples
+ * are counted, so a control loop which runs faster than the sampler doesn't count the same sample more than once.
  */
 
 public class CurrentCutoffLimiter extends Limiter
 {
     private int _motorChannel;
-    private PowerDistributionPanel _panel;
+    private IPowerDistribution _panel;
     
     private double _currentThreshold;
         
     private int consecutiveOvercurrents = 0;
+    
+    // can be cleared by reset() from another thread
+    private volatile boolean tripped = false;
+    
+    // the sampler's sample count when the current was last checked, or -1 if the panel isn't a sampler
+    private long lastSampleCount = -1;
 
     /**
      * 
@@ -27,17 +39,40 @@ public class CurrentCutoffLimiter extends Limiter
      * for each individual motor.
      * @param refreshMillis
      */
-    public CurrentCutoffLimiter(PowerDistributionPanel panel, int motorChannel, double currentThreshold, int refreshMillis)
+    public CurrentCutoffLimiter(IPowerDistribution panel, int motorChannel, double currentThreshold, int refreshMillis)
     {
     	_panel = panel;
     	_motorChannel = motorChannel;
     	_currentThreshold = currentThreshold;
     }
 
+    /**
+     * Construct a limiter which reads the PDP through its shared PowerDistributionSampler.
+     */
+    public CurrentCutoffLimiter(PowerDistributionPanel panel, int motorChannel, double currentThreshold, int refreshMillis)
+    {
+    	this(PowerDistributionSampler.forPanel(panel), motorChannel, currentThreshold, refreshMillis);
+    }
+
     @Override
     public boolean canMove(double speed)
     {
-    	Log.debug("CurrentTarget", "motor current: " + _panel.getCurrent(_motorChannel));
+    	if(tripped)
+    	{
+    		return false;
+    	}
+    	
+    	if(_panel instanceof PowerDistributionSampler)
+    	{
+    		long sampleCount = ((PowerDistributionSampler)_panel).getSampleCount();
+    		if(sampleCount == lastSampleCount)
+    		{
+    			// nothing new to count
+    			return true;
+    		}
+    		lastSampleCount = sampleCount;
+    	}
+    	
         if(_panel.getCurrent(_motorChannel) > _currentThreshold)
         {
         	++consecutiveOvercurrents;
@@ -49,15 +84,20 @@ public class CurrentCutoffLimiter extends Limiter
         
         if(consecutiveOvercurrents >= 3)
         {
-        	return true;
+        	tripped = true;
+        	return false;
         }
-        return false;
+        return true;
     }
 
+    /**
+     * Let the motor move again after the current has tripped the limiter.
+     */
     @Override
     public void reset()
     {
     	consecutiveOvercurrents = 0;
+    	tripped = false;
     }
 
     
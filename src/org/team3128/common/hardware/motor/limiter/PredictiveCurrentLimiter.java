@@ -0,0 +1,270 @@
+package org.team3128.common.hardware.motor.limiter;
+
+import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
+import org.team3128.common.hardware.motor.DCMotor;
+import org.team3128.common.hardware.motor.Limiter;
+import org.team3128.common.hardware.motor.MotorGroup;
+import org.team3128.common.hardware.power.IPowerDistribution;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.units.Angle;
+
+/**
+ * Limiter which keeps a motor's current under a limit by predicting it, instead of waiting for the PDP to see it.
+ *
+ * Every step, the current that the new power would draw is estimated from the battery voltage, the encoder speed and a model of the motor.
+ * If it would be over the limit, the power is reduced to the most that stays under it.  Since the estimate uses the
+ * power about to be set, the output is clamped before the spike happens, not three slow PDP readings after.
+ *
+ * The power is only ever reduced towards zero, never pushed past it.  This means the braking current of a motor controller
+ * in brake mode is not limited, but it is not drawn from the battery either.
+ *
+ * The power is turned into a voltage the same way the MotorGroup does when it sends it, so call setMotorGroup() if the group has
+ * a speed scalar or voltage compensation, or is shed by a BrownoutGuard.
+ *
+ * If PDP channels are given, their readings are used to slowly correct the model for things it doesn't know about,
+ * like friction, worn motors, or wiring resistance.  They are never used to make the limiting decision directly.
+ * The PDP measures the current drawn from the battery, which is the motor current times the duty cycle, so the model's
+ * current is scaled by the duty cycle before the two are compared.
+ */
+public class PredictiveCurrentLimiter extends Limiter
+{
+	// how much of each new estimate goes into the estimate that is compared against the lagging PDP, per update
+	private final static double ESTIMATE_LAG_GAIN = .25;
+
+	// how much of each new PDP comparison goes into the correction, per update
+	private final static double CORRECTION_GAIN = .02;
+
+	private final static double MIN_CORRECTION = .5, MAX_CORRECTION = 2;
+
+	// the model is only corrected near the limit, which is where it matters.  At low currents small errors in the
+	// back-EMF would make the ratio meaningless.
+	private final static double MIN_CORRECTION_FRACTION = .5;
+
+	// supply current below which the PDP reading is too coarse to compare, in amps.  At low duty cycles the motor current can be
+	// near the limit while the battery barely supplies anything.
+	private final static double MIN_CORRECTION_SUPPLY_CURRENT = 5;
+
+	private final DCMotor motor;
+
+	private final double gearing;
+
+	private final IVelocityEncoder encoder;
+
+	private double currentLimit;
+
+	private IPowerDistribution powerDistribution;
+
+	private int[] channels = new int[0];
+
+	private MotorGroup motorGroup;
+
+	// owned by the control thread
+	private double laggedEstimate, laggedSupplyEstimate;
+
+	private volatile double correction = 1;
+
+	private volatile double estimatedCurrent;
+
+	/**
+	 * @param motor model of the motors in the gearbox, e.g. DCMotor.CIM.withMotors(2)
+	 * @param gearing motor rotations per encoder rotation
+	 * @param encoder encoder measuring the gearbox's speed
+	 * @param currentLimit maximum total current the motors should draw, in amps
+	 */
+	public PredictiveCurrentLimiter(DCMotor motor, double gearing, IVelocityEncoder encoder, double currentLimit)
+	{
+		if(gearing == 0)
+		{
+			throw new IllegalArgumentException("Gearing cannot be zero");
+		}
+
+		this.motor = motor;
+		this.gearing = gearing;
+		this.encoder = encoder;
+
+		setCurrentLimit(currentLimit);
+	}
+
+	/**
+	 * @param currentLimit maximum total current the motors should draw, in amps
+	 */
+	public void setCurrentLimit(double currentLimit)
+	{
+		if(currentLimit <= 0)
+		{
+			throw new IllegalArgumentException("Current limit must be positive");
+		}
+
+		this.currentLimit = currentLimit;
+	}
+
+	/**
+	 * Read the battery voltage from a power distribution source, and optionally correct the model with the current on some of its channels.
+	 * Without this, the battery is assumed to be at the motor's nominal voltage.
+	 *
+	 * @param source where to read from.  A PowerDistributionSampler is recommended, since this is read every step.
+	 * @param motorChannels the channels the motors are plugged into.  Their currents are added together.
+	 */
+	public void setPowerDistribution(IPowerDistribution source, int... motorChannels)
+	{
+		powerDistribution = source;
+		channels = motorChannels.clone();
+	}
+
+	/**
+	 * Convert power to voltage the same way as the given MotorGroup, which should be the one this limits.  Without it,
+	 * a power of 1 is assumed to be the full battery voltage.
+	 */
+	public void setMotorGroup(MotorGroup group)
+	{
+		motorGroup = group;
+	}
+
+	/**
+	 * Check whether the power is within the limit, without updating the model's correction.
+	 */
+	@Override
+	public boolean canMove(double power)
+	{
+		double busVoltage = getBusVoltage();
+		return limitPower(power, getMotorSpeed(), busVoltage, getVoltsPerPower(busVoltage)) == power;
+	}
+
+	@Override
+	public double limit(double power)
+	{
+		double busVoltage = getBusVoltage();
+		double voltsPerPower = getVoltsPerPower(busVoltage);
+		double motorSpeed = getMotorSpeed();
+
+		double limitedPower = limitPower(power, motorSpeed, busVoltage, voltsPerPower);
+
+		// the motors can't get more than the battery's voltage
+		double appliedVoltage = RobotMath.clamp(limitedPower * voltsPerPower, -busVoltage, busVoltage);
+
+		double estimate = correction * motor.getCurrent(motorSpeed, appliedVoltage);
+		estimatedCurrent = estimate;
+
+		updateCorrection(estimate, Math.min(1, Math.abs(appliedVoltage) / busVoltage));
+
+		return limitedPower;
+	}
+
+	/**
+	 * Work out the largest power towards the requested one which keeps the current within the limit.
+	 */
+	private double limitPower(double power, double motorSpeed, double busVoltage, double voltsPerPower)
+	{
+		if(voltsPerPower <= 0)
+		{
+			// nothing reaches the motors
+			return power;
+		}
+
+		double backEMF = motorSpeed / motor.kV;
+
+		// the range of powers that keep the current within the limit, from I = correction * (power * voltsPerPower - EMF) / R
+		double allowedVoltage = currentLimit * motor.resistance / correction;
+		double maxPower = (backEMF + allowedVoltage) / voltsPerPower;
+		double minPower = (backEMF - allowedVoltage) / voltsPerPower;
+
+		// only ever reduce the power towards zero
+		if(power > 0)
+		{
+			return RobotMath.clamp(maxPower, 0, power);
+		}
+		else if(power < 0)
+		{
+			return RobotMath.clamp(minPower, power, 0);
+		}
+
+		return power;
+	}
+
+	private double getBusVoltage()
+	{
+		if(powerDistribution != null)
+		{
+			double measuredVoltage = powerDistribution.getVoltage();
+
+			// no reading yet
+			if(measuredVoltage > 0)
+			{
+				return measuredVoltage;
+			}
+		}
+
+		return motor.nominalVoltage;
+	}
+
+	private double getVoltsPerPower(double busVoltage)
+	{
+		MotorGroup group = motorGroup;
+		return group == null ? busVoltage : group.getVoltsPerPower(busVoltage);
+	}
+
+	private double getMotorSpeed()
+	{
+		return encoder.getAngularSpeed() / Angle.RADIANS * gearing;
+	}
+
+	/**
+	 * Compare the model against the PDP, and nudge the correction towards what the PDP says.
+	 * @param estimate the estimated motor current
+	 * @param duty the fraction of the battery voltage applied to the motors
+	 */
+	private void updateCorrection(double estimate, double duty)
+	{
+		if(powerDistribution == null || channels.length == 0)
+		{
+			return;
+		}
+
+		// the PDP only reports magnitudes, and lags behind the real current
+		laggedEstimate += (Math.abs(estimate) - laggedEstimate) * ESTIMATE_LAG_GAIN;
+		laggedSupplyEstimate += (Math.abs(estimate) * duty - laggedSupplyEstimate) * ESTIMATE_LAG_GAIN;
+
+		if(laggedEstimate < currentLimit * MIN_CORRECTION_FRACTION || laggedSupplyEstimate < MIN_CORRECTION_SUPPLY_CURRENT)
+		{
+			return;
+		}
+
+		double measuredCurrent = 0;
+		for(int channel : channels)
+		{
+			measuredCurrent += powerDistribution.getCurrent(channel);
+		}
+
+		// the lagged estimate already includes the current correction, so this is how far off it still is
+		double error = measuredCurrent / laggedSupplyEstimate;
+		correction = RobotMath.clamp(correction * (1 + (error - 1) * CORRECTION_GAIN), MIN_CORRECTION, MAX_CORRECTION);
+	}
+
+	/**
+	 *
+	 * @return the current estimated at the last step, in amps, including the correction.  Negative when braking.
+	 */
+	public double getEstimatedCurrent()
+	{
+		return estimatedCurrent;
+	}
+
+	/**
+	 *
+	 * @return what the model's current is multiplied by to match the PDP.  1 if there is no correction.
+	 */
+	public double getCorrection()
+	{
+		return correction;
+	}
+
+	/**
+	 * Forget the lagged estimate.  The correction is kept, since it describes the motor, not what it was doing.
+	 */
+	@Override
+	public void reset()
+	{
+		laggedEstimate = 0;
+		laggedSupplyEstimate = 0;
+	}
+}
@@ -1,9 +1,13 @@
 package org.team3128.common.hardware.motor.logic;
 
+import java.util.function.DoubleSupplier;
+
 import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
 import org.team3128.common.hardware.motor.MotorLogic;
-import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.control.FeedforwardModel;
+import org.team3128.common.util.control.GainSchedule;
+import org.team3128.common.util.control.PIDLoop;
 
 /**
  * Motor control which steers the motor to an angle using an encoder.
@@ -13,26 +17,29 @@ import org.team3128.common.util.RobotMath;
 
 public class AbsolutePIDAngleLogic extends MotorLogic
 {
+    /**
+     * kI is given per step of this many milliseconds, which is how long the steps were when the integral was a plain sum
+     */
+    final private static double KI_STEP_TIME = 10;
+    
     private double targetAngle, threshold;
     private IDistanceEncoder _encoder;
     
     private int consecutiveCorrectPositions = 0;
     
     boolean _stopWhenDone;
-    double kP;
-    double kI;
-    double kD;
     
-    double errorSum = 0;
-    double prevError = 0;
+    PIDLoop pid;
     
-    boolean _log;
+    volatile FeedforwardModel feedforward;
     
-    final static double errorLimit = 100000;
+    boolean _log;
     
     /**
      * 
      * @param kP constant of pid
+     * @param kI integral constant, per 10 ms step of error like it has always been.  The loop integrates over milliseconds,
+     *  so it is divided by 10 to keep tuned gains the same.
      * @param threshold acceptable error in degrees
      * @param stopWhenDone whether to stop controlling the motor when it's reached its target
      * @param encoder
@@ -41,53 +48,62 @@ public class AbsolutePIDAngleLogic extends MotorLogic
     {
     	_refreshTime = 10;
         
-        this.kP = kP;
-        this.kI = kI;
-        this.kD = kD;
-        
         _log = log;
         
         this.threshold = threshold;
         _encoder = encoder;
         
+        // the integral used to be a sum of the error at each step, so convert kI to per millisecond
+        pid = new PIDLoop(kP, kI / KI_STEP_TIME, kD, 0);
+        pid.setOutputLimits(-1, 1);
+        if(encoder.canRevolveMultipleTimes())
+        {
+        	pid.setContinuousInput(360);
+        }
+        
         _stopWhenDone = stopWhenDone;
     }
 
+    /**
+     * Look up the PID gains from a gain schedule instead of using the ones passed to the constructor.
+     * The scheduled kI is per 10 ms step of error, like the constructor's.
+     * @param operatingPoint gives the value to look the gains up at, e.g. the load on the arm.  Called from the control thread.
+     */
+    public void setGainSchedule(GainSchedule schedule, DoubleSupplier operatingPoint)
+    {
+        pid.setGainSchedule(schedule.scaleIntegral(1 / KI_STEP_TIME), operatingPoint);
+    }
+
+    /**
+     * Add the static friction output (kS) of a feedforward model in the direction of the error, so that
+     * the PID doesn't have to wind up to get the mechanism moving.  There is no velocity target, so kV and kA are not used.
+     * Pass null to stop using one.
+     */
+    public void setFeedforward(FeedforwardModel feedforward)
+    {
+        this.feedforward = feedforward;
+    }
+
     /**
      * sets degree value to move to
      */
     @Override
-    public synchronized void setControlTarget(double val)
+    protected void applyControlTarget(double val)
     {
         this.targetAngle = val;
         
         //reset error
-        errorSum = 0;
+        pid.resetIntegral();
     }
 
     @Override
     public double speedControlStep(double dt)
     {
-    	double angle = _encoder.getAngle();
-    	
-    	double error = RobotMath.angleDistance(angle, this.targetAngle, _encoder.canRevolveMultipleTimes());
-    	    	
-    	errorSum += error;
-    	
-    	if(errorSum > errorLimit)
-    	{
-    		Log.unusual("PIDAngleTarget", "I error sum of " + errorSum + " went over limit of " + errorLimit);
-    		//errorSum = errorLimit;
-    	}
-    	else if(errorSum < -errorLimit)
-    	{
-    		Log.unusual("PIDAngleTarget", "I error sum of " + errorSum + " went under limit of " + -errorLimit);
-    		//errorSum = -errorLimit;
-    	}
+    	double angle = RobotMath.normalizeAngle(_encoder.getAngle());
     	
-        double output = error * kP + errorSum * kI + kD * (error - prevError) / dt;
+        double output = pid.update(RobotMath.normalizeAngle(this.targetAngle), angle, dt);
         
-        prevError = error;
+        double error = pid.getError();
         
        	if(_log)
     	{
@@ -101,13 +117,19 @@ public class AbsolutePIDAngleLogic extends MotorLogic
         }
         consecutiveCorrectPositions = 0;
         
-        return RobotMath.clampPosNeg1(output);
+        FeedforwardModel model = feedforward;
+        if(model != null)
+        {
+        	output = RobotMath.clampPosNeg1(output + model.getStaticOutput(error));
+        }
+        
+        return output;
     }
 
     @Override
-    public synchronized void reset()
+    protected void resetState()
     {
-    	errorSum = 0;
+    	pid.reset();
     	consecutiveCorrectPositions = 0;
     	
     	targetAngle = 0;
@@ -22,7 +22,7 @@ public class BlankSpeedLogic extends MotorLogic
     }
    
     @Override
-    public synchronized void setControlTarget(double d)
+    protected void applyControlTarget(double d)
     {
     	tgtSpeed = d;
     }
@@ -34,7 +34,7 @@ public class BlankSpeedLogic extends MotorLogic
     }
    
     @Override
-    public synchronized void reset()
+    protected void resetState()
     {
     	this.tgtSpeed = 0;
     }
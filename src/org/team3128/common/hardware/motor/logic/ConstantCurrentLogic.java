@@ -1,6 +1,8 @@
 package org.team3128.common.hardware.motor.logic;
 
 import org.team3128.common.hardware.motor.MotorLogic;
+import org.team3128.common.hardware.power.IPowerDistribution;
+import org.team3128.common.hardware.power.PowerDistributionSampler;
 import org.team3128.common.util.VelocityPID;
 import org.team3128.common.util.datatypes.PIDConstants;
 
@@ -14,7 +16,7 @@ import edu.wpi.first.wpilibj.PowerDistributionPanel;
  */
 public class ConstantCurrentLogic extends MotorLogic
 {
-	private PowerDistributionPanel panel;
+	private IPowerDistribution panel;
 	private int motorPort;
 	
 	//the calculation for this is pretty much the same as velocity PID.
@@ -26,18 +28,28 @@ public class ConstantCurrentLogic extends MotorLogic
      * @param panel PDP object to use
      * @param motorPort the port number that the motor is in on the PDP.
      */
-    public ConstantCurrentLogic(PowerDistributionPanel panel, int motorPort, PIDConstants pidConstants, double feedForward)
+    public ConstantCurrentLogic(IPowerDistribution panel, int motorPort, PIDConstants pidConstants, double feedForward)
     {
         this.panel = panel;
         this.motorPort = motorPort;
         pidCalc = new VelocityPID(pidConstants);
     }
+    
+    /**
+     * Construct ConstantCurrentLogic, reading the PDP through its shared PowerDistributionSampler
+     * @param panel PDP object to use
+     * @param motorPort the port number that the motor is in on the PDP.
+     */
+    public ConstantCurrentLogic(PowerDistributionPanel panel, int motorPort, PIDConstants pidConstants, double feedForward)
+    {
+        this(PowerDistributionSampler.forPanel(panel), motorPort, pidConstants, feedForward);
+    }
    
     @Override
     /**
      * Set the current to target in amps.
      */
-    public synchronized void setControlTarget(double d)
+    protected void applyControlTarget(double d)
     {
     	pidCalc.setDesiredVelocity(d);
     	
@@ -53,7 +65,7 @@ public class ConstantCurrentLogic extends MotorLogic
     }
    
     @Override
-    public synchronized void reset()
+    protected void resetState()
     {
     	pidCalc.setDesiredVelocity(0);
     	pidCalc.resetIntegral();
@@ -1,10 +1,15 @@
 package org.team3128.common.hardware.motor.logic;
 
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+
 import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
 import org.team3128.common.hardware.motor.MotorLogic;
-import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
 import org.team3128.common.util.VelocityPID;
+import org.team3128.common.util.control.FeedforwardModel;
+import org.team3128.common.util.control.GainSchedule;
+import org.team3128.common.util.control.TraceWriter;
 import org.team3128.common.util.datatypes.PIDConstants;
 
 /*        _
@@ -38,6 +43,9 @@ public class PIDSpeedLogic extends MotorLogic
      */
     protected double _targetSpeed;
     
+    // speed and acceleration posted together by setControlTarget(speed, acceleration), until the control thread takes them
+    private final AtomicReference<double[]> pendingProfilePoint = new AtomicReference<>();
+    
 
     /**
      *
@@ -68,12 +76,71 @@ public class PIDSpeedLogic extends MotorLogic
         _pidCalculator = pidCalc;
     }
    
+    /**
+     * Look up the PID gains from a gain schedule instead of the PIDConstants,
+     * e.g. to use different gains in each gear of a TwoSpeedGearshift.
+     * @param operatingPoint gives the value to look the gains up at.  Called from the control thread.
+     */
+    public void setGainSchedule(GainSchedule schedule, DoubleSupplier operatingPoint)
+    {
+        _pidCalculator.setGainSchedule(schedule, operatingPoint);
+    }
+   
+    /**
+     * Calculate most of the output from a model of the mechanism, so the PID only has to correct the model's error.
+     * This makes the speed settle much faster, so the logic can also be run less often.
+     * The model's velocity is in the same units as the target speed.  Pass null to stop using one.
+     * Its kA term is only used with targets set by setControlTarget(speed, acceleration).
+     */
+    public void setFeedforward(FeedforwardModel feedforward)
+    {
+        _pidCalculator.setFeedforward(feedforward);
+    }
+   
+    /**
+     * Record the speed, error and output on every step, and write them to a CSV file.
+     * Logics with the same name share one trace.
+     * @param name name of the trace, and its file
+     * @see TraceWriter
+     */
+    public void enableLogging(String name)
+    {
+        _pidCalculator.setTrace(TraceWriter.getTrace("PIDSpeedLogic " + name));
+    }
+   
+    /**
+     * Set the target speed along with how fast it is changing, e.g. when following a motion profile, so that the
+     * feedforward model's kA term is used.  Like setControlTarget(), this never blocks.
+     * Targets set any other way, like through MotorGroup.setTarget(), have an acceleration of 0.
+     * @param speed target speed in rpm
+     * @param acceleration in rpm per second, or whatever units the feedforward model uses
+     */
+    public void setControlTarget(double speed, double acceleration)
+    {
+        pendingProfilePoint.set(new double[]{speed, acceleration});
+        setControlTarget(speed);
+    }
+   
     @Override
-    public synchronized void setControlTarget(double d)
+    protected void applyControlTarget(double d)
     {
+        // only use the acceleration if it was posted with this target
+        double acceleration = 0;
+        double[] profilePoint = pendingProfilePoint.get();
+        if(profilePoint != null)
+        {
+        	if(profilePoint[0] == d)
+        	{
+        		acceleration = profilePoint[1];
+        	}
+        	
+        	// unless a newer one has been posted since
+        	pendingProfilePoint.compareAndSet(profilePoint, null);
+        }
+        
         _pidCalculator.resetIntegral();
         _targetSpeed = d;
-    	_pidCalculator.setDesiredVelocity(d);
+    	_pidCalculator.setDesiredVelocity(d, acceleration);
     }
 
     @Override
@@ -88,16 +155,13 @@ public class PIDSpeedLogic extends MotorLogic
         
         double output = RobotMath.clampPosNeg1(_pidCalculator.getOutput());
         
-        Log.debug("PIDSpeedLogic", "Current RPM: " + speed + " Output: " + output);
-        
-        
         return output;
     }
    
     @Override
-    public synchronized void reset()
+    protected void resetState()
     {
-        setControlTarget(0);
+        applyControlTarget(0);
         _pidCalculator.resetIntegral();
     }
 
@@ -0,0 +1,169 @@
+package org.team3128.common.hardware.motor.logic;
+
+import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
+import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
+import org.team3128.common.hardware.motor.MotorLogic;
+import org.team3128.common.util.Log;
+import org.team3128.common.util.control.RelayAutotuner;
+import org.team3128.common.util.control.RelayAutotuner.TuningRule;
+import org.team3128.common.util.datatypes.PIDConstants;
+
+/**
+ * Motor control which runs a relay autotuning experiment on the motor, then stops.
+ *
+ * Start it with MotorGroup.startControl(), passing the speed or angle to tune around.
+ * Once isComplete() returns true (and the MotorGroup stops running it), the tuned
+ * constants can be read with getConstants().  Those gains are for a textbook PID working in milliseconds,
+ * which none of the PID MotorLogics are exactly, so use getAngleLogicConstants() or getSpeedLogicConstants()
+ * to get gains that can be given straight to them.
+ *
+ * @see RelayAutotuner
+ */
+public class RelayAutotuneLogic extends MotorLogic
+{
+	final private static String TAG = "RelayAutotuneLogic";
+
+	private IVelocityEncoder velocityEncoder;
+	private IDistanceEncoder distanceEncoder;
+
+	private RelayAutotuner tuner;
+
+	// time since the experiment started, in milliseconds.  Added up from each step's dt, so a simulation can step it faster than real time.
+	private double elapsedTime;
+
+	private boolean reported;
+
+	/**
+	 * Tune a speed controller.
+	 * @param encoder the encoder to measure speed with
+	 * @param bias motor power which roughly holds the target speed
+	 * @param amplitude how far above and below the bias the motor power is switched
+	 * @param hysteresis how many degrees per second of noise to ignore
+	 */
+	public RelayAutotuneLogic(IVelocityEncoder encoder, double bias, double amplitude, double hysteresis)
+	{
+		velocityEncoder = encoder;
+		tuner = new RelayAutotuner(0, bias, amplitude, hysteresis);
+
+		_refreshTime = 10;
+	}
+
+	/**
+	 * Tune a position controller.
+	 * @param encoder the encoder to measure angle with
+	 * @param bias motor power which roughly holds the mechanism still (e.g. to counter gravity)
+	 * @param amplitude how far above and below the bias the motor power is switched
+	 * @param hysteresis how many degrees of noise to ignore
+	 */
+	public RelayAutotuneLogic(IDistanceEncoder encoder, double bias, double amplitude, double hysteresis)
+	{
+		distanceEncoder = encoder;
+		tuner = new RelayAutotuner(0, bias, amplitude, hysteresis);
+
+		_refreshTime = 10;
+	}
+
+	/**
+	 * Get the underlying tuner, to change how many cycles it measures or its timeout.
+	 */
+	public RelayAutotuner getTuner()
+	{
+		return tuner;
+	}
+
+	/**
+	 * Sets the speed or angle to tune around, and starts a new experiment.
+	 */
+	@Override
+	protected void applyControlTarget(double val)
+	{
+		tuner.restart(val);
+		elapsedTime = 0;
+		reported = false;
+	}
+
+	@Override
+	public double speedControlStep(double dt)
+	{
+		double measurement = velocityEncoder != null ? velocityEncoder.getAngularSpeed() : distanceEncoder.getAngle();
+
+		elapsedTime += dt;
+		double output = tuner.update(measurement, elapsedTime);
+
+		if(tuner.isFinished() && !reported)
+		{
+			reported = true;
+
+			if(tuner.hasFailed())
+			{
+				Log.recoverable(TAG, "Autotuning failed: the motor did not oscillate steadily around the target.");
+			}
+			else
+			{
+				Log.info(TAG, "Autotuning done. Ku: " + tuner.getUltimateGain() + " Tu: " + tuner.getUltimatePeriod() + " ms");
+			}
+		}
+
+		return output;
+	}
+
+	/**
+	 * Does not clear the results, so that they can still be read after the motor has been stopped.
+	 */
+	@Override
+	protected void resetState()
+	{
+
+	}
+
+	@Override
+	public boolean isComplete()
+	{
+		return tuner.isFinished();
+	}
+
+	/**
+	 *
+	 * @return the tuned constants, or null if tuning has not succeeded.
+	 */
+	public PIDConstants getConstants(TuningRule rule)
+	{
+		return tuner.getConstants(rule);
+	}
+
+	/**
+	 * Get the tuned constants in the units AbsolutePIDAngleLogic and RelativePIDAngleLogic take: kI per 10 ms step of error,
+	 * and kP and kD per millisecond like the tuner's.
+	 * @return the constants, or null if tuning has not succeeded.
+	 */
+	public PIDConstants getAngleLogicConstants(TuningRule rule)
+	{
+		PIDConstants constants = tuner.getConstants(rule);
+		if(constants == null)
+		{
+			return null;
+		}
+
+		return new PIDConstants(constants.getkP(), constants.getkI() * 10, constants.getkD(), 0);
+	}
+
+	/**
+	 * Get the tuned constants in the units PIDSpeedLogic takes.
+	 *
+	 * Its VelocityPID adds the PID result on to its output every update, so its kD acts as the proportional gain,
+	 * and its kP as the integral gain per update.  There is nothing that acts as a derivative, so the tuned kD is dropped;
+	 * use a PI rule.
+	 * @param refreshTime the PIDSpeedLogic's refresh time, in milliseconds
+	 * @return the constants, or null if tuning has not succeeded.
+	 */
+	public PIDConstants getSpeedLogicConstants(TuningRule rule, double refreshTime)
+	{
+		PIDConstants constants = tuner.getConstants(rule);
+		if(constants == null)
+		{
+			return null;
+		}
+
+		return new PIDConstants(constants.getkI() * refreshTime, 0, constants.getkP(), 0);
+	}
+}
@@ -0,0 +1,260 @@
+package org.team3128.common.hardware.motor.logic;
+
+import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
+import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
+import org.team3128.common.hardware.motor.CTREClosedLoopMotorController;
+import org.team3128.common.hardware.motor.IClosedLoopMotorController;
+import org.team3128.common.hardware.motor.MotorLogic;
+import org.team3128.common.util.Log;
+import org.team3128.common.util.datatypes.PIDConstants;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.IMotorControllerEnhanced;
+
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Motor control which runs the closed loop on a Talon SRX (or other IClosedLoopMotorController) instead of the roboRIO.
+ *
+ * The Talon runs its loop at 1 kHz in firmware.  This logic just sends it the gains and targets, and reads back
+ * its output and error, so each step is a couple of status reads instead of a PID calculation.
+ *
+ * Targets are in degrees for Position and MotionMagic modes, and degrees per second for Velocity mode, the same as
+ * the roboRIO logics.  The gains are the Talon's own, though, which are scaled differently from the roboRIO logics' gains.
+ *
+ * Limiters still work: if one changes the output, the Talon is switched to that output until the limiter allows the target again.
+ * While it is switched, the Talon's output is the limited one, so the limiters are given the closed loop's output from just before
+ * they stepped in instead, and the target is only sent again once they pass that unchanged.
+ *
+ * Use the static methods to get a logic that falls back to roboRIO PID when the motor controller is not a Talon.
+ * If the Talon is also added to the MotorGroup (so that the same code works with the fallback), the group does not write to it
+ * while this logic is running.
+ */
+public class TalonClosedLoopLogic extends MotorLogic
+{
+	final private static String TAG = "TalonClosedLoopLogic";
+
+	private final IClosedLoopMotorController controller;
+
+	private final ControlMode mode;
+
+	private final double unitsPerDegree;
+
+	// owned by the control thread
+	private double nativeTarget;
+	private boolean targetSent = false;
+
+	// the closed loop's output that the limiters were given at the last step
+	private double demand;
+
+	// true while a limiter has taken over from the closed loop
+	private boolean limited = false;
+	private double limitedOutput;
+
+	private volatile double output, error;
+
+	/**
+	 * @param controller the motor controller to run the loop on
+	 * @param mode Velocity, Position or MotionMagic
+	 * @param nativeUnitsPerRotation how many native sensor units the sensor counts per rotation, e.g. 4096 for a CTRE mag encoder
+	 * @param gains the Talon's gains, in its own units
+	 */
+	public TalonClosedLoopLogic(IClosedLoopMotorController controller, ControlMode mode, double nativeUnitsPerRotation, PIDConstants gains)
+	{
+		if(mode != ControlMode.Velocity && mode != ControlMode.Position && mode != ControlMode.MotionMagic)
+		{
+			throw new IllegalArgumentException("Closed loop mode must be Velocity, Position or MotionMagic, not " + mode);
+		}
+
+		this.controller = controller;
+		this.mode = mode;
+		unitsPerDegree = nativeUnitsPerRotation / 360;
+
+		controller.configGains(gains);
+	}
+
+	/**
+	 * Get a velocity logic which runs on the Talon if the motor controller is one, and as a PIDSpeedLogic otherwise.
+	 * @param nativeUnitsPerRotation how many native sensor units the Talon's sensor counts per rotation
+	 * @param talonGains gains for the Talon's closed loop
+	 * @param encoder encoder to use if the motor controller is not a Talon
+	 * @param fallbackGains gains for the PIDSpeedLogic
+	 */
+	public static MotorLogic velocity(SpeedController motorController, double nativeUnitsPerRotation, PIDConstants talonGains,
+			IVelocityEncoder encoder, PIDConstants fallbackGains)
+	{
+		IClosedLoopMotorController closedLoop = asClosedLoop(motorController);
+		if(closedLoop != null)
+		{
+			return new TalonClosedLoopLogic(closedLoop, ControlMode.Velocity, nativeUnitsPerRotation, talonGains);
+		}
+
+		Log.info(TAG, "Motor controller cannot run a closed loop, using PIDSpeedLogic on the roboRIO.");
+		return new PIDSpeedLogic(0, 10, encoder, fallbackGains);
+	}
+
+	/**
+	 * Get a position logic which runs on the Talon if the motor controller is one, and as an AbsolutePIDAngleLogic otherwise.
+	 * @param threshold acceptable error in degrees for the fallback
+	 */
+	public static MotorLogic position(SpeedController motorController, double nativeUnitsPerRotation, PIDConstants talonGains,
+			IDistanceEncoder encoder, PIDConstants fallbackGains, double threshold)
+	{
+		IClosedLoopMotorController closedLoop = asClosedLoop(motorController);
+		if(closedLoop != null)
+		{
+			return new TalonClosedLoopLogic(closedLoop, ControlMode.Position, nativeUnitsPerRotation, talonGains);
+		}
+
+		Log.info(TAG, "Motor controller cannot run a closed loop, using AbsolutePIDAngleLogic on the roboRIO.");
+		return new AbsolutePIDAngleLogic(fallbackGains.getkP(), fallbackGains.getkI(), fallbackGains.getkD(), threshold, false, encoder, false);
+	}
+
+	/**
+	 * Get a MotionMagic logic which runs on the Talon if the motor controller is one.  The roboRIO has no MotionMagic, so otherwise
+	 * it falls back to an AbsolutePIDAngleLogic which goes straight to the target.
+	 * @param cruiseVelocity in degrees per second
+	 * @param acceleration in degrees per second squared
+	 * @param threshold acceptable error in degrees for the fallback
+	 */
+	public static MotorLogic motionMagic(SpeedController motorController, double nativeUnitsPerRotation, PIDConstants talonGains,
+			double cruiseVelocity, double acceleration, IDistanceEncoder encoder, PIDConstants fallbackGains, double threshold)
+	{
+		IClosedLoopMotorController closedLoop = asClosedLoop(motorController);
+		if(closedLoop != null)
+		{
+			TalonClosedLoopLogic logic = new TalonClosedLoopLogic(closedLoop, ControlMode.MotionMagic, nativeUnitsPerRotation, talonGains);
+			logic.configMotionMagic(cruiseVelocity, acceleration);
+			return logic;
+		}
+
+		Log.info(TAG, "Motor controller cannot run a closed loop, using AbsolutePIDAngleLogic on the roboRIO.");
+		return new AbsolutePIDAngleLogic(fallbackGains.getkP(), fallbackGains.getkI(), fallbackGains.getkD(), threshold, false, encoder, false);
+	}
+
+	private static IClosedLoopMotorController asClosedLoop(SpeedController motorController)
+	{
+		if(motorController instanceof IClosedLoopMotorController)
+		{
+			return (IClosedLoopMotorController) motorController;
+		}
+		else if(motorController instanceof IMotorControllerEnhanced)
+		{
+			return new CTREClosedLoopMotorController((IMotorControllerEnhanced) motorController);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Send new gains to the Talon.  This is a configuration write, so don't do it every loop.
+	 */
+	public void setGains(PIDConstants gains)
+	{
+		controller.configGains(gains);
+	}
+
+	/**
+	 * Set the MotionMagic profile limits.
+	 * @param cruiseVelocity in degrees per second
+	 * @param acceleration in degrees per second squared
+	 */
+	public void configMotionMagic(double cruiseVelocity, double acceleration)
+	{
+		controller.configMotionMagic((int) Math.round(toNativeVelocity(cruiseVelocity)), (int) Math.round(toNativeVelocity(acceleration)));
+	}
+
+	private double toNativeVelocity(double degreesPerSecond)
+	{
+		return degreesPerSecond * unitsPerDegree / 10;
+	}
+
+	@Override
+	protected void applyControlTarget(double val)
+	{
+		nativeTarget = mode == ControlMode.Velocity ? toNativeVelocity(val) : val * unitsPerDegree;
+		targetSent = false;
+	}
+
+	@Override
+	protected void resetState()
+	{
+		applyControlTarget(0);
+		limited = false;
+	}
+
+	/**
+	 * Read back the Talon's status.  The Talon does the control, so this just returns what it is outputting, or, while a limiter
+	 * has taken over, what the closed loop was outputting before it did.
+	 */
+	@Override
+	public double speedControlStep(double dt)
+	{
+		output = controller.getMotorOutputPercent();
+
+		double nativeError = controller.getClosedLoopError();
+		error = mode == ControlMode.Velocity ? nativeError * 10 / unitsPerDegree : nativeError / unitsPerDegree;
+
+		// while limited, the Talon's output is the limiter's, and passing that through unchanged doesn't mean the limiter let go
+		if(!limited)
+		{
+			demand = output;
+		}
+
+		return demand;
+	}
+
+	@Override
+	protected void applyOutput(double newOutput)
+	{
+		if(newOutput != demand)
+		{
+			// a limiter stepped in, so take over from the closed loop until it lets go
+			if(!limited || newOutput != limitedOutput)
+			{
+				controller.set(ControlMode.PercentOutput, newOutput);
+				limitedOutput = newOutput;
+			}
+			limited = true;
+			targetSent = false;
+		}
+		else if(!targetSent)
+		{
+			limited = false;
+			controller.set(mode, nativeTarget);
+			targetSent = true;
+		}
+	}
+
+	@Override
+	protected void onShutDown()
+	{
+		controller.set(ControlMode.PercentOutput, 0);
+		targetSent = false;
+		limited = false;
+	}
+
+	@Override
+	public boolean isComplete()
+	{
+		return false;
+	}
+
+	/**
+	 *
+	 * @return the Talon's output at the last step, from -1 to 1
+	 */
+	public double getOutput()
+	{
+		return output;
+	}
+
+	/**
+	 *
+	 * @return the Talon's closed loop error at the last step, in degrees or degrees per second
+	 */
+	public double getError()
+	{
+		return error;
+	}
+}
@@ -0,0 +1,252 @@
+package org.team3128.common.hardware.power;
+
+import org.team3128.common.hardware.motor.MotorControlExecutor;
+import org.team3128.common.hardware.motor.MotorGroup;
+import org.team3128.common.util.Log;
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Watches the battery voltage and cuts back the output of MotorGroups before the robot browns out.
+ *
+ * Each update, the voltage a short time in the future is predicted from the current voltage and how fast it is falling.
+ * If the prediction is below the start voltage, output is shed from the registered groups, lowest priority first:
+ * the further the prediction is below the start voltage, the more is shed.  When the prediction reaches the full shed voltage,
+ * every group is shed completely.
+ *
+ * Shedding starts immediately, but is given back gradually so that the robot doesn't oscillate in and out of a brownout.
+ *
+ * Only MotorGroups can be shed.  SRXTankDrive drives its Talon SRXs directly, often in closed-loop modes which an output scale
+ * can't be applied to, so the drivetrain, usually the largest load, is not shed.  Give its Talons current limits
+ * (configContinuousCurrentLimit()) to keep it from causing a brownout on its own.
+ */
+public class BrownoutGuard
+{
+	final private static String TAG = "BrownoutGuard";
+
+	private final IPowerDistribution source;
+
+	private final MotorControlExecutor.Task task;
+
+	// registered groups, sorted by priority from lowest to highest
+	private MotorGroup[] groups = new MotorGroup[0];
+	private int[] priorities = new int[0];
+	private double[] scales = new double[0];
+
+	private double startVoltage = 8.5, fullShedVoltage = 6.8;
+
+	private double predictionHorizon = 100; //ms
+
+	// fraction of full output given back per second when recovering
+	private double recoveryRate = 2;
+
+	// owned by the update thread
+	private double previousVoltage = Double.NaN;
+	private double previousTime;
+	private double voltageSlope; // V/ms, filtered
+
+	// how much of each new slope reading goes into the filtered slope.  Lower values ignore short dips, like motors starting.
+	private final static double SLOPE_FILTER_GAIN = .25;
+
+	private volatile double predictedVoltage = Double.NaN;
+
+	private boolean shedding;
+
+	/**
+	 * @param source where to read the battery voltage from, e.g. a PowerDistributionSampler
+	 * @param period time between updates, in milliseconds.  Should be about the source's sample period.
+	 */
+	public BrownoutGuard(IPowerDistribution source, double period)
+	{
+		this.source = source;
+		task = new MotorControlExecutor.Task("BrownoutGuard", this::update, period);
+	}
+
+	/**
+	 * Let the guard shed output from a group.
+	 * @param priority groups with lower priorities are shed first.  Groups with the same priority are shed together.
+	 */
+	public synchronized void addGroup(MotorGroup group, int priority)
+	{
+		int count = groups.length;
+
+		MotorGroup[] newGroups = new MotorGroup[count + 1];
+		int[] newPriorities = new int[count + 1];
+		double[] newScales = new double[count + 1];
+
+		int insertIndex = 0;
+		while(insertIndex < count && priorities[insertIndex] <= priority)
+		{
+			++insertIndex;
+		}
+
+		System.arraycopy(groups, 0, newGroups, 0, insertIndex);
+		System.arraycopy(priorities, 0, newPriorities, 0, insertIndex);
+		System.arraycopy(scales, 0, newScales, 0, insertIndex);
+
+		newGroups[insertIndex] = group;
+		newPriorities[insertIndex] = priority;
+		newScales[insertIndex] = 1;
+
+		System.arraycopy(groups, insertIndex, newGroups, insertIndex + 1, count - insertIndex);
+		System.arraycopy(priorities, insertIndex, newPriorities, insertIndex + 1, count - insertIndex);
+		System.arraycopy(scales, insertIndex, newScales, insertIndex + 1, count - insertIndex);
+
+		groups = newGroups;
+		priorities = newPriorities;
+		scales = newScales;
+	}
+
+	/**
+	 * @param startVoltage predicted voltage below which shedding starts.  Defaults to 8.5.
+	 * @param fullShedVoltage predicted voltage at which every group is shed completely.  Defaults to 6.8, where the roboRIO
+	 * turns off the motor outputs itself.
+	 */
+	public void setVoltages(double startVoltage, double fullShedVoltage)
+	{
+		if(fullShedVoltage >= startVoltage)
+		{
+			throw new IllegalArgumentException("Full shed voltage must be below the start voltage");
+		}
+
+		this.startVoltage = startVoltage;
+		this.fullShedVoltage = fullShedVoltage;
+	}
+
+	/**
+	 * Set how far ahead the voltage is predicted.  Defaults to 100 ms.
+	 */
+	public void setPredictionHorizon(double horizon)
+	{
+		predictionHorizon = horizon;
+	}
+
+	/**
+	 * Set how fast shed output is given back, as a fraction of full output per second.  Defaults to 2.
+	 */
+	public void setRecoveryRate(double rate)
+	{
+		recoveryRate = rate;
+	}
+
+	public void start()
+	{
+		MotorControlExecutor.getInstance().addTask(task);
+	}
+
+	public void stop()
+	{
+		MotorControlExecutor.getInstance().removeTask(task);
+	}
+
+	/**
+	 * Run one update.  Called by the MotorControlExecutor once start() has been called.
+	 */
+	public void update()
+	{
+		update(System.nanoTime() / 1e6);
+	}
+
+	/**
+	 * Run one update at a given time, e.g. the time in a simulation.
+	 * @param time in milliseconds.  Must be monotonic.
+	 */
+	public synchronized void update(double time)
+	{
+		double voltage = source.getVoltage();
+
+		// the source may not have a reading yet
+		if(voltage <= 0)
+		{
+			return;
+		}
+
+		double dt = time - previousTime;
+		if(!Double.isNaN(previousVoltage) && dt > 0)
+		{
+			voltageSlope += ((voltage - previousVoltage) / dt - voltageSlope) * SLOPE_FILTER_GAIN;
+		}
+		previousVoltage = voltage;
+		previousTime = time;
+
+		// only a falling voltage makes the prediction worse
+		double predicted = voltage + Math.min(0, voltageSlope) * predictionHorizon;
+		predictedVoltage = predicted;
+
+		applyShedding(predicted, dt);
+	}
+
+	/**
+	 * Set the groups' scales for a predicted voltage.
+	 * @param dt time since the last update, in milliseconds
+	 */
+	private void applyShedding(double predicted, double dt)
+	{
+		int levelCount = countPriorityLevels();
+		if(levelCount == 0)
+		{
+			return;
+		}
+
+		// 0 is no shedding, levelCount is shedding everything
+		double severity = RobotMath.clamp((startVoltage - predicted) / (startVoltage - fullShedVoltage), 0, 1) * levelCount;
+
+		boolean nowShedding = severity > 0;
+		if(nowShedding != shedding)
+		{
+			shedding = nowShedding;
+			Log.info(TAG, shedding ? "Predicted voltage is " + predicted + " V, shedding motor output." : "Voltage recovered, giving output back.");
+		}
+
+		double maxRecovery = recoveryRate * Math.max(0, dt) / 1000;
+
+		int level = -1;
+		for(int index = 0; index < groups.length; ++index)
+		{
+			if(index == 0 || priorities[index] != priorities[index - 1])
+			{
+				++level;
+			}
+
+			double targetScale = 1 - RobotMath.clamp(severity - level, 0, 1);
+
+			// shed immediately, recover gradually
+			double scale = targetScale < scales[index] ? targetScale : Math.min(targetScale, scales[index] + maxRecovery);
+			scales[index] = scale;
+
+			groups[index].setSheddingScale(scale);
+		}
+	}
+
+	private int countPriorityLevels()
+	{
+		int levels = 0;
+		for(int index = 0; index < priorities.length; ++index)
+		{
+			if(index == 0 || priorities[index] != priorities[index - 1])
+			{
+				++levels;
+			}
+		}
+
+		return levels;
+	}
+
+	/**
+	 *
+	 * @return the voltage predicted by the last update
+	 */
+	public double getPredictedVoltage()
+	{
+		return predictedVoltage;
+	}
+
+	public boolean isShedding()
+	{
+		return shedding;
+	}
+
+	public MotorControlExecutor.Task getTask()
+	{
+		return task;
+	}
+}
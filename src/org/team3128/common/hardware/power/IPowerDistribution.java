@@ -0,0 +1,28 @@
+package org.team3128.common.hardware.power;
+
+/**
+ * Interface to represent something that can measure the robot's power use, like the PDP.
+ *
+ * Code should take this instead of a PowerDistributionPanel so that it can be run against a simulated one.
+ */
+public interface IPowerDistribution
+{
+	/**
+	 * Returns the current being drawn through one channel in amps
+	 * @param channel
+	 * @return
+	 */
+	public double getCurrent(int channel);
+
+	/**
+	 * Returns the current being drawn by the whole robot in amps
+	 * @return
+	 */
+	public double getTotalCurrent();
+
+	/**
+	 * Returns the battery voltage
+	 * @return
+	 */
+	public double getVoltage();
+}
@@ -0,0 +1,250 @@
+package org.team3128.common.hardware.power;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.team3128.common.util.Log;
+
+import edu.wpi.first.wpilibj.PowerDistributionPanel;
+
+/**
+ * Reads every channel of a PDP (or other IPowerDistribution) once per period, and serves those readings
+ * to everything that needs them.
+ *
+ * Reading the PDP is a CAN query, which is slow, and several limiters and logics may want the same channel.
+ * This class does all of the reads together on its own low-priority thread, so the blocking reads never hold up the
+ * MotorControlExecutor's control loops, and everyone else reads the latest snapshot.
+ * Reads never lock and never allocate.  readSnapshot() returns a set of readings all taken in the same sample.
+ */
+public class PowerDistributionSampler implements IPowerDistribution
+{
+	final private static String TAG = "PowerDistributionSampler";
+
+	public final static int NUM_CHANNELS = 16;
+
+	private final static int TOTAL_CURRENT_INDEX = NUM_CHANNELS, VOLTAGE_INDEX = NUM_CHANNELS + 1;
+
+	private static final IdentityHashMap<PowerDistributionPanel, PowerDistributionSampler> panelSamplers = new IdentityHashMap<>();
+
+	private final IPowerDistribution source;
+
+	private final long period; // ns
+
+	// the sampling thread, which stops once this no longer refers to it
+	private volatile Thread thread;
+
+	// the 16 channel currents, then the total current, then the voltage, as double bits.
+	// Volatile access to each element keeps the seqlock below correct.
+	private final AtomicLongArray readings = new AtomicLongArray(NUM_CHANNELS + 2);
+
+	// odd while a sample is being written
+	private volatile long sequence = 0;
+
+	private volatile long sampleTime = 0;
+
+	// channel currents are read into here first, so that the sequence is only odd for a moment
+	private final double[] channelScratch = new double[NUM_CHANNELS];
+
+	/**
+	 * Get the shared sampler for a PDP, creating and starting it if needed.  It samples every 20 ms.
+	 */
+	public static PowerDistributionSampler forPanel(PowerDistributionPanel panel)
+	{
+		synchronized(panelSamplers)
+		{
+			PowerDistributionSampler sampler = panelSamplers.get(panel);
+			if(sampler == null)
+			{
+				sampler = new PowerDistributionSampler(new WPILibPowerDistribution(panel), 20);
+				sampler.start();
+				panelSamplers.put(panel, sampler);
+			}
+
+			return sampler;
+		}
+	}
+
+	/**
+	 * Construct a sampler.  It does not sample anything until start() is called (or sample() is called manually).
+	 * @param source where to read the currents from
+	 * @param period time between samples, in milliseconds
+	 */
+	public PowerDistributionSampler(IPowerDistribution source, double period)
+	{
+		if(period <= 0)
+		{
+			throw new IllegalArgumentException("Sample period must be positive");
+		}
+
+		this.source = source;
+		this.period = (long)(period * 1e6);
+	}
+
+	/**
+	 * Start sampling on the sampler's own thread.
+	 */
+	public synchronized void start()
+	{
+		if(thread == null)
+		{
+			thread = new Thread(this::run, TAG);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop sampling.  When this returns, no sample is in progress.
+	 */
+	public void stop()
+	{
+		Thread oldThread;
+		synchronized(this)
+		{
+			oldThread = thread;
+			thread = null;
+		}
+
+		if(oldThread != null)
+		{
+			oldThread.interrupt();
+			try
+			{
+				oldThread.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run()
+	{
+		long nextSample = System.nanoTime();
+
+		while(thread == Thread.currentThread())
+		{
+			try
+			{
+				sample();
+			}
+			catch(RuntimeException e)
+			{
+				Log.recoverable(TAG, "Sampling threw " + e.getClass().getSimpleName() + ": " + e.getMessage());
+			}
+
+			// keep to the period, but don't try to catch up if the reads took too long
+			nextSample = Math.max(nextSample + period, System.nanoTime());
+
+			long sleepTime = Math.max(0, nextSample - System.nanoTime());
+			try
+			{
+				Thread.sleep(sleepTime / 1000000, (int)(sleepTime % 1000000));
+			}
+			catch(InterruptedException e)
+			{
+				// stop() woke us up, so check whether to keep going
+			}
+		}
+	}
+
+	/**
+	 * Read everything from the source now.  Should only be called from one thread at a time,
+	 * which is the sampler's own once start() has been called.
+	 */
+	public void sample()
+	{
+		// do the slow reads before starting the write, so readers never have to wait on them
+		for(int channel = 0; channel < NUM_CHANNELS; ++channel)
+		{
+			channelScratch[channel] = source.getCurrent(channel);
+		}
+		double totalCurrent = source.getTotalCurrent();
+		double voltage = source.getVoltage();
+
+		sequence = sequence + 1;
+
+		for(int channel = 0; channel < NUM_CHANNELS; ++channel)
+		{
+			readings.set(channel, Double.doubleToRawLongBits(channelScratch[channel]));
+		}
+		readings.set(TOTAL_CURRENT_INDEX, Double.doubleToRawLongBits(totalCurrent));
+		readings.set(VOLTAGE_INDEX, Double.doubleToRawLongBits(voltage));
+
+		sampleTime = System.nanoTime();
+		sequence = sequence + 1;
+	}
+
+	/**
+	 * Copy the latest readings, all from the same sample.
+	 * @param currents array of at least 16 elements to copy the channel currents into
+	 * @return the battery voltage from the same sample
+	 */
+	public double readSnapshot(double[] currents)
+	{
+		while(true)
+		{
+			long startSequence = sequence;
+
+			if((startSequence & 1) == 0)
+			{
+				for(int channel = 0; channel < NUM_CHANNELS; ++channel)
+				{
+					currents[channel] = Double.longBitsToDouble(readings.get(channel));
+				}
+				double voltage = Double.longBitsToDouble(readings.get(VOLTAGE_INDEX));
+
+				if(sequence == startSequence)
+				{
+					return voltage;
+				}
+			}
+
+			Thread.yield();
+		}
+	}
+
+	@Override
+	public double getCurrent(int channel)
+	{
+		return Double.longBitsToDouble(readings.get(channel));
+	}
+
+	@Override
+	public double getTotalCurrent()
+	{
+		return Double.longBitsToDouble(readings.get(TOTAL_CURRENT_INDEX));
+	}
+
+	@Override
+	public double getVoltage()
+	{
+		return Double.longBitsToDouble(readings.get(VOLTAGE_INDEX));
+	}
+
+	/**
+	 *
+	 * @return how long ago the latest sample was taken, in milliseconds, or infinity if nothing has been sampled
+	 */
+	public double getSampleAge()
+	{
+		long time = sampleTime;
+		if(time == 0)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return (System.nanoTime() - time) / 1e6;
+	}
+
+	/**
+	 *
+	 * @return the number of samples taken so far.  A reader can tell that a new sample has come in when this changes.
+	 */
+	public long getSampleCount()
+	{
+		return sequence / 2;
+	}
+}
@@ -0,0 +1,47 @@
+package org.team3128.common.hardware.power;
+
+import edu.wpi.first.wpilibj.PowerDistributionPanel;
+
+/**
+ * IPowerDistribution backed by the real PDP.
+ */
+public class WPILibPowerDistribution implements IPowerDistribution
+{
+	private PowerDistributionPanel panel;
+
+	public WPILibPowerDistribution(PowerDistributionPanel panel)
+	{
+		this.panel = panel;
+	}
+
+	/**
+	 * Construct with the PDP at the default CAN ID.
+	 */
+	public WPILibPowerDistribution()
+	{
+		this(new PowerDistributionPanel());
+	}
+
+	@Override
+	public double getCurrent(int channel)
+	{
+		return panel.getCurrent(channel);
+	}
+
+	@Override
+	public double getTotalCurrent()
+	{
+		return panel.getTotalCurrent();
+	}
+
+	@Override
+	public double getVoltage()
+	{
+		return panel.getVoltage();
+	}
+
+	public PowerDistributionPanel getPanel()
+	{
+		return panel;
+	}
+}
@@ -0,0 +1,52 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.motor.DCMotor;
+
+/**
+ * Simulation of an arm that pivots at one end and is pulled down by gravity.
+ *
+ * Position is in radians, with 0 being horizontal and positive being up.  The arm is treated as a uniform rod.
+ */
+public class ArmSim extends MechanismSim
+{
+	private final double momentOfInertia;
+
+	// torque of gravity when the arm is horizontal
+	private final double gravityTorque;
+
+	/**
+	 * @param motor the motors driving the arm.  Use withMotors() for more than one.
+	 * @param gearing reduction between the motors and the arm
+	 * @param length length of the arm in meters
+	 * @param mass mass of the arm in kg
+	 * @param minAngle angle of the lower hard stop, in radians
+	 * @param maxAngle angle of the upper hard stop, in radians
+	 */
+	public ArmSim(DCMotor motor, double gearing, double length, double mass, double minAngle, double maxAngle)
+	{
+		super(motor, gearing);
+
+		if(length <= 0 || mass <= 0)
+		{
+			throw new IllegalArgumentException("Arm length and mass must be positive");
+		}
+
+		momentOfInertia = mass * length * length / 3;
+		gravityTorque = mass * GRAVITY * length / 2;
+
+		setLimits(minAngle, maxAngle);
+		setState(minAngle, 0);
+	}
+
+	@Override
+	protected double getAcceleration(double position, double velocity, double voltage)
+	{
+		return (getMotorTorque(velocity, voltage) - gravityTorque * Math.cos(position)) / momentOfInertia;
+	}
+
+	@Override
+	protected double getMotorSpeed(double velocity)
+	{
+		return velocity * gearing;
+	}
+}
@@ -0,0 +1,56 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.motor.DCMotor;
+
+/**
+ * Simulation of a carriage lifted by a cable or chain wrapped around a drum.
+ *
+ * Position is the height in meters, and velocity is in m/s.
+ */
+public class ElevatorSim extends MechanismSim
+{
+	private final double mass;
+
+	private final double drumRadius;
+
+	/**
+	 * @param motor the motors driving the elevator.  Use withMotors() for more than one.
+	 * @param gearing reduction between the motors and the drum
+	 * @param mass mass of the carriage in kg
+	 * @param drumRadius radius of the drum (or sprocket pitch radius) in meters
+	 * @param minHeight height of the bottom hard stop in meters
+	 * @param maxHeight height of the top hard stop in meters
+	 */
+	public ElevatorSim(DCMotor motor, double gearing, double mass, double drumRadius, double minHeight, double maxHeight)
+	{
+		super(motor, gearing);
+
+		if(mass <= 0 || drumRadius <= 0)
+		{
+			throw new IllegalArgumentException("Elevator mass and drum radius must be positive");
+		}
+
+		this.mass = mass;
+		this.drumRadius = drumRadius;
+
+		setLimits(minHeight, maxHeight);
+		setState(minHeight, 0);
+	}
+
+	@Override
+	protected double getAcceleration(double position, double velocity, double voltage)
+	{
+		return getMotorTorque(velocity, voltage) / drumRadius / mass - GRAVITY;
+	}
+
+	@Override
+	protected double getMotorSpeed(double velocity)
+	{
+		return velocity / drumRadius * gearing;
+	}
+
+	public double getDrumRadius()
+	{
+		return drumRadius;
+	}
+}
@@ -0,0 +1,53 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.motor.DCMotor;
+
+/**
+ * Simulation of a spinning inertia with no other load, like a shooter wheel or an unloaded drivetrain side.
+ *
+ * Position is in radians and velocity is in rad/s, at the gearbox output.
+ */
+public class FlywheelSim extends MechanismSim
+{
+	private final double momentOfInertia;
+
+	private double viscousFriction;
+
+	/**
+	 * @param motor the motors driving the flywheel.  Use withMotors() for more than one.
+	 * @param gearing reduction between the motors and the flywheel
+	 * @param momentOfInertia of the flywheel in kg*m^2
+	 */
+	public FlywheelSim(DCMotor motor, double gearing, double momentOfInertia)
+	{
+		super(motor, gearing);
+
+		if(momentOfInertia <= 0)
+		{
+			throw new IllegalArgumentException("Moment of inertia must be positive");
+		}
+
+		this.momentOfInertia = momentOfInertia;
+	}
+
+	/**
+	 * Set a friction torque proportional to speed.
+	 * @param friction in N*m per rad/s
+	 */
+	public void setViscousFriction(double friction)
+	{
+		viscousFriction = friction;
+	}
+
+	@Override
+	protected double getAcceleration(double position, double velocity, double voltage)
+	{
+		return (getMotorTorque(velocity, voltage) - viscousFriction * velocity) / momentOfInertia;
+	}
+
+	@Override
+	protected double getMotorSpeed(double velocity)
+	{
+		return velocity * gearing;
+	}
+}
@@ -0,0 +1,185 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.motor.DCMotor;
+
+/**
+ * Physics simulation of a mechanism driven by DC motors through a gearbox.
+ *
+ * The state is a position and a velocity, in radians for rotating mechanisms and meters for linear ones.
+ * step() integrates it with fixed-size RK4 steps and does not allocate, so a closed loop can be run many thousands of
+ * times faster than real time by stepping the MotorLogic by hand instead of starting it:
+ *
+ * <pre>
+ * logic.setControlTarget(target);
+ * for(int i = 0; i &lt; 1000; ++i)
+ * {
+ *     controller.set(logic.step(10));
+ *     flywheel.step(.010);
+ * }
+ * </pre>
+ *
+ * where controller is a SimSpeedController for the mechanism, and the logic reads a SimEncoder.
+ */
+public abstract class MechanismSim
+{
+	/**
+	 * Standard gravity in m/s^2
+	 */
+	protected final static double GRAVITY = 9.80665;
+
+	protected final DCMotor motor;
+
+	/**
+	 * Reduction of the gearbox, e.g. 10 for a 10:1 reduction.
+	 */
+	protected final double gearing;
+
+	private double position, velocity;
+
+	private double inputVoltage;
+
+	private double minPosition = Double.NEGATIVE_INFINITY, maxPosition = Double.POSITIVE_INFINITY;
+
+	private double maxStepSize = .001;
+
+	public MechanismSim(DCMotor motor, double gearing)
+	{
+		if(gearing <= 0)
+		{
+			throw new IllegalArgumentException("Gearing must be positive");
+		}
+
+		this.motor = motor;
+		this.gearing = gearing;
+	}
+
+	/**
+	 * Get the acceleration of the mechanism in a given state.
+	 */
+	protected abstract double getAcceleration(double position, double velocity, double voltage);
+
+	/**
+	 * Get the speed of the motors' shafts, in rad/s, when the mechanism is moving at the given velocity.
+	 */
+	protected abstract double getMotorSpeed(double velocity);
+
+	/**
+	 * Set the longest time step that step() will use, in seconds.  Defaults to 1 ms.
+	 */
+	public void setMaxStepSize(double maxStepSize)
+	{
+		this.maxStepSize = maxStepSize;
+	}
+
+	/**
+	 * Set hard stops on the position of the mechanism.  When it hits one, it stops dead.
+	 */
+	public void setLimits(double minPosition, double maxPosition)
+	{
+		this.minPosition = minPosition;
+		this.maxPosition = maxPosition;
+	}
+
+	/**
+	 * Set the voltage applied to the motors.  Clamped to the motors' nominal voltage.
+	 */
+	public void setInputVoltage(double voltage)
+	{
+		inputVoltage = Math.max(-motor.nominalVoltage, Math.min(motor.nominalVoltage, voltage));
+	}
+
+	public double getInputVoltage()
+	{
+		return inputVoltage;
+	}
+
+	/**
+	 * Move the mechanism to a certain state, e.g. to start a new run.
+	 */
+	public void setState(double position, double velocity)
+	{
+		this.position = position;
+		this.velocity = velocity;
+	}
+
+	/**
+	 * Advance the simulation.
+	 * @param dt time to advance by, in seconds
+	 */
+	public void step(double dt)
+	{
+		int steps = Math.max(1, (int)Math.ceil(dt / maxStepSize));
+		double h = dt / steps;
+
+		for(int step = 0; step < steps; ++step)
+		{
+			double x = position, v = velocity;
+
+			double k1x = v;
+			double k1v = getAcceleration(x, v, inputVoltage);
+
+			double k2x = v + h / 2 * k1v;
+			double k2v = getAcceleration(x + h / 2 * k1x, v + h / 2 * k1v, inputVoltage);
+
+			double k3x = v + h / 2 * k2v;
+			double k3v = getAcceleration(x + h / 2 * k2x, v + h / 2 * k2v, inputVoltage);
+
+			double k4x = v + h * k3v;
+			double k4v = getAcceleration(x + h * k3x, v + h * k3v, inputVoltage);
+
+			position = x + h / 6 * (k1x + 2 * k2x + 2 * k3x + k4x);
+			velocity = v + h / 6 * (k1v + 2 * k2v + 2 * k3v + k4v);
+
+			if(position < minPosition)
+			{
+				position = minPosition;
+				velocity = Math.max(0, velocity);
+			}
+			else if(position > maxPosition)
+			{
+				position = maxPosition;
+				velocity = Math.min(0, velocity);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the position in radians or meters
+	 */
+	public double getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 *
+	 * @return the velocity in rad/s or m/s
+	 */
+	public double getVelocity()
+	{
+		return velocity;
+	}
+
+	/**
+	 *
+	 * @return the total current drawn by all of the motors, in amps.  Negative when the motors are braking.
+	 */
+	public double getCurrent()
+	{
+		return motor.getCurrent(getMotorSpeed(velocity), inputVoltage);
+	}
+
+	public DCMotor getMotor()
+	{
+		return motor;
+	}
+
+	/**
+	 * Get the torque on the gearbox output shaft from the motors at a given state.
+	 */
+	protected double getMotorTorque(double velocity, double voltage)
+	{
+		return motor.getTorque(motor.getCurrent(getMotorSpeed(velocity), voltage)) * gearing;
+	}
+}
@@ -0,0 +1,74 @@
+package org.team3128.common.simulation;
+
+/**
+ * Simulation of the robot battery: an ideal voltage source behind a resistance (the battery's own, plus the main breaker and wiring).
+ *
+ * Each simulation step, call update() with the total current drawn, e.g. from SimPowerDistribution.getTotalCurrent().
+ * The new voltage is given to every SimSpeedController using the battery, so drawing a lot of current sags the voltage
+ * of every mechanism, just like on the real robot.
+ *
+ * The current drawn depends on the voltage, and with several stalled motors the two can chase each other from step to step.
+ * To keep the simulation stable, each update only moves the voltage part of the way to its new value, which stands in for the
+ * capacitance of the wiring and motor controllers.
+ */
+public class SimBattery
+{
+	private final double openCircuitVoltage;
+
+	private final double resistance;
+
+	private double voltage;
+
+	// fraction of the way to the new voltage moved each update
+	private final static double RELAXATION = .3;
+
+	private SimSpeedController[] controllers = new SimSpeedController[0];
+
+	/**
+	 * Construct a battery with typical numbers for a charged FRC battery: 12.7 V, and 20 milliohms including the wiring.
+	 */
+	public SimBattery()
+	{
+		this(12.7, .020);
+	}
+
+	/**
+	 * @param openCircuitVoltage voltage with no load
+	 * @param resistance in ohms
+	 */
+	public SimBattery(double openCircuitVoltage, double resistance)
+	{
+		this.openCircuitVoltage = openCircuitVoltage;
+		this.resistance = resistance;
+
+		voltage = openCircuitVoltage;
+	}
+
+	void addController(SimSpeedController controller)
+	{
+		SimSpeedController[] newControllers = new SimSpeedController[controllers.length + 1];
+		System.arraycopy(controllers, 0, newControllers, 0, controllers.length);
+		newControllers[controllers.length] = controller;
+		controllers = newControllers;
+	}
+
+	/**
+	 * Recalculate the voltage with a new load.
+	 * @param current total current drawn from the battery, in amps
+	 */
+	public void update(double current)
+	{
+		double loadedVoltage = Math.max(0, openCircuitVoltage - current * resistance);
+		voltage += (loadedVoltage - voltage) * RELAXATION;
+
+		for(SimSpeedController controller : controllers)
+		{
+			controller.setBusVoltage(voltage);
+		}
+	}
+
+	public double getVoltage()
+	{
+		return voltage;
+	}
+}
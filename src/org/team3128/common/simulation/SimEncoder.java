@@ -0,0 +1,68 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.encoder.distance.IDistanceEncoder;
+import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
+import org.team3128.common.util.units.Angle;
+
+/**
+ * Fake encoder which measures a simulated mechanism.
+ */
+public class SimEncoder implements IDistanceEncoder, IVelocityEncoder
+{
+	private final MechanismSim mechanism;
+
+	private final double degreesPerUnit;
+
+	private double offset;
+
+	/**
+	 * Construct an encoder on the output shaft of a rotating mechanism, like a FlywheelSim or ArmSim.
+	 */
+	public SimEncoder(MechanismSim mechanism)
+	{
+		this(mechanism, Angle.RADIANS);
+	}
+
+	/**
+	 * @param degreesPerUnit degrees the encoder turns per unit of the mechanism's position.  For an ElevatorSim with the encoder
+	 * on the drum, this is Angle.RADIANS / drumRadius.
+	 */
+	public SimEncoder(MechanismSim mechanism, double degreesPerUnit)
+	{
+		this.mechanism = mechanism;
+		this.degreesPerUnit = degreesPerUnit;
+	}
+
+	@Override
+	public double getAngularSpeed()
+	{
+		return mechanism.getVelocity() * degreesPerUnit;
+	}
+
+	@Override
+	public double getAngle()
+	{
+		return mechanism.getPosition() * degreesPerUnit - offset;
+	}
+
+	/**
+	 * There is no hardware, so this is the same as getAngle().
+	 */
+	@Override
+	public double getRawValue()
+	{
+		return getAngle();
+	}
+
+	@Override
+	public boolean canRevolveMultipleTimes()
+	{
+		return true;
+	}
+
+	@Override
+	public void reset()
+	{
+		offset = mechanism.getPosition() * degreesPerUnit;
+	}
+}
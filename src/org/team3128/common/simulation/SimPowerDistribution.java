@@ -0,0 +1,98 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.power.IPowerDistribution;
+
+/**
+ * Fake PDP which reports the currents drawn by simulated mechanisms.
+ *
+ * Like the real PDP, it measures the current drawn from the battery, not the current through the motors.  A motor controller
+ * switches the battery across the motor for a fraction of the time, so at partial power the battery supplies the motor's current
+ * times that fraction (the duty cycle).
+ */
+public class SimPowerDistribution implements IPowerDistribution
+{
+	public final static int NUM_CHANNELS = 16;
+
+	private final MechanismSim[] channels = new MechanismSim[NUM_CHANNELS];
+
+	private double voltage = 12;
+
+	private SimBattery battery;
+
+	/**
+	 * Report the supply current of a mechanism on a channel.  If the mechanism has several motors, each one should be given its own
+	 * channel; each channel reports an equal share of the mechanism's current.
+	 */
+	public void setChannel(int channel, MechanismSim mechanism)
+	{
+		if(channel < 0 || channel >= NUM_CHANNELS)
+		{
+			throw new IllegalArgumentException("PDP channel " + channel + " does not exist");
+		}
+
+		channels[channel] = mechanism;
+	}
+
+	/**
+	 * Set a fixed voltage to report.  Not used if a battery is set.
+	 */
+	public void setVoltage(double voltage)
+	{
+		this.voltage = voltage;
+	}
+
+	/**
+	 * Report the voltage of a simulated battery instead of a fixed voltage.
+	 */
+	public void setBattery(SimBattery battery)
+	{
+		this.battery = battery;
+	}
+
+	/**
+	 * Update the battery with the current drawn through all of the channels.
+	 */
+	public void updateBattery()
+	{
+		battery.update(getTotalCurrent());
+	}
+
+	@Override
+	public double getCurrent(int channel)
+	{
+		MechanismSim mechanism = channels[channel];
+		if(mechanism == null)
+		{
+			return 0;
+		}
+
+		double busVoltage = getVoltage();
+		if(busVoltage <= 0)
+		{
+			return 0;
+		}
+
+		double duty = Math.min(1, Math.abs(mechanism.getInputVoltage()) / busVoltage);
+
+		return Math.abs(mechanism.getCurrent()) * duty / mechanism.getMotor().motorCount;
+	}
+
+	@Override
+	public double getTotalCurrent()
+	{
+		double total = 0;
+
+		for(int channel = 0; channel < NUM_CHANNELS; ++channel)
+		{
+			total += getCurrent(channel);
+		}
+
+		return total;
+	}
+
+	@Override
+	public double getVoltage()
+	{
+		return battery == null ? voltage : battery.getVoltage();
+	}
+}
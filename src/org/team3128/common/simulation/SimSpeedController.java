@@ -0,0 +1,93 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.util.RobotMath;
+
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Fake motor controller which drives a simulated mechanism.
+ *
+ * If a mechanism has several motors, use one SimSpeedController and give the mechanism a DCMotor.withMotors() model.
+ */
+public class SimSpeedController implements SpeedController
+{
+	private final MechanismSim mechanism;
+
+	private double speed;
+
+	private boolean inverted;
+
+	private double busVoltage = 12;
+
+	public SimSpeedController(MechanismSim mechanism)
+	{
+		this.mechanism = mechanism;
+	}
+
+	/**
+	 * Power the motor from a simulated battery, so that the voltage it applies sags with the battery.
+	 */
+	public void setBattery(SimBattery battery)
+	{
+		battery.addController(this);
+		setBusVoltage(battery.getVoltage());
+	}
+
+	/**
+	 * Set the voltage that a power of 1 applies to the motor.  Defaults to 12.
+	 */
+	public void setBusVoltage(double voltage)
+	{
+		busVoltage = voltage;
+		set(speed);
+	}
+
+	@Override
+	public void set(double speed)
+	{
+		this.speed = RobotMath.clampPosNeg1(speed);
+		mechanism.setInputVoltage(this.speed * busVoltage * (inverted ? -1 : 1));
+	}
+
+	@Override
+	public double get()
+	{
+		return speed;
+	}
+
+	@Override
+	public void setInverted(boolean isInverted)
+	{
+		inverted = isInverted;
+		set(speed);
+	}
+
+	@Override
+	public boolean getInverted()
+	{
+		return inverted;
+	}
+
+	@Override
+	public void disable()
+	{
+		set(0);
+	}
+
+	@Override
+	public void stopMotor()
+	{
+		set(0);
+	}
+
+	@Override
+	public void pidWrite(double output)
+	{
+		set(output);
+	}
+
+	public MechanismSim getMechanism()
+	{
+		return mechanism;
+	}
+}
@@ -0,0 +1,474 @@
+package org.team3128.common.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.team3128.common.hardware.motor.IClosedLoopMotorController;
+import org.team3128.common.hardware.motor.IMotorControllerParameters;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.datatypes.PIDConstants;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.ParamEnum;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Fake Talon SRX which runs the Talon's closed loops on a simulated mechanism, with a sensor on the mechanism's output.
+ *
+ * Like the firmware, the loop runs every millisecond, works in native units, and scales the gains so that an output of 1023 is full power.
+ * kF is multiplied by the target in Velocity and Position modes, and by the profile's velocity in MotionMagic mode.
+ *
+ * Call step() to advance the simulation instead of stepping the mechanism directly.
+ *
+ * Configuration parameters are sent over a simulated CAN bus with a configurable latency (in real time, not simulation time),
+ * so that code which configures the Talon can be timed.  A write takes effect one latency after it is sent, a write with a
+ * timeout waits for the acknowledgement (twice the latency) and fails if its timeout is shorter than that, and a read always waits for the reply.
+ */
+public class SimTalonSRX implements SpeedController, IClosedLoopMotorController, IMotorControllerParameters
+{
+	private final static double LOOP_PERIOD = .001; // s
+
+	private final static double FULL_OUTPUT = 1023;
+
+	private final MechanismSim mechanism;
+
+	private final double unitsPerRadian;
+
+	private double kP, kI, kD, kF;
+
+	private int cruiseVelocity, acceleration;
+
+	private ControlMode mode = ControlMode.PercentOutput;
+	private double target;
+
+	private double output;
+
+	private boolean inverted;
+
+	private double busVoltage = 12;
+
+	// closed loop state, in native units
+	private double integralAccumulator, previousError, closedLoopError;
+
+	// MotionMagic profile state, in native units and native units per second
+	private double profilePosition, profileVelocity;
+
+	// simulation time not yet run because it was less than one loop period
+	private double leftoverTime;
+
+	private final int deviceID;
+
+	private long canLatency; // ns, one way
+
+	private final HashMap<Integer, Double> parameters = new HashMap<>();
+
+	// parameter writes still on the bus
+	private final ArrayList<InFlightWrite> inFlightWrites = new ArrayList<>();
+
+	private int parameterWrites, parameterReads;
+
+	private static class InFlightWrite
+	{
+		final long arrivalTime;
+		final ParamEnum parameter;
+		final int ordinal;
+		final double value;
+
+		InFlightWrite(long arrivalTime, ParamEnum parameter, int ordinal, double value)
+		{
+			this.arrivalTime = arrivalTime;
+			this.parameter = parameter;
+			this.ordinal = ordinal;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * @param mechanism the mechanism the Talon drives
+	 * @param nativeUnitsPerRotation sensor units per rotation of the mechanism's output, e.g. 4096 for a CTRE mag encoder
+	 */
+	public SimTalonSRX(MechanismSim mechanism, double nativeUnitsPerRotation)
+	{
+		this(mechanism, nativeUnitsPerRotation, 0);
+	}
+
+	/**
+	 * @param deviceID the CAN ID, only used in log messages
+	 */
+	public SimTalonSRX(MechanismSim mechanism, double nativeUnitsPerRotation, int deviceID)
+	{
+		this.mechanism = mechanism;
+		this.deviceID = deviceID;
+		unitsPerRadian = nativeUnitsPerRotation / (2 * Math.PI);
+	}
+
+	/**
+	 * Set how long a CAN frame takes to get to or from the Talon.  Defaults to 0.
+	 * @param latency in milliseconds
+	 */
+	public void setCANLatency(double latency)
+	{
+		canLatency = (long) (latency * 1e6);
+	}
+
+	/**
+	 * Set the voltage that an output of 1 applies to the motor.  Defaults to 12.
+	 */
+	public void setBusVoltage(double voltage)
+	{
+		busVoltage = voltage;
+	}
+
+	/**
+	 * Run the Talon and the mechanism forward in time.
+	 * @param dt in seconds
+	 */
+	public void step(double dt)
+	{
+		synchronized(this)
+		{
+			deliverWrites(System.nanoTime());
+		}
+
+		leftoverTime += dt;
+
+		while(leftoverTime >= LOOP_PERIOD)
+		{
+			leftoverTime -= LOOP_PERIOD;
+
+			runLoop();
+			mechanism.setInputVoltage(output * busVoltage * (inverted ? -1 : 1));
+			mechanism.step(LOOP_PERIOD);
+		}
+	}
+
+	/**
+	 * One millisecond of the Talon's firmware.
+	 */
+	private void runLoop()
+	{
+		double feedforwardTarget;
+		double error;
+
+		if(mode == ControlMode.Velocity)
+		{
+			feedforwardTarget = target;
+			error = target - getSelectedSensorVelocity();
+		}
+		else if(mode == ControlMode.Position)
+		{
+			feedforwardTarget = target;
+			error = target - getSelectedSensorPosition();
+		}
+		else if(mode == ControlMode.MotionMagic)
+		{
+			stepProfile();
+
+			// the profile velocity is per second, but the Talon's velocity units are per 100 ms
+			feedforwardTarget = profileVelocity / 10;
+			error = profilePosition - getSelectedSensorPosition();
+		}
+		else
+		{
+			closedLoopError = 0;
+			return;
+		}
+
+		integralAccumulator += error;
+
+		double loopOutput = kP * error + kI * integralAccumulator + kD * (error - previousError) + kF * feedforwardTarget;
+		previousError = error;
+		closedLoopError = error;
+
+		output = RobotMath.clampPosNeg1(loopOutput / FULL_OUTPUT);
+	}
+
+	/**
+	 * Move the MotionMagic setpoint along a trapezoidal profile towards the target.
+	 */
+	private void stepProfile()
+	{
+		double maxVelocity = cruiseVelocity * 10.0;
+		double maxAcceleration = acceleration * 10.0;
+
+		double distance = target - profilePosition;
+
+		double desiredVelocity = Math.copySign(Math.min(maxVelocity, Math.sqrt(2 * maxAcceleration * Math.abs(distance))), distance);
+		double maxChange = maxAcceleration * LOOP_PERIOD;
+		profileVelocity += RobotMath.clamp(desiredVelocity - profileVelocity, -maxChange, maxChange);
+
+		profilePosition += profileVelocity * LOOP_PERIOD;
+
+		if((target - profilePosition) * distance <= 0)
+		{
+			profilePosition = target;
+			profileVelocity = 0;
+		}
+	}
+
+	@Override
+	public void configGains(PIDConstants constants)
+	{
+		setParameter(ParamEnum.eProfileParamSlot_P, constants.getkP(), 0, 0);
+		setParameter(ParamEnum.eProfileParamSlot_I, constants.getkI(), 0, 0);
+		setParameter(ParamEnum.eProfileParamSlot_D, constants.getkD(), 0, 0);
+		setParameter(ParamEnum.eProfileParamSlot_F, constants.getkF(), 0, 0);
+	}
+
+	@Override
+	public void configMotionMagic(int cruiseVelocity, int acceleration)
+	{
+		setParameter(ParamEnum.eMotMag_VelCruise, cruiseVelocity, 0, 0);
+		setParameter(ParamEnum.eMotMag_Accel, acceleration, 0, 0);
+	}
+
+	@Override
+	public ErrorCode setParameter(ParamEnum parameter, double value, int ordinal, int timeoutMs)
+	{
+		synchronized(this)
+		{
+			++parameterWrites;
+
+			if(canLatency == 0)
+			{
+				applyParameter(parameter, ordinal, value);
+			}
+			else
+			{
+				inFlightWrites.add(new InFlightWrite(System.nanoTime() + canLatency, parameter, ordinal, value));
+			}
+		}
+
+		if(timeoutMs > 0)
+		{
+			waitForRoundTrip();
+
+			if(timeoutMs * 1000000L < 2 * canLatency)
+			{
+				// the acknowledgement didn't come back in time
+				return ErrorCode.SigNotUpdated;
+			}
+		}
+
+		return ErrorCode.OK;
+	}
+
+	/**
+	 * Read a parameter back, after one round trip.
+	 * @return the value, or NaN if the reply didn't come back within the timeout
+	 */
+	public double getParameter(ParamEnum parameter, int ordinal, int timeoutMs)
+	{
+		synchronized(this)
+		{
+			++parameterReads;
+		}
+
+		// the request gets there after one latency, and sees the writes that got there before it
+		waitForRoundTrip();
+
+		if(timeoutMs * 1000000L < 2 * canLatency)
+		{
+			// the reply didn't come back in time
+			return Double.NaN;
+		}
+
+		synchronized(this)
+		{
+			deliverWrites(System.nanoTime() - canLatency);
+
+			Double value = parameters.get(parameter.value * 256 + ordinal);
+			return value == null ? 0 : value;
+		}
+	}
+
+	@Override
+	public int getDeviceID()
+	{
+		return deviceID;
+	}
+
+	/**
+	 *
+	 * @return how many parameter writes have been sent to this Talon
+	 */
+	public synchronized int getParameterWrites()
+	{
+		return parameterWrites;
+	}
+
+	/**
+	 *
+	 * @return how many parameter reads have been sent to this Talon
+	 */
+	public synchronized int getParameterReads()
+	{
+		return parameterReads;
+	}
+
+	private void waitForRoundTrip()
+	{
+		long roundTrip = 2 * canLatency;
+		if(roundTrip > 0)
+		{
+			try
+			{
+				Thread.sleep(roundTrip / 1000000, (int) (roundTrip % 1000000));
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Apply the writes which got to the Talon before the given time.
+	 */
+	private void deliverWrites(long time)
+	{
+		while(!inFlightWrites.isEmpty() && inFlightWrites.get(0).arrivalTime <= time)
+		{
+			InFlightWrite write = inFlightWrites.remove(0);
+			applyParameter(write.parameter, write.ordinal, write.value);
+		}
+	}
+
+	private void applyParameter(ParamEnum parameter, int ordinal, double value)
+	{
+		parameters.put(parameter.value * 256 + ordinal, value);
+
+		// the simulated firmware only has profile slot 0
+		if(ordinal != 0)
+		{
+			return;
+		}
+
+		switch(parameter)
+		{
+		case eProfileParamSlot_P:
+			kP = value;
+			break;
+		case eProfileParamSlot_I:
+			kI = value;
+			break;
+		case eProfileParamSlot_D:
+			kD = value;
+			break;
+		case eProfileParamSlot_F:
+			kF = value;
+			break;
+		case eMotMag_VelCruise:
+			cruiseVelocity = (int) value;
+			break;
+		case eMotMag_Accel:
+			acceleration = (int) value;
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void set(ControlMode mode, double value)
+	{
+		if(mode == ControlMode.PercentOutput)
+		{
+			output = RobotMath.clampPosNeg1(value);
+		}
+		else if(mode != this.mode)
+		{
+			// the firmware clears the closed loop when the mode changes
+			integralAccumulator = 0;
+			previousError = 0;
+		}
+
+		// MotionMagic starts its profile from wherever the mechanism is
+		if(mode == ControlMode.MotionMagic && (this.mode != ControlMode.MotionMagic || value != target))
+		{
+			profilePosition = getSelectedSensorPosition();
+			profileVelocity = getSelectedSensorVelocity() * 10.0;
+		}
+
+		this.mode = mode;
+		target = value;
+	}
+
+	@Override
+	public int getSelectedSensorPosition()
+	{
+		return (int) Math.round(mechanism.getPosition() * unitsPerRadian);
+	}
+
+	@Override
+	public int getSelectedSensorVelocity()
+	{
+		return (int) Math.round(mechanism.getVelocity() * unitsPerRadian / 10);
+	}
+
+	@Override
+	public int getClosedLoopError()
+	{
+		return (int) Math.round(closedLoopError);
+	}
+
+	@Override
+	public double getMotorOutputPercent()
+	{
+		return output;
+	}
+
+	public ControlMode getControlMode()
+	{
+		return mode;
+	}
+
+	@Override
+	public void set(double speed)
+	{
+		set(ControlMode.PercentOutput, speed);
+	}
+
+	@Override
+	public double get()
+	{
+		return output;
+	}
+
+	@Override
+	public void setInverted(boolean isInverted)
+	{
+		inverted = isInverted;
+	}
+
+	@Override
+	public boolean getInverted()
+	{
+		return inverted;
+	}
+
+	@Override
+	public void disable()
+	{
+		set(0);
+	}
+
+	@Override
+	public void stopMotor()
+	{
+		set(0);
+	}
+
+	@Override
+	public void pidWrite(double output)
+	{
+		set(output);
+	}
+
+	public MechanismSim getMechanism()
+	{
+		return mechanism;
+	}
+}
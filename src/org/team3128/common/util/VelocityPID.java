@@ -1,66 +1,168 @@
 package org.team3128.common.util;
 
-import org.team3128.common.util.datatypes.PIDConstants;
+import java.util.function.DoubleSupplier;
 
+import org.team3128.common.util.control.ControlTrace;
+import org.team3128.common.util.control.FeedforwardModel;
+import org.team3128.common.util.control.GainSchedule;
+import org.team3128.common.util.control.PIDLoop;
+import org.team3128.common.util.datatypes.PIDConstants;
 
+/**
+ * Velocity-form PID: each update, the PID result is added on to the output, so the output
+ * holds steady once the error goes to zero.
+ *
+ * The PID math is done by a PIDLoop.  The accumulated output is clamped to the output limits, which
+ * keeps it from winding up while the motor is saturated.  kF from the constants, and the feedforward model if there is one,
+ * are applied to the desired velocity on top of the accumulated output, so with a good model the accumulated output only
+ * has to make up the model's error.
+ */
 public class VelocityPID
 {
-	
-	double lastVelocityError = 0;
-	
-	double errorSum = 0;
-	
+	PIDLoop correctionLoop;
+
 	PIDConstants pidConstants;
-	
-	double desiredVelocity;
-	
+
+	volatile GainSchedule gainSchedule;
+	DoubleSupplier operatingPoint;
+
+	// kP, kI, kD, kF used by the latest update
+	final double[] gains = new double[4];
+
+	double desiredVelocity, desiredAcceleration;
+
+	volatile FeedforwardModel feedforward;
+
+	// output from kF and the feedforward model at the latest update
+	double feedforwardOutput;
+
 	double storedOutput;
-	
+
+	double minOutput = -1, maxOutput = 1;
+
+	ControlTrace trace;
+
 	public VelocityPID(PIDConstants pidConstants)
 	{
 		this.pidConstants = pidConstants;
+		gains[3] = pidConstants.getkF();
+
+		correctionLoop = new PIDLoop(0, 0, 0, 0);
+
+		// the stored output does the limiting, so the correction itself is unlimited
+		correctionLoop.setOutputLimits(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
 	}
-	
+
 	public void setDesiredVelocity(double velocity)
+	{
+		setDesiredVelocity(velocity, 0);
+	}
+
+	/**
+	 * Set the desired velocity, and how fast it is changing, e.g. when following a motion profile.
+	 * The acceleration is only used by the feedforward model.
+	 */
+	public void setDesiredVelocity(double velocity, double acceleration)
 	{
 		desiredVelocity = velocity;
+		desiredAcceleration = acceleration;
+	}
+
+	/**
+	 * Use a feedforward model to calculate most of the output from the desired velocity.  Pass null to stop using one.
+	 * It is used in addition to kF, so kF should usually be 0 when using a model.
+	 */
+	public void setFeedforward(FeedforwardModel feedforward)
+	{
+		this.feedforward = feedforward;
+	}
+
+	/**
+	 * Look up the gains from a gain schedule instead of the PIDConstants.  Pass null to go back to using the constants.
+	 * @param operatingPoint gives the value to look the gains up at, e.g. the gear a TwoSpeedGearshift is in (0 or 1).  Called from update().
+	 */
+	public void setGainSchedule(GainSchedule schedule, DoubleSupplier operatingPoint)
+	{
+		this.operatingPoint = operatingPoint;
+		gainSchedule = schedule;
+	}
+
+	/**
+	 * Record every update to the given trace.  The output recorded is the full output, including kF.  Pass null to stop recording.
+	 */
+	public void setTrace(ControlTrace trace)
+	{
+		this.trace = trace;
+	}
+
+	/**
+	 * Set the range the output is kept inside.  Defaults to -1 to 1, the range of motor powers.
+	 */
+	public void setOutputLimits(double min, double max)
+	{
+		minOutput = min;
+		maxOutput = max;
 	}
-	
+
 	/**
 	 * Reset the internal sum of the error.
 	 * This is a good thing to do if the robot has been sitting for some time and building up error.
 	 */
 	public void resetIntegral()
 	{
-		errorSum = 0;
+		correctionLoop.resetIntegral();
 	}
-	
+
 	/**
 	 * Does another iteration of the PID control calculation
 	 * @param currentVelocity
 	 */
 	public void update(double currentVelocity)
 	{
-		double error = desiredVelocity - currentVelocity;
-		
-		errorSum += error;
-		
-		double errorDerivative = error - lastVelocityError;
-		
-		storedOutput = (pidConstants.getkP() * error) + (pidConstants.getkI() * errorSum) + (pidConstants.getkD() * errorDerivative) + storedOutput;
-		
-		lastVelocityError = error;
-		
+		GainSchedule schedule = gainSchedule;
+		if(schedule != null)
+		{
+			schedule.interpolate(operatingPoint.getAsDouble(), gains);
+		}
+		else
+		{
+			gains[0] = pidConstants.getkP();
+			gains[1] = pidConstants.getkI();
+			gains[2] = pidConstants.getkD();
+			gains[3] = pidConstants.getkF();
+		}
+
+		// kF is applied to the output directly, it must not be accumulated
+		correctionLoop.setGains(gains[0], gains[1], gains[2], 0);
+
+		// this class has always worked per-update rather than per-unit-time, so dt is 1
+		double correction = correctionLoop.update(desiredVelocity, currentVelocity, 1);
+
+		FeedforwardModel model = feedforward;
+		feedforwardOutput = gains[3] * desiredVelocity;
+		if(model != null)
+		{
+			feedforwardOutput += model.calculate(desiredVelocity, desiredAcceleration);
+		}
+
+		// keep the total output inside the limits, so the stored output doesn't wind up behind the feedforward
+		storedOutput = RobotMath.clamp(storedOutput + correction, minOutput - feedforwardOutput, maxOutput - feedforwardOutput);
+
+		if(trace != null)
+		{
+			trace.record(desiredVelocity, currentVelocity, correctionLoop.getError(), correctionLoop.getProportionalTerm(),
+					correctionLoop.getIntegralTerm(), correctionLoop.getDerivativeTerm(), getOutput());
+		}
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @return The number to output to apply the PID correction.
-	 * 
+	 *
 	 * This function does not do any calculating, you have to call update() first
 	 */
 	public double getOutput()
 	{
-		return storedOutput;
+		return RobotMath.clamp(storedOutput + feedforwardOutput, minOutput, maxOutput);
 	}
 }
@@ -0,0 +1,170 @@
+package org.team3128.common.util.control;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records the state of a control loop on every step, for tuning.
+ *
+ * Samples are written into preallocated primitive ring buffers, so recording one costs a few array stores and
+ * does not allocate or format anything.  Turning samples into text is done later by TraceWriter on its own thread.
+ *
+ * Only one thread (the control loop's) may call record().  If the buffer fills up before it is flushed, the oldest samples
+ * are dropped and counted.
+ */
+public class ControlTrace
+{
+	/**
+	 * The CSV header matching the columns written by flush().
+	 */
+	public final static String CSV_HEADER = "time_ms,setpoint,measurement,error,p,i,d,output";
+
+	private final String name;
+
+	private final int mask;
+
+	private final double[] time, setpoint, measurement, error, proportional, integral, derivative, output;
+
+	private final long startTime;
+
+	// number of samples ever recorded.  Written only by the recording thread.
+	private volatile long recordedCount;
+
+	// read side, only touched by the flushing thread
+	private long flushedCount;
+	private long droppedCount;
+
+	/**
+	 * @param name used to name the trace's output file
+	 * @param capacity how many samples can be held before they are flushed.  Rounded up to a power of two.
+	 */
+	public ControlTrace(String name, int capacity)
+	{
+		if(capacity <= 0)
+		{
+			throw new IllegalArgumentException("Trace capacity must be positive");
+		}
+
+		this.name = name;
+
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+		{
+			size <<= 1;
+		}
+		mask = size - 1;
+
+		time = new double[size];
+		setpoint = new double[size];
+		measurement = new double[size];
+		error = new double[size];
+		proportional = new double[size];
+		integral = new double[size];
+		derivative = new double[size];
+		output = new double[size];
+
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * Construct a trace which can hold 1024 samples, which is 10 seconds of a 10ms loop.
+	 */
+	public ControlTrace(String name)
+	{
+		this(name, 1024);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Record one step of the control loop.  The time is taken automatically.
+	 */
+	public void record(double setpointValue, double measurementValue, double errorValue,
+			double proportionalTerm, double integralTerm, double derivativeTerm, double outputValue)
+	{
+		long count = recordedCount;
+		int slot = (int)(count & mask);
+
+		time[slot] = (System.nanoTime() - startTime) / 1e6;
+		setpoint[slot] = setpointValue;
+		measurement[slot] = measurementValue;
+		error[slot] = errorValue;
+		proportional[slot] = proportionalTerm;
+		integral[slot] = integralTerm;
+		derivative[slot] = derivativeTerm;
+		output[slot] = outputValue;
+
+		// publishes the sample to the flushing thread
+		recordedCount = count + 1;
+	}
+
+	/**
+	 * Record the state of a PIDLoop after it has been updated.
+	 */
+	public void record(PIDLoop loop, double setpointValue, double measurementValue)
+	{
+		record(setpointValue, measurementValue, loop.getError(), loop.getProportionalTerm(), loop.getIntegralTerm(), loop.getDerivativeTerm(), loop.getOutput());
+	}
+
+	/**
+	 * Write every sample recorded since the last flush as CSV lines (without a header).
+	 *
+	 * Must only be called from one thread at a time; TraceWriter does this.
+	 * @param builder scratch space for formatting, which is reused to avoid allocation
+	 */
+	public void flush(Writer writer, StringBuilder builder) throws IOException
+	{
+		long end = recordedCount;
+		long start = Math.max(flushedCount, end - (mask + 1));
+
+		// samples that were overwritten before this flush
+		droppedCount += start - flushedCount;
+
+		for(long index = start; index < end; ++index)
+		{
+			int slot = (int)(index & mask);
+
+			builder.setLength(0);
+			builder.append(time[slot]).append(',')
+				.append(setpoint[slot]).append(',')
+				.append(measurement[slot]).append(',')
+				.append(error[slot]).append(',')
+				.append(proportional[slot]).append(',')
+				.append(integral[slot]).append(',')
+				.append(derivative[slot]).append(',')
+				.append(output[slot]).append('\n');
+
+			// the recording thread may have lapped us while we were formatting, in which case this row could be mixed with a newer one
+			if(recordedCount - index > mask)
+			{
+				++droppedCount;
+				continue;
+			}
+
+			writer.append(builder);
+		}
+
+		flushedCount = end;
+	}
+
+	/**
+	 *
+	 * @return how many samples were overwritten before they could be flushed
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+
+	/**
+	 *
+	 * @return how many samples have been recorded in total
+	 */
+	public long getRecordedCount()
+	{
+		return recordedCount;
+	}
+}
@@ -0,0 +1,78 @@
+package org.team3128.common.util.control;
+
+/**
+ * Model of the output a mechanism needs to move at a certain velocity and acceleration, so that a PID loop only has to correct
+ * what the model gets wrong.
+ *
+ * output = kS * sgn(velocity) + kV * velocity + kA * acceleration
+ *
+ * kS is the output needed to overcome static friction, kV the output per unit of velocity (which mostly cancels back-EMF),
+ * and kA the output per unit of acceleration.  They can be measured by ramping the output slowly and recording the velocity
+ * (kS is the intercept, kV the slope), then stepping it (kA from the initial acceleration).
+ *
+ * The model cannot be changed after it is made, so one can be shared between threads.
+ */
+public class FeedforwardModel
+{
+	private final double kS, kV, kA;
+
+	public FeedforwardModel(double kS, double kV, double kA)
+	{
+		if(kS < 0)
+		{
+			throw new IllegalArgumentException("kS cannot be negative");
+		}
+
+		this.kS = kS;
+		this.kV = kV;
+		this.kA = kA;
+	}
+
+	/**
+	 * Construct a model with only static friction and velocity terms.
+	 */
+	public FeedforwardModel(double kS, double kV)
+	{
+		this(kS, kV, 0);
+	}
+
+	/**
+	 * @return the output needed to move at a velocity with an acceleration
+	 */
+	public double calculate(double velocity, double acceleration)
+	{
+		return getStaticOutput(velocity) + kV * velocity + kA * acceleration;
+	}
+
+	/**
+	 * @return the output needed to hold a constant velocity
+	 */
+	public double calculate(double velocity)
+	{
+		return calculate(velocity, 0);
+	}
+
+	/**
+	 * @param direction which way to overcome friction.  Only the sign is used.
+	 * @return kS in the direction, or 0 if the direction is 0
+	 */
+	public double getStaticOutput(double direction)
+	{
+		return kS * Math.signum(direction);
+	}
+
+	public double getkS()
+	{
+		return kS;
+	}
+
+	public double getkV()
+	{
+		return kV;
+	}
+
+	public double getkA()
+	{
+		return kA;
+	}
+}
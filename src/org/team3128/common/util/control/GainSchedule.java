@@ -0,0 +1,202 @@
+package org.team3128.common.util.control;
+
+import org.team3128.common.util.datatypes.PIDConstants;
+
+/**
+ * Table of PID constants for different operating points of a mechanism, such as each gear of a
+ * TwoSpeedGearshift, or different extensions of an arm.
+ *
+ * Between two operating points, the gains are linearly interpolated.  Outside of the table,
+ * the gains of the closest end are used.
+ *
+ * The table is sorted and copied into primitive arrays when it is constructed, so a lookup is a binary search and a lerp,
+ * and does not allocate anything.  The table cannot be changed after it is made, so one schedule can be shared between threads.
+ */
+public class GainSchedule
+{
+	private final double[] operatingPoints;
+
+	private final double[] kP, kI, kD, kF;
+
+	/**
+	 * @param operatingPoints the value of the scheduling variable at each entry.  Does not have to be sorted, but cannot have duplicates.
+	 * @param constants the constants to use at each operating point.  Values are copied, so dashboard edits to them will not be seen.
+	 */
+	public GainSchedule(double[] operatingPoints, PIDConstants[] constants)
+	{
+		if(operatingPoints.length == 0 || operatingPoints.length != constants.length)
+		{
+			throw new IllegalArgumentException("Gain schedule needs the same number (at least 1) of operating points and constants");
+		}
+
+		int size = operatingPoints.length;
+
+		this.operatingPoints = new double[size];
+		kP = new double[size];
+		kI = new double[size];
+		kD = new double[size];
+		kF = new double[size];
+
+		// insertion sort by operating point.  Tables are small, and this only happens once.
+		for(int source = 0; source < size; ++source)
+		{
+			double point = operatingPoints[source];
+
+			int dest = source;
+			while(dest > 0 && this.operatingPoints[dest - 1] > point)
+			{
+				copyEntry(dest - 1, dest);
+				--dest;
+			}
+
+			if(dest > 0 && this.operatingPoints[dest - 1] == point)
+			{
+				throw new IllegalArgumentException("Operating point " + point + " is in the gain schedule twice");
+			}
+
+			this.operatingPoints[dest] = point;
+			kP[dest] = constants[source].getkP();
+			kI[dest] = constants[source].getkI();
+			kD[dest] = constants[source].getkD();
+			kF[dest] = constants[source].getkF();
+		}
+	}
+
+	/**
+	 * Construct a schedule with two entries, e.g. low gear at 0 and high gear at 1.
+	 */
+	public GainSchedule(double firstPoint, PIDConstants firstConstants, double secondPoint, PIDConstants secondConstants)
+	{
+		this(new double[]{firstPoint, secondPoint}, new PIDConstants[]{firstConstants, secondConstants});
+	}
+
+	private GainSchedule(GainSchedule other)
+	{
+		operatingPoints = other.operatingPoints.clone();
+		kP = other.kP.clone();
+		kI = other.kI.clone();
+		kD = other.kD.clone();
+		kF = other.kF.clone();
+	}
+
+	/**
+	 * Make a copy of this schedule with every kI multiplied by the given factor, e.g. to convert it to a different time unit.
+	 */
+	public GainSchedule scaleIntegral(double factor)
+	{
+		GainSchedule scaled = new GainSchedule(this);
+		for(int index = 0; index < scaled.kI.length; ++index)
+		{
+			scaled.kI[index] *= factor;
+		}
+
+		return scaled;
+	}
+
+	private void copyEntry(int from, int to)
+	{
+		operatingPoints[to] = operatingPoints[from];
+		kP[to] = kP[from];
+		kI[to] = kI[from];
+		kD[to] = kD[from];
+		kF[to] = kF[from];
+	}
+
+	/**
+	 * Find the index of the last entry whose operating point is at or below the given one.
+	 * @return the index, or 0 if the point is below the whole table.
+	 */
+	private int findSegment(double operatingPoint)
+	{
+		int low = 0;
+		int high = operatingPoints.length - 1;
+
+		while(low < high)
+		{
+			// round up so that the loop always makes progress
+			int middle = (low + high + 1) >>> 1;
+
+			if(operatingPoints[middle] <= operatingPoint)
+			{
+				low = middle;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Look up the gains at the given operating point.
+	 * @param gains array of at least 4 elements which kP, kI, kD and kF are written to, in that order.
+	 */
+	public void interpolate(double operatingPoint, double[] gains)
+	{
+		int lower = findSegment(operatingPoint);
+		int upper = lower + 1;
+
+		if(upper >= operatingPoints.length || operatingPoint <= operatingPoints[lower])
+		{
+			gains[0] = kP[lower];
+			gains[1] = kI[lower];
+			gains[2] = kD[lower];
+			gains[3] = kF[lower];
+			return;
+		}
+
+		double fraction = (operatingPoint - operatingPoints[lower]) / (operatingPoints[upper] - operatingPoints[lower]);
+
+		gains[0] = kP[lower] + (kP[upper] - kP[lower]) * fraction;
+		gains[1] = kI[lower] + (kI[upper] - kI[lower]) * fraction;
+		gains[2] = kD[lower] + (kD[upper] - kD[lower]) * fraction;
+		gains[3] = kF[lower] + (kF[upper] - kF[lower]) * fraction;
+	}
+
+	/**
+	 * Look up the gains at the given operating point and give them to one controller in a PIDLoopBank.
+	 */
+	public void apply(double operatingPoint, PIDLoopBank bank, int index)
+	{
+		int lower = findSegment(operatingPoint);
+		int upper = lower + 1;
+
+		if(upper >= operatingPoints.length || operatingPoint <= operatingPoints[lower])
+		{
+			bank.setGains(index, kP[lower], kI[lower], kD[lower], kF[lower]);
+			return;
+		}
+
+		double fraction = (operatingPoint - operatingPoints[lower]) / (operatingPoints[upper] - operatingPoints[lower]);
+
+		bank.setGains(index,
+				kP[lower] + (kP[upper] - kP[lower]) * fraction,
+				kI[lower] + (kI[upper] - kI[lower]) * fraction,
+				kD[lower] + (kD[upper] - kD[lower]) * fraction,
+				kF[lower] + (kF[upper] - kF[lower]) * fraction);
+	}
+
+	/**
+	 * Look up the gains at the given operating point as a new PIDConstants object.
+	 *
+	 * This allocates, so prefer interpolate() or apply() inside control loops.
+	 */
+	public PIDConstants getConstants(double operatingPoint)
+	{
+		double[] gains = new double[4];
+		interpolate(operatingPoint, gains);
+
+		return new PIDConstants(gains[0], gains[1], gains[2], gains[3]);
+	}
+
+	/**
+	 *
+	 * @return the number of entries in the table
+	 */
+	public int getSize()
+	{
+		return operatingPoints.length;
+	}
+}
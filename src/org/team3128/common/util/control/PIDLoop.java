@@ -0,0 +1,190 @@
+package org.team3128.common.util.control;
+
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.util.datatypes.PIDConstants;
+import org.team3128.common.util.enums.AntiWindupMode;
+
+/**
+ * A single PID controller.
+ *
+ * This is a PIDLoopBank with one controller in it, so see that class for the details of the math.
+ * If it is constructed from a PIDConstants object, the gains are re-read from it on every update, so
+ * constants which are being edited on the SmartDashboard take effect immediately.
+ */
+public class PIDLoop
+{
+	private final PIDLoopBank bank;
+
+	private PIDConstants constants;
+
+	private volatile GainSchedule schedule;
+	private DoubleSupplier operatingPoint;
+
+	private ControlTrace trace;
+
+	public PIDLoop(PIDConstants constants)
+	{
+		bank = new PIDLoopBank(1);
+		setConstants(constants);
+	}
+
+	public PIDLoop(double kP, double kI, double kD, double kF)
+	{
+		bank = new PIDLoopBank(1);
+		setGains(kP, kI, kD, kF);
+	}
+
+	/**
+	 * Use the given constants.  They will be re-read on every update.
+	 */
+	public void setConstants(PIDConstants constants)
+	{
+		schedule = null;
+		this.constants = constants;
+		bank.setConstants(0, constants);
+	}
+
+	/**
+	 * Use fixed gains.  This stops the gains from being read from any PIDConstants object that was set before.
+	 */
+	public void setGains(double kP, double kI, double kD, double kF)
+	{
+		schedule = null;
+		constants = null;
+		bank.setGains(0, kP, kI, kD, kF);
+	}
+
+	/**
+	 * Look the gains up from a gain schedule on every update.  This replaces any constants or gains that were set before.
+	 *
+	 * Since the integral is stored already multiplied by kI, changing gains does not cause the output to jump.
+	 * @param operatingPoint gives the value to look the gains up at, e.g. the gear a TwoSpeedGearshift is in (0 or 1).  Called from the control thread.
+	 */
+	public void setGainSchedule(GainSchedule schedule, DoubleSupplier operatingPoint)
+	{
+		constants = null;
+
+		// the supplier has to be in place before the schedule, since the schedule being non-null is what update() checks
+		this.operatingPoint = operatingPoint;
+		this.schedule = schedule;
+	}
+
+	/**
+	 * Record every update to the given trace.  Pass null to stop recording.
+	 */
+	public void setTrace(ControlTrace trace)
+	{
+		this.trace = trace;
+	}
+
+	/**
+	 * Set the range that the output is clamped to.  The anti-windup works off of these limits.
+	 */
+	public void setOutputLimits(double min, double max)
+	{
+		bank.setOutputLimits(0, min, max);
+	}
+
+	public void setAntiWindup(AntiWindupMode mode)
+	{
+		bank.setAntiWindup(0, mode);
+	}
+
+	/**
+	 * Set how much of the amount the output was clipped by is removed from the integral each update
+	 * when using back-calculation anti-windup.
+	 */
+	public void setBackCalculationGain(double gain)
+	{
+		bank.setBackCalculationGain(0, gain);
+	}
+
+	/**
+	 * Limit how fast the output can change.
+	 * @param rate the maximum change in output per unit of time.  0 disables the limit.
+	 */
+	public void setMaxSlewRate(double rate)
+	{
+		bank.setMaxSlewRate(0, rate);
+	}
+
+	/**
+	 * Make the input wrap around, so that the error is always the shortest way around.
+	 * @param range the distance after which the input repeats, e.g. 360 for an angle in degrees.  0 to make the input non-continuous.
+	 */
+	public void setContinuousInput(double range)
+	{
+		bank.setContinuousInput(0, range);
+	}
+
+	/**
+	 * Zero out the accumulated integral.
+	 */
+	public void resetIntegral()
+	{
+		bank.resetIntegral(0);
+	}
+
+	/**
+	 * Reset all of the loop's state.  The configuration is kept.
+	 */
+	public void reset()
+	{
+		bank.reset(0);
+	}
+
+	/**
+	 * Run one iteration of the loop.
+	 * @param dt the time since the last update
+	 * @return the new output
+	 */
+	public double update(double setpoint, double measurement, double dt)
+	{
+		GainSchedule currentSchedule = schedule;
+		PIDConstants currentConstants = constants;
+
+		if(currentSchedule != null)
+		{
+			currentSchedule.apply(operatingPoint.getAsDouble(), bank, 0);
+		}
+		else if(currentConstants != null)
+		{
+			bank.setConstants(0, currentConstants);
+		}
+
+		double output = bank.update(0, setpoint, measurement, dt);
+
+		if(trace != null)
+		{
+			trace.record(this, setpoint, measurement);
+		}
+
+		return output;
+	}
+
+	public double getError()
+	{
+		return bank.getError(0);
+	}
+
+	public double getOutput()
+	{
+		return bank.getOutput(0);
+	}
+
+	public double getProportionalTerm()
+	{
+		return bank.getProportionalTerm(0);
+	}
+
+	public double getIntegralTerm()
+	{
+		return bank.getIntegralTerm(0);
+	}
+
+	public double getDerivativeTerm()
+	{
+		return bank.getDerivativeTerm(0);
+	}
+}
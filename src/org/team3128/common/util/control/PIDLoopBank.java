@@ -0,0 +1,348 @@
+package org.team3128.common.util.control;
+
+import org.team3128.common.util.datatypes.PIDConstants;
+import org.team3128.common.util.enums.AntiWindupMode;
+
+/**
+ * A bank of independent PID controllers, stored struct-of-arrays so that several of them
+ * (for instance, the steering motors of each swerve module) can be updated in one pass without allocating anything.
+ *
+ * This is the PID math used by the whole library; PIDLoop is just a bank with one controller in it.
+ * Each controller in the bank has:
+ * <ul>
+ * <li>feedforward proportional to the setpoint (kF)</li>
+ * <li>output limits, with clamping or back-calculation anti-windup</li>
+ * <li>an optional output slew rate limit</li>
+ * <li>optional continuous (wrapping) input, for things like angles</li>
+ * </ul>
+ *
+ * Time is measured in whatever unit dt is passed in as, and the gains and slew rates have to be tuned in that same unit.
+ * MotorLogic passes milliseconds.
+ *
+ * The integral is stored already multiplied by kI, so changing the gains while the loop is running does not cause the output to jump.
+ */
+public class PIDLoopBank
+{
+	private final int size;
+
+	// configuration
+	private final double[] kP, kI, kD, kF;
+
+	private final double[] minOutput, maxOutput;
+
+	private final AntiWindupMode[] antiWindupModes;
+
+	private final double[] backCalculationGain;
+
+	// max change in output per unit time, 0 to disable
+	private final double[] maxSlewRate;
+
+	// distance the input wraps around after, 0 if the input is not continuous
+	private final double[] inputRange;
+
+	// state
+	private final double[] integral;
+
+	private final double[] proportionalTerm, derivativeTerm;
+
+	private final double[] error, previousError;
+
+	private final double[] output;
+
+	private final boolean[] hasPrevious;
+
+	/**
+	 * Construct a bank of PID loops.  All gains start at zero, the output is unlimited, and anti-windup is set to clamping.
+	 * @param size the number of controllers in the bank
+	 */
+	public PIDLoopBank(int size)
+	{
+		if(size <= 0)
+		{
+			throw new IllegalArgumentException("A PIDLoopBank needs at least one controller");
+		}
+
+		this.size = size;
+
+		kP = new double[size];
+		kI = new double[size];
+		kD = new double[size];
+		kF = new double[size];
+
+		minOutput = new double[size];
+		maxOutput = new double[size];
+
+		antiWindupModes = new AntiWindupMode[size];
+		backCalculationGain = new double[size];
+
+		maxSlewRate = new double[size];
+		inputRange = new double[size];
+
+		integral = new double[size];
+		proportionalTerm = new double[size];
+		derivativeTerm = new double[size];
+		error = new double[size];
+		previousError = new double[size];
+		output = new double[size];
+		hasPrevious = new boolean[size];
+
+		for(int index = 0; index < size; ++index)
+		{
+			minOutput[index] = Double.NEGATIVE_INFINITY;
+			maxOutput[index] = Double.POSITIVE_INFINITY;
+
+			antiWindupModes[index] = AntiWindupMode.CLAMP;
+			backCalculationGain[index] = 1;
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of controllers in the bank
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Copy the gains out of a PIDConstants object.
+	 *
+	 * The values are copied, so if they're being edited on the SmartDashboard this needs to be called again to pick up the changes.
+	 */
+	public void setConstants(int index, PIDConstants constants)
+	{
+		setGains(index, constants.getkP(), constants.getkI(), constants.getkD(), constants.getkF());
+	}
+
+	public void setGains(int index, double kP, double kI, double kD, double kF)
+	{
+		this.kP[index] = kP;
+		this.kI[index] = kI;
+		this.kD[index] = kD;
+		this.kF[index] = kF;
+	}
+
+	/**
+	 * Set the range that the output is clamped to.  The anti-windup works off of these limits.
+	 */
+	public void setOutputLimits(int index, double min, double max)
+	{
+		if(min > max)
+		{
+			throw new IllegalArgumentException("Minimum output " + min + " is greater than maximum output " + max);
+		}
+
+		minOutput[index] = min;
+		maxOutput[index] = max;
+	}
+
+	public void setAntiWindup(int index, AntiWindupMode mode)
+	{
+		antiWindupModes[index] = mode;
+	}
+
+	/**
+	 * Set how much of the amount the output was clipped by is removed from the integral each update
+	 * when using back-calculation anti-windup.  1 (the default) removes all of it.
+	 */
+	public void setBackCalculationGain(int index, double gain)
+	{
+		backCalculationGain[index] = gain;
+	}
+
+	/**
+	 * Limit how fast the output can change.
+	 * @param rate the maximum change in output per unit of time.  0 disables the limit.
+	 */
+	public void setMaxSlewRate(int index, double rate)
+	{
+		maxSlewRate[index] = Math.abs(rate);
+	}
+
+	/**
+	 * Make the input wrap around, so that the error is always the shortest way around.
+	 * @param range the distance after which the input repeats, e.g. 360 for an angle in degrees.  0 to make the input non-continuous.
+	 */
+	public void setContinuousInput(int index, double range)
+	{
+		inputRange[index] = Math.abs(range);
+	}
+
+	/**
+	 * Zero out the accumulated integral of one controller.
+	 */
+	public void resetIntegral(int index)
+	{
+		integral[index] = 0;
+	}
+
+	/**
+	 * Reset all of the state of one controller, as if it had just been created.  The configuration is kept.
+	 */
+	public void reset(int index)
+	{
+		integral[index] = 0;
+		proportionalTerm[index] = 0;
+		derivativeTerm[index] = 0;
+		error[index] = 0;
+		previousError[index] = 0;
+		output[index] = 0;
+		hasPrevious[index] = false;
+	}
+
+	/**
+	 * Reset the state of every controller in the bank.
+	 */
+	public void reset()
+	{
+		for(int index = 0; index < size; ++index)
+		{
+			reset(index);
+		}
+	}
+
+	/**
+	 * Update every controller in the bank.
+	 * @param setpoints the target of each controller
+	 * @param measurements the current value of each controller's input
+	 * @param dt the time since the last update
+	 * @param outputs array that the output of each controller is written into.  May be null.
+	 */
+	public void update(double[] setpoints, double[] measurements, double dt, double[] outputs)
+	{
+		for(int index = 0; index < size; ++index)
+		{
+			step(index, setpoints[index], measurements[index], dt);
+		}
+
+		if(outputs != null)
+		{
+			System.arraycopy(output, 0, outputs, 0, size);
+		}
+	}
+
+	/**
+	 * Update one controller in the bank.
+	 * @param dt the time since the last update
+	 * @return the new output
+	 */
+	public double update(int index, double setpoint, double measurement, double dt)
+	{
+		step(index, setpoint, measurement, dt);
+		return output[index];
+	}
+
+	private void step(int index, double setpoint, double measurement, double dt)
+	{
+		double currentError = setpoint - measurement;
+
+		double range = inputRange[index];
+		if(range > 0)
+		{
+			// wrap to [-range/2, range/2)
+			currentError -= range * Math.floor(currentError / range + .5);
+		}
+
+		boolean timeElapsed = dt > 0;
+
+		double proportional = kP[index] * currentError;
+
+		double derivative = 0;
+		if(hasPrevious[index] && timeElapsed)
+		{
+			derivative = kD[index] * (currentError - previousError[index]) / dt;
+		}
+
+		double feedforward = kF[index] * setpoint;
+
+		double integrand = timeElapsed ? kI[index] * currentError * dt : 0;
+		double newIntegral = integral[index] + integrand;
+
+		double unsaturated = proportional + newIntegral + derivative + feedforward;
+		double saturated = clamp(unsaturated, minOutput[index], maxOutput[index]);
+
+		switch(antiWindupModes[index])
+		{
+		case CLAMP:
+			// don't integrate error that would push the output further past its limit
+			if(saturated != unsaturated && integrand * (unsaturated - saturated) > 0)
+			{
+				newIntegral = integral[index];
+				saturated = clamp(proportional + newIntegral + derivative + feedforward, minOutput[index], maxOutput[index]);
+			}
+			newIntegral = clamp(newIntegral, minOutput[index], maxOutput[index]);
+			break;
+		case BACK_CALCULATION:
+			newIntegral += backCalculationGain[index] * (saturated - unsaturated);
+			break;
+		case NONE:
+		default:
+			break;
+		}
+
+		if(maxSlewRate[index] > 0 && hasPrevious[index] && timeElapsed)
+		{
+			double maxStep = maxSlewRate[index] * dt;
+			saturated = clamp(saturated, output[index] - maxStep, output[index] + maxStep);
+		}
+
+		integral[index] = newIntegral;
+		proportionalTerm[index] = proportional;
+		derivativeTerm[index] = derivative;
+		error[index] = currentError;
+		previousError[index] = currentError;
+		output[index] = saturated;
+		hasPrevious[index] = true;
+	}
+
+	private static double clamp(double value, double min, double max)
+	{
+		return value < min ? min : (value > max ? max : value);
+	}
+
+	/**
+	 *
+	 * @return the error from the last update, after wrapping if the input is continuous.
+	 */
+	public double getError(int index)
+	{
+		return error[index];
+	}
+
+	/**
+	 *
+	 * @return the output from the last update.
+	 */
+	public double getOutput(int index)
+	{
+		return output[index];
+	}
+
+	/**
+	 *
+	 * @return the P term of the last update.
+	 */
+	public double getProportionalTerm(int index)
+	{
+		return proportionalTerm[index];
+	}
+
+	/**
+	 *
+	 * @return the current I term, which is the accumulated integral times kI.
+	 */
+	public double getIntegralTerm(int index)
+	{
+		return integral[index];
+	}
+
+	/**
+	 *
+	 * @return the D term of the last update.
+	 */
+	public double getDerivativeTerm(int index)
+	{
+		return derivativeTerm[index];
+	}
+}
@@ -0,0 +1,271 @@
+package org.team3128.common.util.control;
+
+import org.team3128.common.util.datatypes.PIDConstants;
+
+/**
+ * Automatic PID tuner using the relay feedback method (Astrom-Hagglund).
+ *
+ * Instead of a PID loop, the mechanism is driven by a relay: full output one way while the measurement is below
+ * the setpoint, full output the other way while it is above.  Almost any mechanism will settle into a steady oscillation
+ * around the setpoint.  The period of that oscillation is the ultimate period, and the relay amplitude divided by the oscillation
+ * amplitude gives the ultimate gain, which are all that the classic tuning rules need.
+ *
+ * This class is only the math, so it can be run against anything: a MotorLogic (see RelayAutotuneLogic),
+ * a Talon SRX, or a simulated plant.
+ *
+ * The gains it produces are in the units of the output per unit of measurement, and per unit of whatever time values
+ * were passed to update() (milliseconds for the library's MotorLogics).
+ */
+public class RelayAutotuner
+{
+	/**
+	 * Rules for turning the ultimate gain and period into PID constants.
+	 */
+	public enum TuningRule
+	{
+		ZIEGLER_NICHOLS_PI(.45, 1 / 1.2, 0),
+		ZIEGLER_NICHOLS_PID(.6, .5, .125),
+		TYREUS_LUYBEN(1 / 2.2, 2.2, 1 / 6.3), // much less aggressive than Ziegler-Nichols, good for mechanisms with lag
+		NO_OVERSHOOT(.2, .5, 1 / 3.0);
+
+		// multiplier of Ku
+		private final double proportionalFactor;
+
+		// integral and derivative times as fractions of Tu
+		private final double integralTimeFactor, derivativeTimeFactor;
+
+		private TuningRule(double proportionalFactor, double integralTimeFactor, double derivativeTimeFactor)
+		{
+			this.proportionalFactor = proportionalFactor;
+			this.integralTimeFactor = integralTimeFactor;
+			this.derivativeTimeFactor = derivativeTimeFactor;
+		}
+	}
+
+	// cycles to let the oscillation settle before measuring it
+	private final static int SETTLING_CYCLES = 1;
+
+	private double setpoint, bias, amplitude, hysteresis;
+
+	private int cyclesToMeasure = 4;
+
+	private double timeout = 15000;
+
+	// experiment state
+	private boolean started;
+	private double startTime;
+
+	private boolean relayHigh;
+
+	private double lastCycleStartTime;
+	private int cyclesCompleted;
+
+	private double cycleMax, cycleMin;
+
+	private double periodSum, amplitudeSum;
+	private int cyclesMeasured;
+
+	private boolean finished, failed;
+
+	private double ultimateGain, ultimatePeriod;
+
+	/**
+	 *
+	 * @param setpoint the value to oscillate the measurement around
+	 * @param bias the output which roughly holds the mechanism at the setpoint (e.g. the feedforward). The relay switches around this.
+	 * @param amplitude how far above and below the bias the relay output goes
+	 * @param hysteresis how far past the setpoint the measurement has to go before the relay switches.  Should be a bit bigger than the noise in the measurement.
+	 */
+	public RelayAutotuner(double setpoint, double bias, double amplitude, double hysteresis)
+	{
+		if(amplitude <= 0)
+		{
+			throw new IllegalArgumentException("Relay amplitude must be positive");
+		}
+
+		this.bias = bias;
+		this.amplitude = amplitude;
+		this.hysteresis = Math.abs(hysteresis);
+
+		restart(setpoint);
+	}
+
+	/**
+	 * Set how many full oscillations are averaged to get the result.  Defaults to 4.
+	 */
+	public void setCyclesToMeasure(int cycles)
+	{
+		cyclesToMeasure = Math.max(1, cycles);
+	}
+
+	/**
+	 * Set how long the experiment can run before it gives up.  Defaults to 15 seconds.
+	 * @param timeout in the same units as the times passed to update()
+	 */
+	public void setTimeout(double timeout)
+	{
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Throw away any progress or results and start a new experiment around the given setpoint.
+	 */
+	public void restart(double setpoint)
+	{
+		this.setpoint = setpoint;
+
+		started = false;
+		finished = false;
+		failed = false;
+
+		cyclesCompleted = 0;
+		cyclesMeasured = 0;
+		periodSum = 0;
+		amplitudeSum = 0;
+
+		lastCycleStartTime = Double.NaN;
+	}
+
+	/**
+	 * Run one step of the experiment.
+	 * @param measurement the current value of the process variable
+	 * @param time the current time.  Must be monotonic.
+	 * @return the output to apply to the mechanism.  Once the experiment is finished, this is the bias.
+	 */
+	public double update(double measurement, double time)
+	{
+		if(finished)
+		{
+			return bias;
+		}
+
+		if(!started)
+		{
+			started = true;
+			startTime = time;
+			relayHigh = measurement < setpoint;
+			cycleMax = measurement;
+			cycleMin = measurement;
+		}
+
+		if(time - startTime > timeout)
+		{
+			failed = true;
+			finished = true;
+			return bias;
+		}
+
+		cycleMax = Math.max(cycleMax, measurement);
+		cycleMin = Math.min(cycleMin, measurement);
+
+		double error = setpoint - measurement;
+
+		if(!relayHigh && error > hysteresis)
+		{
+			relayHigh = true;
+
+			// each switch to high output starts a new cycle
+			if(!Double.isNaN(lastCycleStartTime))
+			{
+				++cyclesCompleted;
+
+				if(cyclesCompleted > SETTLING_CYCLES)
+				{
+					periodSum += time - lastCycleStartTime;
+					amplitudeSum += (cycleMax - cycleMin) / 2;
+					++cyclesMeasured;
+				}
+			}
+
+			lastCycleStartTime = time;
+			cycleMax = measurement;
+			cycleMin = measurement;
+
+			if(cyclesMeasured >= cyclesToMeasure)
+			{
+				calculateResults();
+				return bias;
+			}
+		}
+		else if(relayHigh && error < -hysteresis)
+		{
+			relayHigh = false;
+		}
+
+		return relayHigh ? bias + amplitude : bias - amplitude;
+	}
+
+	private void calculateResults()
+	{
+		finished = true;
+
+		double oscillationAmplitude = amplitudeSum / cyclesMeasured;
+
+		// correct for the hysteresis, which makes the oscillation look bigger than it is
+		double squaredAmplitude = oscillationAmplitude * oscillationAmplitude - hysteresis * hysteresis;
+		if(squaredAmplitude <= 0)
+		{
+			failed = true;
+			return;
+		}
+
+		ultimateGain = (4 * amplitude) / (Math.PI * Math.sqrt(squaredAmplitude));
+		ultimatePeriod = periodSum / cyclesMeasured;
+	}
+
+	/**
+	 *
+	 * @return true if the experiment is over, either because it succeeded or because it failed.
+	 */
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	/**
+	 *
+	 * @return true if the experiment timed out or did not produce a usable oscillation.
+	 */
+	public boolean hasFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 *
+	 * @return the measured ultimate gain, Ku.  Only valid once the experiment has finished without failing.
+	 */
+	public double getUltimateGain()
+	{
+		return ultimateGain;
+	}
+
+	/**
+	 *
+	 * @return the measured ultimate period, Tu.  Only valid once the experiment has finished without failing.
+	 */
+	public double getUltimatePeriod()
+	{
+		return ultimatePeriod;
+	}
+
+	/**
+	 * Calculate PID constants from the experiment's results.
+	 *
+	 * kF is always zero; combine the result with a separately measured feedforward.
+	 * @return the constants, or null if the experiment has not succeeded
+	 */
+	public PIDConstants getConstants(TuningRule rule)
+	{
+		if(!finished || failed)
+		{
+			return null;
+		}
+
+		double kP = rule.proportionalFactor * ultimateGain;
+		double kI = kP / (rule.integralTimeFactor * ultimatePeriod);
+		double kD = kP * rule.derivativeTimeFactor * ultimatePeriod;
+
+		return new PIDConstants(kP, kI, kD, 0);
+	}
+}
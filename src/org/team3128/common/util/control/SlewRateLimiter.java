@@ -0,0 +1,132 @@
+package org.team3128.common.util.control;
+
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Limits how fast a value, usually a motor power, can change, so that a step in the target becomes a ramp.
+ *
+ * The value can move away from zero at the accelerating rate and towards zero at the braking rate, which is usually set higher
+ * so that the robot can still stop quickly.  With a jerk limit, the rate of change itself ramps up and down too,
+ * turning the corners of the ramp into curves, which is gentler on gearboxes and wheel traction.
+ *
+ * All of the state is primitive, and step() does not allocate.  It is not thread safe: only one thread should call step().
+ */
+public class SlewRateLimiter
+{
+	private double acceleratingRate, brakingRate;
+
+	// 0 for no limit
+	private double jerk;
+
+	private double value;
+
+	// current rate of change, per second.  Only used with a jerk limit.
+	private double rate;
+
+	/**
+	 * @param acceleratingRate how fast the value can move away from zero, in units per second
+	 * @param brakingRate how fast the value can move towards zero, in units per second
+	 */
+	public SlewRateLimiter(double acceleratingRate, double brakingRate)
+	{
+		this(acceleratingRate, brakingRate, 0);
+	}
+
+	/**
+	 * @param acceleratingRate how fast the value can move away from zero, in units per second
+	 * @param brakingRate how fast the value can move towards zero, in units per second
+	 * @param jerk how fast the rate of change can change, in units per second squared.  0 for no limit.
+	 */
+	public SlewRateLimiter(double acceleratingRate, double brakingRate, double jerk)
+	{
+		setRates(acceleratingRate, brakingRate, jerk);
+	}
+
+	/**
+	 * Change the limits.  The value and its rate of change are kept.
+	 */
+	public void setRates(double acceleratingRate, double brakingRate, double jerk)
+	{
+		if(acceleratingRate <= 0 || brakingRate <= 0 || jerk < 0)
+		{
+			throw new IllegalArgumentException("Slew rates must be positive, and jerk cannot be negative");
+		}
+
+		this.acceleratingRate = acceleratingRate;
+		this.brakingRate = brakingRate;
+		this.jerk = jerk;
+	}
+
+	/**
+	 * Move the value towards the target as far as the limits allow.
+	 * @param target the value to move towards
+	 * @param dt time since the last step, in seconds
+	 * @return the new value
+	 */
+	public double step(double target, double dt)
+	{
+		double error = target - value;
+
+		if(error == 0 && rate == 0)
+		{
+			return value;
+		}
+
+		// moving towards zero (or across it) is braking
+		double maxRate = value * error < 0 ? brakingRate : acceleratingRate;
+
+		if(jerk == 0)
+		{
+			double maxChange = maxRate * dt;
+			value += RobotMath.clamp(error, -maxChange, maxChange);
+			return value;
+		}
+
+		// the fastest rate from which the value can still slow down in time to stop at the target
+		double stoppingRate = Math.sqrt(2 * jerk * Math.abs(error));
+
+		double desiredRate = Math.min(Math.min(maxRate, stoppingRate), dt > 0 ? Math.abs(error) / dt : 0);
+		desiredRate = Math.copySign(desiredRate, error);
+
+		double maxRateChange = jerk * dt;
+		rate += RobotMath.clamp(desiredRate - rate, -maxRateChange, maxRateChange);
+
+		// when crossing zero, the braking rate becomes the lower accelerating rate.  The slew limit wins over the jerk limit.
+		rate = RobotMath.clamp(rate, -maxRate, maxRate);
+
+		value += rate * dt;
+
+		// went past the target, or got close enough that the next step would
+		double newError = target - value;
+		if(newError * error <= 0 || (Math.abs(newError) < maxRateChange * dt && Math.abs(rate) <= maxRateChange))
+		{
+			value = target;
+			rate = 0;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Jump straight to a value, with no rate of change.
+	 */
+	public void reset(double value)
+	{
+		this.value = value;
+		rate = 0;
+	}
+
+	public double getValue()
+	{
+		return value;
+	}
+
+	/**
+	 *
+	 * @return true if the value is at the target and not moving
+	 */
+	public boolean isSettled(double target)
+	{
+		return value == target && rate == 0;
+	}
+}
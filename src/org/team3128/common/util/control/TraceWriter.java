@@ -0,0 +1,192 @@
+package org.team3128.common.util.control;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.team3128.common.util.Log;
+
+/**
+ * Background thread which periodically writes ControlTraces to CSV files, one per trace.
+ *
+ * The thread is started when the first trace is added.  Files go in /home/lvuser/traces unless setDirectory()
+ * is called first, and are named after the trace.  If two traces have the same name, the second one's file gets a number
+ * on the end, so they don't overwrite each other.
+ */
+public class TraceWriter
+{
+	final private static String TAG = "TraceWriter";
+
+	private final static long FLUSH_INTERVAL = 250; //ms
+
+	private static File directory = new File("/home/lvuser/traces");
+
+	private static final CopyOnWriteArrayList<ControlTrace> traces = new CopyOnWriteArrayList<>();
+
+	private static Thread thread;
+
+	/**
+	 * Set the directory that trace files are created in.  Only affects traces added after this is called.
+	 */
+	public static synchronized void setDirectory(File newDirectory)
+	{
+		directory = newDirectory;
+	}
+
+	/**
+	 * Start writing the given trace to a file.
+	 */
+	public static synchronized void addTrace(ControlTrace trace)
+	{
+		traces.add(trace);
+
+		if(thread == null)
+		{
+			thread = new Thread(TraceWriter::run, "TraceWriter");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Get the trace with the given name which is being written, or start writing a new one if there isn't one.
+	 *
+	 * Use this for traces which are created over and over, like one per command, so that they share one trace and one file
+	 * instead of each adding another.  Everything using the trace has to record from the same thread.
+	 */
+	public static synchronized ControlTrace getTrace(String name)
+	{
+		for(ControlTrace trace : traces)
+		{
+			if(trace.getName().equals(name))
+			{
+				return trace;
+			}
+		}
+
+		ControlTrace trace = new ControlTrace(name);
+		addTrace(trace);
+		return trace;
+	}
+
+	/**
+	 * Stop writing the given trace.  Anything still in its buffer is written first.
+	 */
+	public static void removeTrace(ControlTrace trace)
+	{
+		traces.remove(trace);
+	}
+
+	private static synchronized File getDirectory()
+	{
+		return directory;
+	}
+
+	private static void run()
+	{
+		// the writer for each trace, in the same order as the traces they belong to
+		ArrayList<ControlTrace> openTraces = new ArrayList<>();
+		ArrayList<Writer> writers = new ArrayList<>();
+
+		// every file opened so far, so that no two traces write to the same one
+		HashSet<File> usedFiles = new HashSet<>();
+
+		StringBuilder builder = new StringBuilder(256);
+
+		while(true)
+		{
+			try
+			{
+				Thread.sleep(FLUSH_INTERVAL);
+			}
+			catch(InterruptedException e)
+			{
+				return;
+			}
+
+			// open files for new traces
+			for(ControlTrace trace : traces)
+			{
+				if(!openTraces.contains(trace))
+				{
+					Writer writer = open(trace, usedFiles);
+					if(writer == null)
+					{
+						// don't keep trying to open a file that can't be made
+						traces.remove(trace);
+						continue;
+					}
+
+					openTraces.add(trace);
+					writers.add(writer);
+				}
+			}
+
+			for(int index = openTraces.size() - 1; index >= 0; --index)
+			{
+				ControlTrace trace = openTraces.get(index);
+				Writer writer = writers.get(index);
+
+				boolean removed = !traces.contains(trace);
+
+				try
+				{
+					trace.flush(writer, builder);
+					writer.flush();
+
+					if(removed)
+					{
+						writer.close();
+					}
+				}
+				catch(IOException e)
+				{
+					Log.recoverable(TAG, "Could not write trace " + trace.getName() + ": " + e.getMessage());
+					traces.remove(trace);
+					removed = true;
+				}
+
+				if(removed)
+				{
+					openTraces.remove(index);
+					writers.remove(index);
+				}
+			}
+		}
+	}
+
+	private static Writer open(ControlTrace trace, HashSet<File> usedFiles)
+	{
+		File traceDirectory = getDirectory();
+		traceDirectory.mkdirs();
+
+		String baseName = trace.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+		File file = new File(traceDirectory, baseName + ".csv");
+		for(int number = 2; usedFiles.contains(file); ++number)
+		{
+			file = new File(traceDirectory, baseName + "_" + number + ".csv");
+		}
+		usedFiles.add(file);
+
+		try
+		{
+			Writer writer = new BufferedWriter(new FileWriter(file));
+			writer.write(ControlTrace.CSV_HEADER);
+			writer.write('\n');
+
+			Log.info(TAG, "Writing trace " + trace.getName() + " to " + file.getPath());
+			return writer;
+		}
+		catch(IOException e)
+		{
+			Log.recoverable(TAG, "Could not create trace file " + file.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
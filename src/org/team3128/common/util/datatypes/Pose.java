@@ -0,0 +1,74 @@
+package org.team3128.common.util.datatypes;
+
+/**
+ * Immutable position and heading of the robot on the field at one moment.
+ *
+ * x is to the right and y is forward, in centimeters.  The heading is in degrees clockwise from the y axis, the same as a gyro.
+ */
+public class Pose
+{
+	public static final Pose ORIGIN = new Pose(0, 0, 0, 0);
+
+	private final double x, y;
+
+	private final double heading;
+
+	private final long timestamp;
+
+	/**
+	 * @param x in cm
+	 * @param y in cm
+	 * @param heading in degrees
+	 * @param timestamp when the robot was here, from System.nanoTime()
+	 */
+	public Pose(double x, double y, double heading, long timestamp)
+	{
+		this.x = x;
+		this.y = y;
+		this.heading = heading;
+		this.timestamp = timestamp;
+	}
+
+	public double getX()
+	{
+		return x;
+	}
+
+	public double getY()
+	{
+		return y;
+	}
+
+	/**
+	 *
+	 * @return the heading in degrees clockwise from the y axis.  Not wrapped, so it keeps counting past 360.
+	 */
+	public double getHeading()
+	{
+		return heading;
+	}
+
+	/**
+	 *
+	 * @return when the robot was at this pose, from System.nanoTime()
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 *
+	 * @return the straight-line distance to another pose, in cm
+	 */
+	public double distanceTo(Pose other)
+	{
+		return Math.hypot(other.x - x, other.y - y);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Pose(%.1f cm, %.1f cm, %.1f deg)", x, y, heading);
+	}
+}
@@ -0,0 +1,25 @@
+package org.team3128.common.util.enums;
+
+/**
+ * How a PID loop keeps its integral term from winding up while the output is saturated.
+ *
+ */
+public enum AntiWindupMode
+{
+	/**
+	 * The integral is always accumulated.  Only useful if the output can never saturate.
+	 */
+	NONE,
+
+	/**
+	 * Conditional integration: while the output is pinned at a limit, error which would push it
+	 * further into that limit is not integrated.  The integral is also clamped to the output range.
+	 */
+	CLAMP,
+
+	/**
+	 * Back-calculation: the amount that the output was clipped by is fed back into the integral,
+	 * so it unwinds smoothly instead of freezing.
+	 */
+	BACK_CALCULATION;
+}
@@ -26,6 +26,7 @@ public class NarwhalVisionReceiver
 	private ByteBufferOutput packetWriter;
 	
 	private long lastPacketRecvTime = 0;
+	private long lastPacketRecvNanoTime = 0;
 	private String coprocessorIPAddress = "10.31.28.xxx";
 	
 	//make sure to only access through synchronized functions, updated asynchronously
@@ -80,6 +81,10 @@ public class NarwhalVisionReceiver
 				continue;
 			}
 			
+			// as close to the packet's arrival as possible, before spending time on decoding it
+			long receivedTime = System.currentTimeMillis();
+			long receivedNanoTime = System.nanoTime();
+			
 			setCoprocessorIP(visionPacket.getAddress().toString());
 			
 			Log.info(TAG, "Setting buffer...");
@@ -89,8 +94,7 @@ public class NarwhalVisionReceiver
 			{
 				Log.info(TAG, "Trying to decode a packet.");
 				TargetInformation targetInfo = kryo.readObject(packetReader, TargetInformation.class);
-				onTargetInfoReceived(targetInfo);
-				setLastPacketReceivedTime(System.currentTimeMillis());
+				onTargetInfoReceived(targetInfo, receivedTime, receivedNanoTime);
 				
 				Log.debug("NarwhalVisionReceiver", "Got a target information packet: " + targetInfo);
 			}
@@ -154,9 +158,14 @@ public class NarwhalVisionReceiver
 		return lastPacketRecvTime;
 	}
 	
-	private synchronized void setLastPacketReceivedTime(long time)
+	/**
+	 * Gets the System.nanoTime() of when the last packet was received, for looking up where the robot was at the time (minus the
+	 * phone's processing delay) in a PoseHistory.
+	 * @return the System.nanoTime() when the packet arrived, before it was decoded, or 0 if no packet has ever been received
+	 */
+	public synchronized long getLastPacketReceivedNanoTime()
 	{
-		lastPacketRecvTime = time;
+		return lastPacketRecvNanoTime;
 	}
 	
 	/**
@@ -181,8 +190,14 @@ public class NarwhalVisionReceiver
 		return mostRecentTargets.toArray(new TargetInformation[mostRecentTargets.size()]);
 	}
 	
-	private synchronized void onTargetInfoReceived(TargetInformation target)
+	/**
+	 * Record a target, along with when its packet arrived, so that nobody sees the new target with the old time.
+	 */
+	private synchronized void onTargetInfoReceived(TargetInformation target, long time, long nanoTime)
 	{
+		lastPacketRecvTime = time;
+		lastPacketRecvNanoTime = nanoTime;
+		
 		//if the index is 1, clear the list and start over because we are getting data from the next frame
 		if(target.targetRanking == 1)
 		{
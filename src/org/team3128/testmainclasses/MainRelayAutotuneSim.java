@@ -0,0 +1,136 @@
+package org.team3128.testmainclasses;
+
+import org.team3128.common.hardware.encoder.velocity.IVelocityEncoder;
+import org.team3128.common.hardware.motor.DCMotor;
+import org.team3128.common.hardware.motor.logic.PIDSpeedLogic;
+import org.team3128.common.hardware.motor.logic.RelayAutotuneLogic;
+import org.team3128.common.simulation.FlywheelSim;
+import org.team3128.common.simulation.SimEncoder;
+import org.team3128.common.simulation.SimSpeedController;
+import org.team3128.common.util.control.RelayAutotuner.TuningRule;
+import org.team3128.common.util.datatypes.PIDConstants;
+import org.team3128.common.util.units.Angle;
+
+/**
+ * Runs RelayAutotuneLogic on a simulated shooter flywheel, then drives the flywheel with a PIDSpeedLogic using the tuned gains.
+ *
+ * Run it on a computer, not the robot.  Both logics are stepped by hand, so it takes well under a second.
+ */
+public class MainRelayAutotuneSim
+{
+	// milliseconds
+	final private static int STEP_TIME = 10;
+
+	final private static double TARGET_SPEED = 6000; // degrees per second
+
+	/**
+	 * Speed measurement averaged over the last 100 ms, like a Talon's, which is what gives the loop its lag.
+	 */
+	private static class WindowedEncoder implements IVelocityEncoder
+	{
+		private final SimEncoder encoder;
+		private final double[] samples = new double[100 / STEP_TIME];
+		private int nextSample;
+
+		private double sign = 1;
+
+		public WindowedEncoder(SimEncoder encoder)
+		{
+			this.encoder = encoder;
+		}
+
+		public void sample()
+		{
+			samples[nextSample] = encoder.getAngularSpeed();
+			nextSample = (nextSample + 1) % samples.length;
+		}
+
+		public void setReversed(boolean reversed)
+		{
+			sign = reversed ? -1 : 1;
+		}
+
+		@Override
+		public double getAngularSpeed()
+		{
+			double sum = 0;
+			for(double sample : samples)
+			{
+				sum += sample;
+			}
+
+			return sign * sum / samples.length;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		FlywheelSim flywheel = new FlywheelSim(DCMotor.CIM, 2, .005);
+		flywheel.setViscousFriction(.0005);
+		SimSpeedController controller = new SimSpeedController(flywheel);
+		WindowedEncoder encoder = new WindowedEncoder(new SimEncoder(flywheel));
+
+		// power which roughly holds the target speed, from the motor's free speed
+		double freeSpeed = DCMotor.CIM.freeSpeed / 2 * 6; // degrees per second
+		double bias = TARGET_SPEED / freeSpeed;
+
+		RelayAutotuneLogic autotune = new RelayAutotuneLogic(encoder, bias, .2, 100);
+
+		flywheel.setState(0, TARGET_SPEED / Angle.RADIANS);
+		autotune.setControlTarget(TARGET_SPEED);
+
+		int steps = 0;
+		while(!autotune.isComplete())
+		{
+			encoder.sample();
+			controller.set(autotune.step(STEP_TIME));
+			flywheel.step(STEP_TIME / 1000.0);
+			++steps;
+		}
+
+		System.out.println("Autotuning took " + steps * STEP_TIME / 1000.0 + " simulated seconds");
+
+		PIDConstants tuned = autotune.getConstants(TuningRule.ZIEGLER_NICHOLS_PI);
+		if(tuned == null)
+		{
+			System.out.println("Autotuning failed");
+			return;
+		}
+
+		PIDConstants speedConstants = autotune.getSpeedLogicConstants(TuningRule.ZIEGLER_NICHOLS_PI, STEP_TIME);
+		System.out.println("Textbook PI: kP " + tuned.getkP() + " kI " + tuned.getkI() + " per ms");
+		System.out.println("PIDSpeedLogic: kP " + speedConstants.getkP() + " kD " + speedConstants.getkD());
+
+		// PIDSpeedLogic expects the encoder to read negative going forwards
+		encoder.setReversed(true);
+		PIDSpeedLogic speedLogic = new PIDSpeedLogic(TARGET_SPEED, STEP_TIME, encoder, speedConstants);
+
+		flywheel.setState(0, 0);
+		speedLogic.setControlTarget(TARGET_SPEED);
+
+		double peakSpeed = 0;
+		double settleTime = -1;
+		for(int step = 1; step * STEP_TIME <= 5000; ++step)
+		{
+			encoder.sample();
+			controller.set(speedLogic.step(STEP_TIME));
+			flywheel.step(STEP_TIME / 1000.0);
+
+			double speed = flywheel.getVelocity() * Angle.RADIANS;
+			peakSpeed = Math.max(peakSpeed, speed);
+
+			if(Math.abs(speed - TARGET_SPEED) > .02 * TARGET_SPEED)
+			{
+				settleTime = -1;
+			}
+			else if(settleTime < 0)
+			{
+				settleTime = step * STEP_TIME / 1000.0;
+			}
+		}
+
+		double finalSpeed = flywheel.getVelocity() * Angle.RADIANS;
+		System.out.printf("Step to %.0f deg/s: overshoot %.1f%%, settled within 2%% after %.2f s, final error %.1f deg/s%n", TARGET_SPEED,
+				100 * (peakSpeed - TARGET_SPEED) / TARGET_SPEED, settleTime, finalSpeed - TARGET_SPEED);
+	}
+}
@@ -2,6 +2,9 @@ package org.team3128.testmainclasses;
 
 import org.team3128.common.NarwhalRobot;
 import org.team3128.common.util.Log;
+import org.team3128.common.util.control.RelayAutotuner;
+import org.team3128.common.util.control.RelayAutotuner.TuningRule;
+import org.team3128.common.util.datatypes.PIDConstants;
 
 import com.ctre.phoenix.motorcontrol.ControlMode;
 import com.ctre.phoenix.motorcontrol.FeedbackDevice;
@@ -17,10 +20,14 @@ public class MainSRXVelocityPIDCalib extends NarwhalRobot
 	static int CAN_ID = 0;
 	static double TESTING_MOTOR_POWER = 1;
 	
+	// how far the relay swings the motor power around the feedforward while autotuning
+	static double AUTOTUNE_RELAY_AMPLITUDE = .2;
+	
 	private enum State
 	{
 		TEST_DIR,
 		CALIB_FEEDFORWARD,
+		AUTOTUNE_PID,
 		CALIB_PID
 	}
 	
@@ -34,6 +41,10 @@ public class MainSRXVelocityPIDCalib extends NarwhalRobot
 	
 	// estimated max speed of the motor
 	private double motorMaxRPM;
+	
+	private RelayAutotuner autotuner;
+	
+	private long autotuneStartTime;
 		
 	@Override
 	protected void constructHardware() 
@@ -100,16 +111,49 @@ public class MainSRXVelocityPIDCalib extends NarwhalRobot
 			if(joy.getTrigger())
 			{
 				motorMaxRPM = testSRX.getSelectedSensorVelocity(0);
-				SmartDashboard.putNumber("P", 0);
-				SmartDashboard.putNumber("I", 0);
-				SmartDashboard.putNumber("D", 0);
 				
 				testSRX.config_kF(0, feedforward, 500);
+				
+				// oscillate around half speed, with the relay switching around the power that holds that speed
+				autotuner = new RelayAutotuner(motorMaxRPM / 2, TESTING_MOTOR_POWER / 2, AUTOTUNE_RELAY_AMPLITUDE, motorMaxRPM * .02);
+				autotuneStartTime = System.currentTimeMillis();
+				state = State.AUTOTUNE_PID;
+				
+				Log.info(TAG, "Autotuning PID constants...");
+			}
+			break;
+		case AUTOTUNE_PID:
+			double power = autotuner.update(testSRX.getSelectedSensorVelocity(0), System.currentTimeMillis() - autotuneStartTime);
+			testSRX.set(ControlMode.PercentOutput, power);
+			
+			if(autotuner.isFinished())
+			{
+				double kP = 0, kI = 0, kD = 0;
+				
+				if(autotuner.hasFailed())
+				{
+					Log.recoverable(TAG, "Autotuning failed, starting manual calibration from zero.");
+				}
+				else
+				{
+					// the tuner works in percent output per native unit per millisecond.
+					// The Talon works in 1023ths of output per native unit, and its loop runs every millisecond.
+					PIDConstants tunedConstants = autotuner.getConstants(TuningRule.ZIEGLER_NICHOLS_PI);
+					kP = tunedConstants.getkP() * 1023;
+					kI = tunedConstants.getkI() * 1023;
+					kD = tunedConstants.getkD() * 1023;
+					
+					Log.info(TAG, "Autotuned to P: " + kP + " I: " + kI + " D: " + kD);
+				}
+				
+				SmartDashboard.putNumber("P", kP);
+				SmartDashboard.putNumber("I", kI);
+				SmartDashboard.putNumber("D", kD);
+				
 				state = State.CALIB_PID;
-								
-				Log.info(TAG, "Please calibrate PID constants. The joystick controls speed.");
+				
+				Log.info(TAG, "Please check the PID constants. The joystick controls speed.");
 				Log.info(TAG, "When these PID values work, you're done!");
-
 			}
 			break;
 		case CALIB_PID:
@@ -0,0 +1,173 @@
+package org.team3128.testmainclasses;
+
+import java.util.Arrays;
+
+import org.team3128.common.hardware.motor.DCMotor;
+import org.team3128.common.hardware.motor.MotorGroup;
+import org.team3128.common.hardware.motor.MotorLogic;
+import org.team3128.common.simulation.FlywheelSim;
+import org.team3128.common.simulation.SimSpeedController;
+
+/**
+ * Measures how long MotorGroup.setTarget() takes while the MotorLogic's control step is running on another thread.
+ *
+ * The control step busy-waits for 2 ms out of every 5 ms, standing in for an expensive logic.  It is measured through the
+ * MotorLogic mailbox, and again through a copy of the old scheme, where setting the target and the step were both synchronized
+ * on the logic, so that the two can be compared on the same machine.
+ *
+ * Run it on a computer, not the robot.
+ */
+public class MainSetTargetBenchmark
+{
+	final private static int PERIOD = 5; // ms
+
+	final private static long STEP_BUSY_TIME = 2000000; // ns
+
+	final private static int CALLS = 20000;
+
+	final private static long CALL_INTERVAL = 50000; // ns
+
+	private static void busyWait(long nanos)
+	{
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end)
+		{
+			// spin
+		}
+	}
+
+	/**
+	 * A logic whose every step takes a long time.
+	 */
+	private static class SlowLogic extends MotorLogic
+	{
+		private double target;
+
+		public SlowLogic()
+		{
+			setRefreshTime(PERIOD);
+		}
+
+		@Override
+		protected void applyControlTarget(double val)
+		{
+			target = val;
+		}
+
+		@Override
+		protected void resetState()
+		{
+			target = 0;
+		}
+
+		@Override
+		public double speedControlStep(double dt)
+		{
+			busyWait(STEP_BUSY_TIME);
+			return target;
+		}
+
+		@Override
+		public boolean isComplete()
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * The old scheme: the target is set under the same lock that the whole step runs under.
+	 */
+	private static class LockedLogic
+	{
+		private double target;
+
+		public synchronized void setTarget(double target)
+		{
+			this.target = target;
+		}
+
+		public synchronized double step()
+		{
+			busyWait(STEP_BUSY_TIME);
+			return target;
+		}
+	}
+
+	private interface TargetSetter
+	{
+		void setTarget(double target);
+	}
+
+	/**
+	 * Call setter CALLS times, one every CALL_INTERVAL, and print the distribution of how long the calls took.
+	 */
+	private static void measure(String name, TargetSetter setter)
+	{
+		long[] latencies = new long[CALLS];
+
+		long nextCall = System.nanoTime();
+		for(int call = 0; call < CALLS; ++call)
+		{
+			while(System.nanoTime() < nextCall)
+			{
+				// wait for the next call
+			}
+			nextCall += CALL_INTERVAL;
+
+			long start = System.nanoTime();
+			setter.setTarget(call % 2 == 0 ? .5 : -.5);
+			latencies[call] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(latencies);
+
+		int slowCalls = 0;
+		for(long latency : latencies)
+		{
+			if(latency > 100000)
+			{
+				++slowCalls;
+			}
+		}
+
+		System.out.printf("%-8s p50 %6.1f us  p99 %7.1f us  p99.9 %7.1f us  max %7.1f us  %d calls over 100 us%n", name,
+				latencies[CALLS / 2] / 1e3, latencies[CALLS * 99 / 100] / 1e3, latencies[CALLS * 999 / 1000] / 1e3,
+				latencies[CALLS - 1] / 1e3, slowCalls);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		LockedLogic lockedLogic = new LockedLogic();
+		Thread lockedThread = new Thread(() ->
+		{
+			while(!Thread.currentThread().isInterrupted())
+			{
+				lockedLogic.step();
+
+				try
+				{
+					Thread.sleep(PERIOD - STEP_BUSY_TIME / 1000000);
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+			}
+		});
+		lockedThread.setDaemon(true);
+		lockedThread.start();
+
+		measure("before", lockedLogic::setTarget);
+
+		lockedThread.interrupt();
+		lockedThread.join();
+
+		MotorGroup group = new MotorGroup(new SlowLogic(), new SimSpeedController(new FlywheelSim(DCMotor.CIM, 1, .01)));
+		group.startControl(0);
+
+		measure("after", group::setTarget);
+
+		group.stopSpeedControl();
+		System.exit(0);
+	}
+}
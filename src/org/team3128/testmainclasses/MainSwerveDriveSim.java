@@ -0,0 +1,165 @@
+package org.team3128.testmainclasses;
+
+import java.util.function.DoubleSupplier;
+
+import org.team3128.common.drive.SwerveDrive2;
+import org.team3128.common.drive.SwerveKinematics;
+import org.team3128.common.drive.SwerveOdometry;
+import org.team3128.common.drive.SwerveSteeringBank;
+import org.team3128.common.hardware.motor.DCMotor;
+import org.team3128.common.hardware.motor.MotorGroup;
+import org.team3128.common.simulation.FlywheelSim;
+import org.team3128.common.simulation.SimEncoder;
+import org.team3128.common.simulation.SimSpeedController;
+import org.team3128.common.util.datatypes.Pose;
+import org.team3128.common.util.units.Angle;
+
+import edu.wpi.first.wpilibj.interfaces.Gyro;
+
+/**
+ * Checks a swerve drive against simulated hardware.
+ *
+ * First, a SwerveDrive2 is built up one module at a time, on simulated motors, and driven after each module is added, so that
+ * a drive with fewer modules than it will end up with still works.  The module targets of the finished 4-module drive are printed
+ * for a drive-and-turn command.
+ *
+ * Then a simulated chassis drives and turns along a curve for 10 seconds.  Each module's speed and angle come from the inverse
+ * kinematics, and its distance is added up every 0.1 ms.  SwerveOdometry is fed those every 5 ms, with and without a gyro,
+ * and its pose is compared against the chassis'.
+ *
+ * Run it on a computer, not the robot.
+ */
+public class MainSwerveDriveSim
+{
+	final private static double MODULE_OFFSET = 30; // cm from the center in x and y
+
+	final private static double SIM_STEP = .0001; // s
+
+	final private static int ODOMETRY_PERIOD = 5; // ms
+
+	final private static double DURATION = 10; // s
+
+	/**
+	 * Gyro which reads whatever heading it is given.
+	 */
+	private static class SimGyro implements Gyro
+	{
+		double angle;
+
+		@Override
+		public void calibrate()
+		{
+		}
+
+		@Override
+		public void reset()
+		{
+			angle = 0;
+		}
+
+		@Override
+		public double getAngle()
+		{
+			return angle;
+		}
+
+		@Override
+		public double getRate()
+		{
+			return 0;
+		}
+
+		@Override
+		public void free()
+		{
+		}
+	}
+
+	private static void buildDrive()
+	{
+		double[] xs = {-1, 1, 1, -1}, ys = {1, 1, -1, -1};
+
+		SwerveDrive2 drive = new SwerveDrive2();
+		for(int index = 0; index < xs.length; ++index)
+		{
+			FlywheelSim steeringSim = new FlywheelSim(DCMotor.CIM, 50, .001);
+			MotorGroup turnMotor = new MotorGroup(new SimSpeedController(steeringSim));
+			MotorGroup driveMotor = new MotorGroup(new SimSpeedController(new FlywheelSim(DCMotor.CIM, 8, .001)));
+
+			drive.addModule(turnMotor, driveMotor, new SimEncoder(steeringSim), null, 0, xs[index], ys[index], 0, .01, 0, 0);
+			drive.drive(0, 1, 0);
+
+			System.out.println("Added module " + (index + 1) + ", driving forward works");
+		}
+
+		drive.drive(0, 1, .5);
+
+		SwerveSteeringBank steering = drive.getSteering();
+		for(int index = 0; index < steering.getModuleCount(); ++index)
+		{
+			System.out.printf("Forward and half clockwise: module %d at (%2.0f, %2.0f) steers to %6.1f deg from 0%n", index + 1, xs[index], ys[index],
+					steering.getTarget(index));
+		}
+
+		steering.stop();
+	}
+
+	private static void checkOdometry(boolean useGyro)
+	{
+		double[] xs = {-MODULE_OFFSET, MODULE_OFFSET, MODULE_OFFSET, -MODULE_OFFSET};
+		double[] ys = {MODULE_OFFSET, MODULE_OFFSET, -MODULE_OFFSET, -MODULE_OFFSET};
+		SwerveKinematics kinematics = new SwerveKinematics(xs, ys);
+
+		SimGyro gyro = new SimGyro();
+		SwerveOdometry odometry = new SwerveOdometry(kinematics, new DoubleSupplier[4], new DoubleSupplier[4], useGyro ? gyro : null, ODOMETRY_PERIOD);
+
+		double[] speeds = new double[4], angles = new double[4], distances = new double[4];
+
+		// the chassis' pose, with the heading in radians clockwise like Pose
+		double x = 0, y = 0, heading = 0;
+
+		int steps = (int) Math.round(DURATION / SIM_STEP);
+		int stepsPerUpdate = (int) Math.round(ODOMETRY_PERIOD / 1000.0 / SIM_STEP);
+		for(int step = 0; step <= steps; ++step)
+		{
+			double time = step * SIM_STEP;
+
+			// cm/s to the right and forward, and radians per second counterclockwise
+			double vx = 100 * Math.sin(time / 2);
+			double vy = 150;
+			double omega = .8 * Math.sin(time);
+
+			kinematics.toModuleStates(vx, vy, omega, speeds, angles);
+			for(int index = 0; index < 4; ++index)
+			{
+				distances[index] += speeds[index] * SIM_STEP;
+			}
+
+			double cos = Math.cos(heading), sin = Math.sin(heading);
+			x += (vx * cos + vy * sin) * SIM_STEP;
+			y += (vy * cos - vx * sin) * SIM_STEP;
+			heading -= omega * SIM_STEP;
+
+			if(step % stepsPerUpdate == 0)
+			{
+				gyro.angle = heading * Angle.RADIANS;
+				odometry.update(distances, angles, gyro.angle, Math.round(time * 1e9));
+			}
+		}
+
+		Pose pose = odometry.getPose();
+		System.out.printf("%-13s chassis at (%7.1f, %7.1f) cm, %6.1f deg; odometry at (%7.1f, %7.1f) cm, %6.1f deg; position error %.1f cm%n",
+				useGyro ? "With gyro:" : "Without gyro:", x, y, heading * Angle.RADIANS, pose.getX(), pose.getY(), pose.getHeading(),
+				Math.hypot(pose.getX() - x, pose.getY() - y));
+	}
+
+	public static void main(String[] args)
+	{
+		buildDrive();
+
+		checkOdometry(false);
+		checkOdometry(true);
+
+		System.exit(0);
+	}
+}
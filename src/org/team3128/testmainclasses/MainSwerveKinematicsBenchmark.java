@@ -0,0 +1,74 @@
+package org.team3128.testmainclasses;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.team3128.common.drive.SwerveKinematics;
+
+/**
+ * Measures how long one SwerveDrive2.drive() worth of kinematics takes for a 4-module drive: working out the module powers,
+ * desaturating them, and optimizing the steering.  Also checks that it doesn't allocate.
+ *
+ * Calls are timed in batches, since one call is shorter than System.nanoTime() can reliably measure.
+ *
+ * Run it on a computer, not the robot.
+ */
+public class MainSwerveKinematicsBenchmark
+{
+	final private static int WARMUP_CALLS = 2000000;
+
+	final private static int BATCHES = 2000;
+
+	final private static int CALLS_PER_BATCH = 1000;
+
+	private static final double[] speeds = new double[4], angles = new double[4], currentAngles = new double[4];
+
+	// keeps the results alive so that the calls aren't optimized away
+	private static double sink;
+
+	private static void drive(SwerveKinematics kinematics, int call)
+	{
+		// sweep the inputs around, so the steering sometimes has to flip
+		double direction = call * .001;
+		kinematics.toModulePowers(Math.cos(direction), Math.sin(direction), Math.sin(call * .0007), speeds, angles);
+		SwerveKinematics.optimize(currentAngles, angles, speeds);
+
+		System.arraycopy(angles, 0, currentAngles, 0, 4);
+		sink += speeds[call & 3];
+	}
+
+	public static void main(String[] args)
+	{
+		SwerveKinematics kinematics = new SwerveKinematics(new double[] {-1, 1, 1, -1}, new double[] {1, 1, -1, -1});
+
+		for(int call = 0; call < WARMUP_CALLS; ++call)
+		{
+			drive(kinematics, call);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		double[] batchTimes = new double[BATCHES];
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+
+		int call = 0;
+		for(int batch = 0; batch < BATCHES; ++batch)
+		{
+			long start = System.nanoTime();
+			for(int index = 0; index < CALLS_PER_BATCH; ++index)
+			{
+				drive(kinematics, call++);
+			}
+			batchTimes[batch] = (System.nanoTime() - start) / (double) CALLS_PER_BATCH;
+		}
+
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		Arrays.sort(batchTimes);
+		System.out.printf("Per call: median %.0f ns, p99 %.0f ns, max %.0f ns over %d batches of %d calls%n", batchTimes[BATCHES / 2],
+				batchTimes[BATCHES * 99 / 100], batchTimes[BATCHES - 1], BATCHES, CALLS_PER_BATCH);
+		System.out.printf("Allocated %.3f bytes per call (%d bytes in total, including the timing)%n", allocated / (double) call, allocated);
+		System.out.println("Checksum " + sink);
+	}
+}
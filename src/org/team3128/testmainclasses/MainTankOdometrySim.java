@@ -0,0 +1,161 @@
+package org.team3128.testmainclasses;
+
+import org.team3128.common.drive.DriveFeedback;
+import org.team3128.common.drive.TankOdometry;
+import org.team3128.common.drive.WheelDistanceTracker;
+import org.team3128.common.util.datatypes.Pose;
+import org.team3128.common.util.units.Angle;
+
+/**
+ * Drives a simulated tank drive along an S-curve, clearing its encoders halfway while it is moving, and compares the pose
+ * from TankOdometry against the true pose.
+ *
+ * The simulated Talons only report their positions and velocities in status frames every 10 ms, with the velocity averaged over
+ * 100 ms, and a clear takes effect a millisecond after it is sent, so it shows up in a later frame than the one the odometry
+ * reads next.  The odometry is fed once from the raw positions and once through a WheelDistanceTracker.
+ *
+ * Run it on a computer, not the robot.
+ */
+public class MainTankOdometrySim
+{
+	final private static double TRACK_WIDTH = 60; // cm
+
+	final private static double WHEEL_CIRCUMFERENCE = 6 * 2.54 * Math.PI; // cm
+
+	final private static double UNITS_PER_CM = 4096 / WHEEL_CIRCUMFERENCE;
+
+	final private static int SIM_STEP = 1; // ms
+
+	final private static int FRAME_PERIOD = 10; // ms
+
+	final private static int ODOMETRY_PERIOD = 5; // ms
+
+	final private static int VELOCITY_WINDOW = 100; // ms
+
+	final private static int CLEAR_TIME = 2003; // ms
+
+	final private static int DURATION = 4000; // ms
+
+	/**
+	 * One side's Talon: the encoder count it keeps, and what it last reported in a status frame.
+	 */
+	private static class SimSide
+	{
+		double trueDistance; // cm, never cleared
+		double clearedAt; // cm of true distance where the encoder was last zeroed
+
+		final double[] history = new double[VELOCITY_WINDOW / SIM_STEP + 1];
+		int historyIndex;
+
+		int reportedPosition, reportedVelocity;
+
+		void step(double speed)
+		{
+			trueDistance += speed * SIM_STEP / 1000.0;
+
+			history[historyIndex] = trueDistance;
+			historyIndex = (historyIndex + 1) % history.length;
+		}
+
+		void clear()
+		{
+			clearedAt = trueDistance;
+		}
+
+		void sendFrame()
+		{
+			reportedPosition = (int) Math.round((trueDistance - clearedAt) * UNITS_PER_CM);
+
+			// the oldest entry is VELOCITY_WINDOW ago
+			double windowStart = history[historyIndex];
+			reportedVelocity = (int) Math.round((trueDistance - windowStart) * UNITS_PER_CM * 100 / VELOCITY_WINDOW);
+		}
+	}
+
+	private static double leftSpeed(double time)
+	{
+		// cm/s: accelerate, weave left and right, then coast
+		double cruise = Math.min(1, time / .5) * 250;
+		return cruise * (1 + .3 * Math.sin(2 * Math.PI * time / 2.5));
+	}
+
+	private static double rightSpeed(double time)
+	{
+		double cruise = Math.min(1, time / .5) * 250;
+		return cruise * (1 - .3 * Math.sin(2 * Math.PI * time / 2.5));
+	}
+
+	public static void main(String[] args)
+	{
+		SimSide left = new SimSide(), right = new SimSide();
+
+		TankOdometry rawOdometry = new TankOdometry(() -> 0, () -> 0, () -> 0, 0, ODOMETRY_PERIOD);
+		TankOdometry trackedOdometry = new TankOdometry(() -> 0, () -> 0, () -> 0, 0, ODOMETRY_PERIOD);
+		WheelDistanceTracker tracker = new WheelDistanceTracker();
+
+		double trueX = 0, trueY = 0, trueHeading = 0; // cm, cm, radians clockwise
+
+		for(int time = 0; time <= DURATION; time += SIM_STEP)
+		{
+			double seconds = time / 1000.0;
+			double leftSpeed = leftSpeed(seconds), rightSpeed = rightSpeed(seconds);
+
+			// exact arc over the step
+			double distance = (leftSpeed + rightSpeed) / 2 * SIM_STEP / 1000.0;
+			double headingDelta = (leftSpeed - rightSpeed) / TRACK_WIDTH * SIM_STEP / 1000.0;
+			double chord = Math.abs(headingDelta) < 1e-12 ? distance : 2 * distance / headingDelta * Math.sin(headingDelta / 2);
+			trueX += chord * Math.sin(trueHeading + headingDelta / 2);
+			trueY += chord * Math.cos(trueHeading + headingDelta / 2);
+			trueHeading += headingDelta;
+
+			left.step(leftSpeed);
+			right.step(rightSpeed);
+
+			if(time == CLEAR_TIME)
+			{
+				// the drive tells its listeners before sending the clear
+				tracker.encodersCleared();
+			}
+			else if(time == CLEAR_TIME + 1)
+			{
+				left.clear();
+				right.clear();
+			}
+
+			if(time % FRAME_PERIOD == 0)
+			{
+				left.sendFrame();
+				right.sendFrame();
+			}
+
+			if(time % ODOMETRY_PERIOD == 0)
+			{
+				long timestamp = time * 1000000L;
+				double heading = trueHeading * Angle.RADIANS;
+
+				DriveFeedback feedback = new DriveFeedback();
+				feedback.timestamp = timestamp;
+				feedback.leftPosition = left.reportedPosition;
+				feedback.rightPosition = right.reportedPosition;
+				feedback.leftVelocity = left.reportedVelocity;
+				feedback.rightVelocity = right.reportedVelocity;
+
+				rawOdometry.update(feedback.leftPosition / UNITS_PER_CM, feedback.rightPosition / UNITS_PER_CM, heading, timestamp);
+
+				tracker.update(feedback);
+				trackedOdometry.update(tracker.getLeftDistance() / UNITS_PER_CM, tracker.getRightDistance() / UNITS_PER_CM, heading,
+						timestamp);
+			}
+		}
+
+		System.out.printf("True pose:         x %8.1f cm  y %8.1f cm  heading %6.1f deg%n", trueX, trueY, trueHeading * Angle.RADIANS);
+		print("Raw positions:", rawOdometry.getPose(), trueX, trueY);
+		print("Distance tracker:", trackedOdometry.getPose(), trueX, trueY);
+	}
+
+	private static void print(String name, Pose pose, double trueX, double trueY)
+	{
+		System.out.printf("%-18s x %8.1f cm  y %8.1f cm  position error %6.1f cm%n", name, pose.getX(), pose.getY(),
+				Math.hypot(pose.getX() - trueX, pose.getY() - trueY));
+	}
+}